@@ -3,11 +3,13 @@ package controller;
 import graphics.Animation;
 import graphics.CameraController;
 import graphics.GameRenderer;
-import graphics.ParticleEffect;
 import graphics.ParticleJet;
+import graphics.ParticleSystem;
+import graphics.Snowfall;
 import graphics.StaticAnimation;
 import graphics.TrajectoryTween;
 import io.IceWorldLoader;
+import io.InputLogWriter;
 import io.LevelIO;
 
 import java.util.ArrayList;
@@ -22,10 +24,12 @@ import org.jbox2d.dynamics.Body;
 import physics.Agent;
 import physics.BreadBall;
 import physics.FlyingPieceOfFood;
+import physics.FoodFlowField;
 import physics.FoodPiece;
 import physics.FreeSpace;
 import physics.Goose;
 import physics.IceWorld;
+import physics.IceWorldSnapshot;
 import physics.LinearTrajectory;
 import physics.ThrownTrajectory;
 import physics.Trajectory;
@@ -33,6 +37,8 @@ import sound.AudioController;
 import tessellation.IceSheet;
 import util.PhysicsUtil;
 import util.RandomUtil;
+import util.RealTimeClock;
+import util.SimulationClock;
 
 /**
  * The game controller handles some processing between the input layer and the
@@ -50,12 +56,17 @@ public abstract class GameController {
   private static final int POINTS_PER_ICE_BREAK = 1;
   public static final int POINTS_PER_ICE_SHEET = 100;
   private static final float MAX_TRAJECTORY_ERROR = 0.01f;
+  // With simulation LOD on, how far beyond the screen (as a fraction of the
+  // screen's size in the world) is still simulated in full detail.
+  private static final float LOD_FOCUS_MARGIN = 0.5f;
+  // A fifth of a goose, so that geese find their way through gaps in the ice.
+  private static final float FOOD_FLOW_CELL_SIZE = 1.0f;
   
   private IceWorld gameWorld;
   private int score;
   private List<FlyingPieceOfFood> foodsInFlight;
-  private List<ParticleEffect> particles;
-  private List<Vec2> snowflakes;
+  private ParticleSystem particles;
+  private Snowfall snowfall;
   private float xMinBound;
   private float xMaxBound;
   private float yMinBound;
@@ -64,7 +75,10 @@ public abstract class GameController {
   private AudioController audio;
   private String userMessage;
   private long userMessageHideTimeMs;
-  private long lastStepTimeMillis;
+  private SimulationClock clock;
+  private InputLogWriter inputLog;
+  private AABB lodFocus;
+  private AABB visibleRegion;
   
   public GameController(IceWorld world, GameRenderer renderer, AudioController audio) {
     this.gameWorld = world;
@@ -73,29 +87,31 @@ public abstract class GameController {
     this.audio = audio;
     this.score = 0;
     this.foodsInFlight = new ArrayList<FlyingPieceOfFood>();
-    this.particles = new ArrayList<ParticleEffect>();
+    this.particles = new ParticleSystem();
     
     this.xMinBound = this.yMinBound = Float.MIN_VALUE;
     this.xMaxBound = this.yMaxBound = Float.MAX_VALUE;
     
-    this.lastStepTimeMillis = System.currentTimeMillis();
-    this.snowflakes = new ArrayList<Vec2>();
+    this.clock = new RealTimeClock();
+    this.lodFocus = new AABB();
+    this.visibleRegion = new AABB();
+    this.snowfall = new Snowfall(new AABB(), 0, this.gameWorld.getEffectsRandom());
   }
   
-  private void initSnowFlakes(int numflakes) {
+  /**
+   * Helper method. Start snow falling over the whole area the camera can
+   * see, at its most zoomed out and panned to any of its bounds.
+   * @param numFlakes
+   */
+  private void initSnowFlakes(int numFlakes) {
     float maxw = this.renderer.getCamera().getScreenWidth() / CameraController.MIN_ZOOM_FACTOR;
     float maxh = this.renderer.getCamera().getScreenHeight() / CameraController.MIN_ZOOM_FACTOR;
-    float minx = this.renderer.getCamera().getPanBoundLowerX() - maxw/2;
-    float miny = this.renderer.getCamera().getPanBoundLowerY() - maxh/2;
-    float maxx = this.renderer.getCamera().getPanBoundUpperX() + maxw/2;
-    float maxy = this.renderer.getCamera().getPanBoundUpperY() + maxh/2;
-    
-    for (int i = 0; i < numflakes; ++i) {
-      float x = (float) RandomUtil.Uniform(minx, maxx);
-      float y = (float) RandomUtil.Uniform(miny, maxy);
-      this.snowflakes.add(new Vec2(x, y));
-      System.out.println("Add new flake (" + x + "," + y + ")");
-    }
+    AABB region = new AABB(
+        new Vec2(this.renderer.getCamera().getPanBoundLowerX() - maxw/2,
+            this.renderer.getCamera().getPanBoundLowerY() - maxh/2),
+        new Vec2(this.renderer.getCamera().getPanBoundUpperX() + maxw/2,
+            this.renderer.getCamera().getPanBoundUpperY() + maxh/2));
+    this.snowfall = new Snowfall(region, numFlakes, this.gameWorld.getEffectsRandom());
   }
   
   /**
@@ -182,7 +198,7 @@ public abstract class GameController {
   }
   
   
-  public List<ParticleEffect> getParticles() {
+  public ParticleSystem getParticles() {
     return this.particles;
   }
   
@@ -212,17 +228,6 @@ public abstract class GameController {
     }
   }
   
-  private void timeStepParticles(float dt) {
-    for (int i = this.particles.size()-1; i >= 0; --i) {
-      ParticleEffect part = this.particles.get(i);
-      if (part.isFinished()) {
-        this.particles.remove(i);
-      } else {
-        part.step(dt);
-      }
-    }
-  }
-  
   /**
    * Step the flying food, and step the physics world.
    * @param dt
@@ -231,22 +236,140 @@ public abstract class GameController {
    */
   private void timeStep(float dt, int velIters, int posIters) {
     timeStepFlyingFood(dt);
-    timeStepParticles(dt);
+    this.particles.step(dt);
+    this.snowfall.step(dt);
     this.gameWorld.step(dt, velIters, posIters);
     this.audio.step();
   }
   
+  /**
+   * Get the clock which all game rules read the time from.
+   * @return
+   */
+  public SimulationClock getClock() {
+    return this.clock;
+  }
+  
+  /**
+   * Switch to a different clock, e.g. a SimulatedTickClock to run faster
+   * than real time. Running timers keep their elapsed time.
+   * @param clock
+   */
+  public void setClock(SimulationClock clock) {
+    long offsetMillis = clock.currentTimeMillis() - this.clock.currentTimeMillis();
+    this.clock = clock;
+    this.userMessageHideTimeMs += offsetMillis;
+    this.onClockChanged(offsetMillis);
+  }
+  
+  /**
+   * Called by setClock(). Controllers which keep timestamps should shift them
+   * by offsetMillis.
+   * @param offsetMillis
+   */
+  protected void onClockChanged(long offsetMillis) {
+  }
+  
+  /**
+   * Step the game by the time given by the clock: the real time elapsed since
+   * the last step, or one tick for a simulated clock.
+   * @param rate Simulation speed relative to game time.
+   * @param vItersPerSec
+   * @param posItersPerSec
+   */
   public void step(float rate, int vItersPerSec, int posItersPerSec) {
-    long now = System.currentTimeMillis();
-    float dt = (now - this.lastStepTimeMillis) / 1000.0f;
-    this.lastStepTimeMillis = now;
+    this.stepMillis(this.clock.nextStepMillis(), rate, vItersPerSec, posItersPerSec);
+  }
+  
+  /**
+   * Step the game by the given elapsed time. Controllers with per-step game
+   * rules should override this rather than step(), so that the rules also
+   * run during replays.
+   * @param elapsedMillis
+   * @param rate
+   * @param vItersPerSec
+   * @param posItersPerSec
+   */
+  public void stepMillis(long elapsedMillis, float rate, int vItersPerSec, int posItersPerSec) {
+    this.clock.advance(elapsedMillis);
+    if (this.inputLog != null) {
+      this.inputLog.recordStep(elapsedMillis, rate, vItersPerSec, posItersPerSec);
+    }
+    float dt = elapsedMillis / 1000.0f;
     int vIters = (int) (vItersPerSec * dt);
     int pIters = (int) (posItersPerSec * dt);
     
     this.renderer.getCamera().unshake();
+    this.renderer.getCamera().getVisibleWorldAABB(this.visibleRegion);
+    this.particles.setVisibleRegion(this.visibleRegion);
+    if (this.gameWorld.getLodStride() > 1) {
+      this.updateLodFocus();
+    }
     this.timeStep(rate * dt, vIters, pIters);
   }
   
+  /**
+   * Turn on simulation level of detail: geese far off screen only think
+   * every stride'th step, and ice breaking far off screen makes no particles.
+   * A stride of 1 turns it off. See IceWorld.setLodStride().
+   * @param stride
+   */
+  public void setSimulationLod(int stride) {
+    if (this.inputLog != null) {
+      this.inputLog.recordSimulationLod(stride);
+    }
+    this.gameWorld.setLodStride(stride);
+  }
+  
+  /**
+   * Helper method. Focus the world's level of detail on what's on screen,
+   * plus a margin.
+   */
+  private void updateLodFocus() {
+    this.renderer.getCamera().getVisibleWorldAABB(this.lodFocus);
+    float marginX = GameController.LOD_FOCUS_MARGIN
+        * (this.lodFocus.upperBound.x - this.lodFocus.lowerBound.x);
+    float marginY = GameController.LOD_FOCUS_MARGIN
+        * (this.lodFocus.upperBound.y - this.lodFocus.lowerBound.y);
+    this.lodFocus.lowerBound.x -= marginX;
+    this.lodFocus.lowerBound.y -= marginY;
+    this.lodFocus.upperBound.x += marginX;
+    this.lodFocus.upperBound.y += marginY;
+    this.gameWorld.setLodFocus(this.lodFocus);
+  }
+  
+  /**
+   * Save the game-rule state (score, food in flight) into a world snapshot.
+   * Called by IceWorld.takeSnapshot(). Controllers with state of their own
+   * should override this, call super.saveState() first, and then save their
+   * own state.
+   * @param snapshot
+   */
+  public void saveState(IceWorldSnapshot snapshot) {
+    snapshot.putInt(this.score);
+    snapshot.putInt(this.foodsInFlight.size());
+    for (FlyingPieceOfFood foodFlight : this.foodsInFlight) {
+      snapshot.putRef(foodFlight);
+      snapshot.putFloat(foodFlight.getCurrentTime());
+    }
+  }
+  
+  /**
+   * Restore the state saved by saveState(). Called by
+   * IceWorld.restoreSnapshot().
+   * @param snapshot
+   */
+  public void restoreState(IceWorldSnapshot snapshot) {
+    this.score = snapshot.getInt();
+    this.foodsInFlight.clear();
+    int numInFlight = snapshot.getInt();
+    for (int i = 0; i < numInFlight; ++i) {
+      FlyingPieceOfFood foodFlight = (FlyingPieceOfFood) snapshot.getRef();
+      foodFlight.setCurrentTime(snapshot.getFloat());
+      this.foodsInFlight.add(foodFlight);
+    }
+  }
+  
   /**
    * Get the end-of-the-game bonus points. These should be added to the score
    * exactly once.
@@ -286,7 +409,7 @@ public abstract class GameController {
     ThrownTrajectory trajectory = new ThrownTrajectory(pos, vel, FreeSpace.GRAVITY, FreeSpace.AIR_RESISTANCE);
     float timeOfFlight = trajectory.getTimeOfFlightApprox(GameController.MAX_TRAJECTORY_ERROR);
     TrajectoryTween tween = new TrajectoryTween(trajectory, 0, timeOfFlight);
-    this.foodsInFlight.add(new FlyingPieceOfFood(food, tween));
+    this.foodsInFlight.add(new FlyingPieceOfFood(food, tween, this.gameWorld.getRandom()));
     this.audio.playAudio(AudioController.Clip.WOOSH);
   }
   
@@ -333,37 +456,59 @@ public abstract class GameController {
     this.addScore(GameController.POINTS_PER_ICE_BREAK);
     this.audio.playAudio(AudioController.Clip.ICE_CRUNCH);
     
+    // Outside the focus the particles are skipped rather than not made at
+    // all: the effects random number generator is part of the state hash, so
+    // it mustn't depend on where the camera is.
     Animation iceAnim = new StaticAnimation("ice_particle", 0);
-    ParticleJet iceJet = new ParticleJet(iceAnim, pos);
+    ParticleJet iceJet = new ParticleJet(iceAnim, pos, this.gameWorld.getEffectsRandom());
     iceJet.setAngle(0, 6.28f);
     iceJet.setAngularVelocity(-3.14f, 3.14f);
     iceJet.setLifetime(0.1f, 0.3f);
     iceJet.setMagnitude(0.3f, 0.4f);
     iceJet.setSize(2f, 2f);
-    for (int i = 0; i < 2; ++i) {
-      this.particles.add(iceJet.generate());
+    if (this.gameWorld.isInLodFocus(pos)) {
+      iceJet.emit(this.particles, 2);
+    } else {
+      iceJet.skip(2);
     }
     //this.addParticleJet(iceAnim, pos, 1, 3, 1, 3, 2, 0, 3.14f, 0.2f, 0.4f);
   }
   
   
-  public void onAgentActs(Agent agent) {
-    if (agent instanceof Goose) {
-      Goose goose = (Goose) agent;
+  /**
+   * Callback called by the physics world once per step with every Agent which
+   * acted during the step.
+   * @param agents
+   */
+  public void onAgentsAct(List<Agent> agents) {
+    Animation splashAnim = null;
+    for (int i = 0; i < agents.size(); ++i) {
+      if (!(agents.get(i) instanceof Goose)) {
+        continue;
+      }
+      Goose goose = (Goose) agents.get(i);
       if (goose.isFlapping()) {
-        Animation splashAnim = new StaticAnimation("water_particle", 0);
-        ParticleJet waterJet = new ParticleJet(splashAnim, goose.getBody().getPosition());
+        if (splashAnim == null) {
+          splashAnim = new StaticAnimation("water_particle", 0);
+        }
+        ParticleJet waterJet = new ParticleJet(splashAnim, goose.getBody().getPosition(), this.gameWorld.getEffectsRandom());
         waterJet.setAngle(goose.getBody().getAngle() + 3.14f, 3.14f);
         waterJet.setLifetime(0.2f, 0.4f);
         waterJet.setMagnitude(1, 1.5f);
         waterJet.setRadius(0.5f, 1);
         waterJet.setSize(2, 3);
-        this.particles.add(waterJet.generate());
+        // Skipped, not left out, off-screen; see onAgentBreaksIce().
+        if (this.gameWorld.isInLodFocus(goose.getBody().getPosition())) {
+          waterJet.emit(this.particles, 1);
+        } else {
+          waterJet.skip(1);
+        }
         //this.addParticleJet(splashAnim, goose.getBody().getPosition(), 1f, 2f, 1f, 2f, 1, goose.getBody().getAngle() + 3.14f, 0.75f, 0.2f, 2);
       }
     }
   }
   
+  
   /**
    * Callback called by the physics world whenever an Agent eats a FoodPiece.
    * @param agent
@@ -373,25 +518,23 @@ public abstract class GameController {
     MassData md = new MassData();
     food.getShape().computeMass(md, food.getDensity());
     this.addScore((int)(GameController.POINTS_PER_FOOD_MASS_UNIT * md.mass));
-    if (RandomUtil.Uniform(0, 1) < 0.2) {
+    if (RandomUtil.Uniform(this.gameWorld.getEffectsRandom(), 0, 1) < 0.2) {
       this.audio.playAudio(AudioController.Clip.GOOSE_GROWL);
     } else {
-      int clipID = RandomUtil.UniformInt(AudioController.Clip.GOOSE_HONK1.ordinal(), AudioController.Clip.GOOSE_HONK4.ordinal() + 1);
+      int clipID = RandomUtil.UniformInt(this.gameWorld.getEffectsRandom(), AudioController.Clip.GOOSE_HONK1.ordinal(), AudioController.Clip.GOOSE_HONK4.ordinal() + 1);
       this.audio.playAudio(AudioController.Clip.values()[clipID]);
     }
     
     Animation crumbAnim = new StaticAnimation("bread_particle", 0);
     Vec2 source = agent.getBody().getPosition();
-    ParticleJet breadJet = new ParticleJet(crumbAnim, source);
+    ParticleJet breadJet = new ParticleJet(crumbAnim, source, this.gameWorld.getEffectsRandom());
     breadJet.setAngle(0, 6.28f);
     breadJet.setAngularVelocity(-6.28f, 6.28f);
     breadJet.setLifetime(0.1f, 0.5f);
     breadJet.setMagnitude(4, 5);
     breadJet.setRadius(0, 1);
     breadJet.setSize(0.1f, 2);
-    for (int i = 0; i < 30; ++i) {
-      this.particles.add(breadJet.generate());
-    }
+    breadJet.emit(this.particles, 30);
     //this.addParticleJet(crumbAnim, source, 0.2f, 1, 0.2f, 1, 10, 0, 3.14f, 0.2f, 5);
     //this.addParticleJet(crumbAnim, source, 0.2f, 1, 0.2f, 1, 10, 0, 3.14f, 0.4f, 4);
     //this.addParticleJet(crumbAnim, source, 0.2f, 1, 0.2f, 1, 10, 0, 3.14f, 0.6f, 4);
@@ -407,20 +550,16 @@ public abstract class GameController {
     this.audio.playAudio(AudioController.Clip.PLUNK);
     
     Animation splashAnim = new StaticAnimation("water_particle", 0);
-    ParticleJet waterJet = new ParticleJet(splashAnim, pos);
+    ParticleJet waterJet = new ParticleJet(splashAnim, pos, this.gameWorld.getEffectsRandom());
     waterJet.setLifetime(0.3f, 0.4f);
     waterJet.setMagnitude(2, 2.5f);
     waterJet.setRadius(0.2f, 0.5f);
     waterJet.setSize(2, 3);
     
     waterJet.setAngle(-0.57f, 1.54f);
-    for (int i = 0; i < 2; ++i) {
-      this.particles.add(waterJet.generate());
-    }
+    waterJet.emit(this.particles, 2);
     waterJet.setAngle(3.14f + 0.57f, 1.54f);
-    for (int i = 0; i < 2; ++i) {
-      this.particles.add(waterJet.generate());
-    }
+    waterJet.emit(this.particles, 2);
     //this.addParticleJet(splashAnim, pos, 1f, 2f, 1f, 2f, 2, 0, 1.2f, 0.35f, 2);
     //this.addParticleJet(splashAnim, pos, 1f, 2f, -2f, -1f, 2, 3.14f, 1.2f, 0.35f, 2);
   }
@@ -454,7 +593,7 @@ public abstract class GameController {
     
     if (this.userMessage != null) {
       
-      if (System.currentTimeMillis() > this.userMessageHideTimeMs) {
+      if (this.clock.currentTimeMillis() > this.userMessageHideTimeMs) {
         this.hideUserMessage();
       }
     }
@@ -471,12 +610,15 @@ public abstract class GameController {
     IceWorldLoader worldLoader = new IceWorldLoader();
     worldLoader.loadFromProto(level, this.gameWorld);
     this.setBoundaries(level.getBounds());
+    // The field covers the same region as the walls around the level.
+    this.gameWorld.setFoodFlowField(new FoodFlowField(level.getBounds(),
+        GameController.FOOD_FLOW_CELL_SIZE));
   }
   
 
   public void showUserMessage(String msg, long timeMs) {
     this.userMessage = msg;
-    this.userMessageHideTimeMs = System.currentTimeMillis() + timeMs;
+    this.userMessageHideTimeMs = this.clock.currentTimeMillis() + timeMs;
   }
   
   public void hideUserMessage() {
@@ -484,13 +626,29 @@ public abstract class GameController {
   }
   
   public String getUserMessageOrNull() {
-    if (System.currentTimeMillis() > this.userMessageHideTimeMs) {
+    if (this.clock.currentTimeMillis() > this.userMessageHideTimeMs) {
       this.hideUserMessage();
     }
     return this.userMessage;
   }
   
+  /**
+   * Record all further inputs (steps, flings, panning and zooming) to the
+   * given log, or stop recording if null.
+   * @param log
+   */
+  public void setInputLog(InputLogWriter log) {
+    this.inputLog = log;
+  }
+  
+  public InputLogWriter getInputLog() {
+    return this.inputLog;
+  }
+  
   public void setViewportSize(int w, int h) {
+    if (this.inputLog != null) {
+      this.inputLog.recordViewportSize(w, h);
+    }
     AABB worldBounds = PhysicsUtil.getWorldShapesAABB(this.getGameWorld());
     System.out.println("x: " + worldBounds.lowerBound.x + " - " + worldBounds.upperBound.x);
     System.out.println("y: " + worldBounds.lowerBound.y + " - " + worldBounds.upperBound.y);
@@ -504,16 +662,25 @@ public abstract class GameController {
   }
   
   public void translateViewport(float dx, float dy) {
+    if (this.inputLog != null) {
+      this.inputLog.recordTranslateViewport(dx, dy);
+    }
     float worldDx = this.renderer.getCamera().scaleFromViewport(dx);
     float worldDy = this.renderer.getCamera().scaleFromViewport(dy);
     this.renderer.getCamera().translateViewport(worldDx, worldDy);
   }
   
   public void scaleViewport(float scaleFactor) {
+    if (this.inputLog != null) {
+      this.inputLog.recordScaleViewport(scaleFactor);
+    }
     this.renderer.getCamera().zoomViewport(scaleFactor);
   }
   
   public void fling(float viewportX, float viewportY, float viewportVelX, float viewportVelY) {
+    if (this.inputLog != null) {
+      this.inputLog.recordFling(viewportX, viewportY, viewportVelX, viewportVelY);
+    }
     float flingStartX = this.renderer.getCamera().transformFromViewportX(viewportX);
     float flingStartY = this.renderer.getCamera().transformFromViewportY(this.renderer.getCamera().getScreenHeight());
     float xyAngle = (float) Math.atan2(viewportVelY, viewportVelX);
@@ -530,7 +697,7 @@ public abstract class GameController {
     }
   }
 
-  public List<Vec2> getSnowflakes() {
-    return this.snowflakes;
+  public Snowfall getSnowfall() {
+    return this.snowfall;
   }
 }
@@ -5,6 +5,7 @@ import graphics.GameRenderer;
 import io.LevelIO;
 import physics.BreadBall;
 import physics.IceWorld;
+import physics.IceWorldSnapshot;
 import sound.AudioController;
 
 /**
@@ -49,15 +50,37 @@ public class LimitedBreadModeController extends GameController {
    * If it should start ending, start the game end timer.
    */
   @Override
-  public void step(float dt, int posIters, int velIters) {
-    super.step(dt, posIters, velIters);
+  public void stepMillis(long elapsedMillis, float rate, int vItersPerSec, int posItersPerSec) {
+    super.stepMillis(elapsedMillis, rate, vItersPerSec, posItersPerSec);
     if (!this.shouldStartGameEndTimer()) {
       this.gameEndTimer = -1;
     } else if (this.gameEndTimer < 0) {
-      this.gameEndTimer = System.currentTimeMillis();
+      this.gameEndTimer = this.getClock().currentTimeMillis();
     }
   }
   
+  @Override
+  protected void onClockChanged(long offsetMillis) {
+    super.onClockChanged(offsetMillis);
+    if (this.gameEndTimer >= 0) {
+      this.gameEndTimer += offsetMillis;
+    }
+  }
+  
+  @Override
+  public void saveState(IceWorldSnapshot snapshot) {
+    super.saveState(snapshot);
+    snapshot.putInt(this.breadSupply);
+    snapshot.putLong(this.gameEndTimer);
+  }
+  
+  @Override
+  public void restoreState(IceWorldSnapshot snapshot) {
+    super.restoreState(snapshot);
+    this.breadSupply = snapshot.getInt();
+    this.gameEndTimer = snapshot.getLong();
+  }
+  
   @Override
   public void throwBreadBall(float size, float x0, float y0, float xyAngle, float zAngle, float speed) {
     if (!hasEnoughBreadFor(size)) {
@@ -74,7 +97,7 @@ public class LimitedBreadModeController extends GameController {
   @Override
   public boolean hasGameEnded() {
     return this.gameEndTimer > 0 &&
-        System.currentTimeMillis() - this.gameEndTimer >
+        this.getClock().currentTimeMillis() - this.gameEndTimer >
             LimitedBreadModeController.WAIT_FOR_GAME_END_MS;
   }
 
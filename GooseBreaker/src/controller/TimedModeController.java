@@ -3,6 +3,7 @@ package controller;
 import graphics.GameRenderer;
 import io.LevelIO;
 import physics.IceWorld;
+import physics.IceWorldSnapshot;
 import sound.AudioController;
 
 public class TimedModeController extends LimitedBreadModeController {
@@ -14,14 +15,14 @@ public class TimedModeController extends LimitedBreadModeController {
   }
   
   public void restart(long limitMS) {
-    this.startTimeMillis = System.currentTimeMillis();
+    this.startTimeMillis = this.getClock().currentTimeMillis();
     this.timeLimitMillis = limitMS;
     this.resetBreadSupply();
     this.addBreadSupply((int) (this.timeLimitMillis / 1000 / 2));
   }
   
   public long getElapsedMillis() {
-    return System.currentTimeMillis() - this.startTimeMillis;
+    return this.getClock().currentTimeMillis() - this.startTimeMillis;
   }
   
   
@@ -29,6 +30,26 @@ public class TimedModeController extends LimitedBreadModeController {
     return this.timeLimitMillis - this.getElapsedMillis();
   }
 
+  @Override
+  protected void onClockChanged(long offsetMillis) {
+    super.onClockChanged(offsetMillis);
+    this.startTimeMillis += offsetMillis;
+  }
+
+  @Override
+  public void saveState(IceWorldSnapshot snapshot) {
+    super.saveState(snapshot);
+    snapshot.putLong(this.startTimeMillis);
+    snapshot.putLong(this.timeLimitMillis);
+  }
+  
+  @Override
+  public void restoreState(IceWorldSnapshot snapshot) {
+    super.restoreState(snapshot);
+    this.startTimeMillis = snapshot.getLong();
+    this.timeLimitMillis = snapshot.getLong();
+  }
+
   @Override
   public boolean hasGameEnded() {
     return this.getRemainingMillis() <= 0;
@@ -1,5 +1,7 @@
 package controller;
 
+import java.util.ArrayList;
+
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 
@@ -8,6 +10,7 @@ import graphics.GameRenderer;
 import physics.BreadBall;
 import physics.Goose;
 import physics.IceWorld;
+import physics.IceWorldSnapshot;
 import sound.AudioController;
 
 public class TutorialModeController extends GameController {
@@ -49,13 +52,13 @@ public class TutorialModeController extends GameController {
     this.curState = State.INIT;
     this.breadSupply = 0;
     this.protoBread = new BreadBall(0.0f);
-    this.startTime = System.currentTimeMillis();
+    this.startTime = this.getClock().currentTimeMillis();
   }
   
   private boolean shouldMoveToNextState() {
     switch (this.curState) {
     case INIT:
-      return System.currentTimeMillis() - this.startTime > 1000;
+      return this.getClock().currentTimeMillis() - this.startTime > 1000;
     case PAN:
       float dist = Math.abs(this.getRenderer().getCamera().getWorldCenterX()) + Math.abs(this.getRenderer().getCamera().getWorldCenterY());
       return dist > 25;
@@ -77,6 +80,28 @@ public class TutorialModeController extends GameController {
     }
   }
   
+  @Override
+  protected void onClockChanged(long offsetMillis) {
+    super.onClockChanged(offsetMillis);
+    this.startTime += offsetMillis;
+  }
+  
+  @Override
+  public void saveState(IceWorldSnapshot snapshot) {
+    super.saveState(snapshot);
+    snapshot.putInt(this.curState.ordinal());
+    snapshot.putInt(this.breadSupply);
+    snapshot.putLong(this.startTime);
+  }
+  
+  @Override
+  public void restoreState(IceWorldSnapshot snapshot) {
+    super.restoreState(snapshot);
+    this.curState = State.values()[snapshot.getInt()];
+    this.breadSupply = snapshot.getInt();
+    this.startTime = snapshot.getLong();
+  }
+  
   @Override
   public boolean hasGameEnded() {
     return this.curState == State.GAME_OVER;
@@ -110,33 +135,32 @@ public class TutorialModeController extends GameController {
   }
   
   @Override
-  public void step(float dt, int vi, int pi) {
-    super.step(dt, vi, pi);
+  public void stepMillis(long elapsedMillis, float rate, int vItersPerSec, int posItersPerSec) {
+    super.stepMillis(elapsedMillis, rate, vItersPerSec, posItersPerSec);
     if (this.shouldMoveToNextState()) {
       this.moveToNextState();
     }
   }
   
+  private void removeAllFood() {
+    ArrayList<Body> foodBodies = new ArrayList<Body>(this.getGameWorld().getFoodPieceBodies());
+    for (Body b : foodBodies) {
+      this.getGameWorld().removeFoodPieceBody(b);
+    }
+  }
+  
   private void moveToNextState() {
     this.curState = this.curState.getNext();
     if (this.curState == State.THROW_BREAD) {
       this.breadSupply = 2;
     } else if (this.curState == State.GEESE) {
-      for (Body b : this.getGameWorld().getFoodPieceBodies()) {
-        this.getGameWorld().destroyBody(b);
-        this.getGameWorld().step(0, 0, 0);
-      }
-      this.getGameWorld().getFoodPieceBodies().clear();
+      this.removeAllFood();
       this.getPiecesOfFoodInFlight().clear();
       
       Goose goose = new Goose(5.0f);
       this.getGameWorld().addAgent(goose).setTransform(new Vec2(0, 0), 0);
     } else if (this.curState == State.POINTS) {
-      for (Body b : this.getGameWorld().getFoodPieceBodies()) {
-        this.getGameWorld().destroyBody(b);
-        this.getGameWorld().step(0, 0, 0);
-      }
-      this.getGameWorld().getFoodPieceBodies().clear();
+      this.removeAllFood();
       this.getPiecesOfFoodInFlight().clear();
       this.resetScore();
       this.breadSupply = 5;
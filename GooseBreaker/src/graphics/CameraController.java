@@ -174,6 +174,18 @@ public class CameraController {
     return (y - this.viewportCenterY) * this.zoomFactor + this.screenHeight / 2.0f + this.shakeY;
   }
   
+  /**
+   * Get the region of the world which is on screen.
+   * @param out Receives the bounds, in world coordinates.
+   * @return out
+   */
+  public AABB getVisibleWorldAABB(AABB out) {
+    out.lowerBound.set(this.transformFromViewportX(0), this.transformFromViewportY(0));
+    out.upperBound.set(this.transformFromViewportX(this.screenWidth),
+        this.transformFromViewportY(this.screenHeight));
+    return out;
+  }
+  
   /**
    * Shake the camera by a random amount of the given magnitude.
    * @param magnitude Maximum screen shake distance as a percentage of the
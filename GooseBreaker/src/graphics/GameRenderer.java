@@ -1,6 +1,8 @@
 package graphics;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.WeakHashMap;
 
 import org.jbox2d.collision.AABB;
 import org.jbox2d.common.Transform;
@@ -12,7 +14,6 @@ import physics.FlyingPieceOfFood;
 import physics.FoodPiece;
 import tessellation.IceSheet;
 import util.PhysicsUtil;
-import util.RandomUtil;
 import controller.GameController;
 
 /**
@@ -21,17 +22,51 @@ import controller.GameController;
  * @author Jack
  */
 public abstract class GameRenderer {
+    // Ice sheet outlines are simplified to within this many pixels, with a
+    // level of detail for each of this many zooms, from MAX_ZOOM_FACTOR down
+    // to MIN_ZOOM_FACTOR.
+    private static final float OUTLINE_PIXEL_TOLERANCE = 0.5f;
+    private static final int NUM_OUTLINE_LODS = 4;
+    
     private CameraController camera;
     private KeyframeFactory<?> factory;
+    private AABB visibleRegion;
+    private AABB bodyBounds;
+    private Animation flakeAnim;
+    private SpriteBatch batch;
+    private boolean isBatching;
+    // Meshes of the ice sheets drawn so far; they go when their sheets do.
+    private WeakHashMap<IceSheet, IceSheetMesh> iceSheetMeshes;
+    private float[] outlineLodZooms;
+    private float[] outlineLodTolerances;
+    private float[] meshScreenVertices;
+    private ArrayList<Vec2> polygonPts;
+    private ArrayList<Vec2> polygonPtsPool;
     
     public GameRenderer(KeyframeFactory<?> keyframeFactory) {
-      this.camera = new CameraController();
-      this.factory = keyframeFactory;
+      this(new CameraController(), keyframeFactory);
     }
     
     public GameRenderer(CameraController cam, KeyframeFactory<?> keyframeFactory) {
       this.camera = cam;
       this.factory = keyframeFactory;
+      this.visibleRegion = new AABB();
+      this.bodyBounds = new AABB();
+      this.flakeAnim = new StaticAnimation("snowflake_particle", 0);
+      this.batch = new SpriteBatch();
+      this.isBatching = false;
+      this.iceSheetMeshes = new WeakHashMap<IceSheet, IceSheetMesh>();
+      this.outlineLodZooms = new float[GameRenderer.NUM_OUTLINE_LODS];
+      this.outlineLodTolerances = new float[GameRenderer.NUM_OUTLINE_LODS];
+      for (int i = 0; i < GameRenderer.NUM_OUTLINE_LODS; ++i) {
+        this.outlineLodZooms[i] = (float) (CameraController.MAX_ZOOM_FACTOR * Math.pow(
+            CameraController.MIN_ZOOM_FACTOR / CameraController.MAX_ZOOM_FACTOR,
+            (double) i / (GameRenderer.NUM_OUTLINE_LODS - 1)));
+        this.outlineLodTolerances[i] = GameRenderer.OUTLINE_PIXEL_TOLERANCE / this.outlineLodZooms[i];
+      }
+      this.meshScreenVertices = new float[0];
+      this.polygonPts = new ArrayList<Vec2>();
+      this.polygonPtsPool = new ArrayList<Vec2>();
     }
     
     
@@ -110,6 +145,57 @@ public abstract class GameRenderer {
      */
     public abstract void drawAnimationOnScreen(float x, float y, float w, float h, float angle, Animation animation);
     
+    /**
+     * Draw a batch of sprites, back to front. Draws each sprite with
+     * drawAnimationOnScreen(); backends which can draw many quads in one call
+     * should override this, e.g. to draw all the sprites sharing a texture
+     * together.
+     * @param batch
+     */
+    protected void drawBatch(SpriteBatch batch) {
+      for (int i = 0; i < batch.size(); ++i) {
+        this.drawAnimationOnScreen(batch.getX(i), batch.getY(i),
+            batch.getWidth(i), batch.getHeight(i), batch.getAngle(i),
+            batch.getAnimation(i));
+      }
+    }
+    
+    /**
+     * Start collecting sprites into a batch instead of drawing them straight
+     * away. See appendSprite() and flushBatch().
+     */
+    public void beginBatch() {
+      this.batch.clear();
+      this.isBatching = true;
+    }
+    
+    /**
+     * Add a sprite to the current batch, or draw it straight away if there
+     * isn't one. Takes the same arguments as drawAnimationOnScreen().
+     * @param x
+     * @param y
+     * @param w
+     * @param h
+     * @param angle
+     * @param animation
+     */
+    public void appendSprite(float x, float y, float w, float h, float angle, Animation animation) {
+      if (this.isBatching) {
+        this.batch.add(x, y, w, h, angle, animation);
+      } else {
+        this.drawAnimationOnScreen(x, y, w, h, angle, animation);
+      }
+    }
+    
+    /**
+     * Draw the sprites collected since beginBatch(), and stop batching.
+     */
+    public void flushBatch() {
+      this.drawBatch(this.batch);
+      this.batch.clear();
+      this.isBatching = false;
+    }
+    
     /**
      * Draw text right-aligned with the given lower-right corner screen
      * coordinates and font size.
@@ -138,26 +224,67 @@ public abstract class GameRenderer {
       this.clearScreen();
       this.drawBackground();
       
+      this.camera.getVisibleWorldAABB(this.visibleRegion);
       for (Body b : controller.getGameWorld().getIceSheetBodies()) {
-        this.drawIceSheetBody(b);
+        if (this.isBodyOnScreen(b)) {
+          this.drawIceSheetBody(b);
+        }
       }
       
-      for (ParticleEffect part : controller.getParticles()) {
-        this.drawParticle(part);
-      }
+      this.beginBatch();
+      this.drawParticles(controller.getParticles());
       for (Body b : controller.getGameWorld().getFoodPieceBodies()) {
-        this.drawAnimatedBody(b);
+        if (this.isBodyOnScreen(b)) {
+          this.drawAnimatedBody(b);
+        }
       }
       for (Body b : controller.getGameWorld().getAgentBodies()) {
-        AnimatedBody bodyAnim = (AnimatedBody) b.getUserData();
-        bodyAnim.setBody(b);
-        this.drawAnimatedBody(b);
+        if (this.isBodyOnScreen(b)) {
+          AnimatedBody bodyAnim = (AnimatedBody) b.getUserData();
+          bodyAnim.setBody(b);
+          this.drawAnimatedBody(b);
+        }
       }
       for (FlyingPieceOfFood flyingFood : controller.getPiecesOfFoodInFlight()) {
-        this.drawParticle(flyingFood);
+        Vec2 pos = flyingFood.getPos();
+        if (this.isOnScreen(pos.x, pos.y,
+            Math.max(flyingFood.getWidth(), flyingFood.getHeight()))) {
+          this.drawParticle(flyingFood);
+        }
       }
       
-      this.drawSnowflakes(controller.getSnowflakes());
+      this.drawSnowflakes(controller.getSnowfall());
+      this.flushBatch();
+    }
+    
+    /**
+     * Helper method. Might any of the body be on screen, going by the bounds
+     * the physics engine keeps for it? Uses the visible region as of the
+     * last call to getVisibleWorldAABB(this.visibleRegion).
+     * @param b
+     * @return
+     */
+    private boolean isBodyOnScreen(Body b) {
+      if (!PhysicsUtil.getBodyFixturesAABB(b, this.bodyBounds)) {
+        return true;
+      }
+      return AABB.testOverlap(this.bodyBounds, this.visibleRegion);
+    }
+    
+    /**
+     * Helper method. Might anything within radius of (x, y) be on screen?
+     * Uses the visible region as of the last call to
+     * getVisibleWorldAABB(this.visibleRegion).
+     * @param x
+     * @param y
+     * @param radius
+     * @return
+     */
+    private boolean isOnScreen(float x, float y, float radius) {
+      return x + radius >= this.visibleRegion.lowerBound.x
+          && x - radius <= this.visibleRegion.upperBound.x
+          && y + radius >= this.visibleRegion.lowerBound.y
+          && y - radius <= this.visibleRegion.upperBound.y;
     }
 
     public void maybeDrawUserMessage(String msgOrNull) {
@@ -209,7 +336,7 @@ public abstract class GameRenderer {
       float screenX = this.camera.transformForViewportX(worldPos.x);
       float screenY = this.camera.transformForViewportY(worldPos.y);
       
-      this.drawAnimationOnScreen(screenX, screenY, w, h, b.getAngle(), animation);
+      this.appendSprite(screenX, screenY, w, h, b.getAngle(), animation);
     }
     
     /**
@@ -239,21 +366,129 @@ public abstract class GameRenderer {
     
     
     /**
-     * Draw an IceSheet on the current canvas using the given border/fill colors.
+     * Draw an IceSheet on the current canvas using the ice sheet border/fill
+     * colors. The sheet's mesh is kept from frame to frame, and only rebuilt
+     * once the sheet changes.
      * @param b
-     * @param borderColor
-     * @param fillColor
      */
     public void drawIceSheetBody(Body b) {
       IceSheet sheet = (IceSheet) b.getUserData();
-      List<Vec2> perimeter = sheet.getBareEdgePerimeterCopy();
-      transformPoints(b.getTransform(), perimeter);
-      transformPointsForViewport(perimeter);
+      IceSheetMesh mesh = this.iceSheetMeshes.get(sheet);
+      if (mesh == null) {
+        mesh = new IceSheetMesh(this.outlineLodTolerances);
+        this.iceSheetMeshes.put(sheet, mesh);
+      }
+      if (!mesh.update(sheet)) {
+        // Held for a background update since before it was first drawn.
+        List<Vec2> perimeter = sheet.getBareEdgePerimeterCopy();
+        transformPoints(b.getTransform(), perimeter);
+        transformPointsForViewport(perimeter);
+        this.setColor(this.getIceSheetFillColor());
+        fillPolygon(perimeter);
+        this.setColor(this.getIceSheetBorderColor());
+        drawPolygon(perimeter);
+        return;
+      }
+      
+      // Body transform followed by the camera, as one affine matrix.
+      Transform xf = b.getTransform();
+      float zoom = this.camera.scaleForViewport(1);
+      this.drawIceSheetMesh(mesh, this.getOutlineLod(),
+          zoom * xf.q.c, -zoom * xf.q.s, zoom * xf.p.x + this.camera.transformForViewportX(0),
+          zoom * xf.q.s, zoom * xf.q.c, zoom * xf.p.y + this.camera.transformForViewportY(0));
+    }
+    
+    /**
+     * Helper method. Pick the coarsest ice sheet outline level of detail which
+     * is still within OUTLINE_PIXEL_TOLERANCE of the full outline at the
+     * current zoom, so that about as many outline points are drawn zoomed
+     * out as zoomed in.
+     * @return
+     */
+    private int getOutlineLod() {
+      float zoom = this.camera.getZoomFactor();
+      int lod = 0;
+      while (lod + 1 < GameRenderer.NUM_OUTLINE_LODS && this.outlineLodZooms[lod + 1] >= zoom) {
+        ++lod;
+      }
+      return lod;
+    }
+    
+    /**
+     * Draw an ice sheet mesh, filled and outlined with its perimeter, taking
+     * its vertices to screen coordinates with the matrix
+     * [m00 m01 m02; m10 m11 m12]. The fill is one polygon, the same outline
+     * as the border, unless the backend fills the triangles instead (see
+     * fillTriangles()).
+     * Backends which can transform vertices themselves should override this.
+     * @param mesh
+     * @param outlineLod Outline level of detail to draw.
+     * @param m00
+     * @param m01
+     * @param m02
+     * @param m10
+     * @param m11
+     * @param m12
+     */
+    protected void drawIceSheetMesh(IceSheetMesh mesh, int outlineLod,
+        float m00, float m01, float m02, float m10, float m11, float m12) {
+      int n = mesh.getVertexCount();
+      if (this.meshScreenVertices.length < 2 * n) {
+        this.meshScreenVertices = new float[4 * n];
+      }
+      float[] local = mesh.getVertices();
+      float[] screen = this.meshScreenVertices;
+      for (int i = 0; i < 2 * n; i += 2) {
+        screen[i] = m00 * local[i] + m01 * local[i + 1] + m02;
+        screen[i + 1] = m10 * local[i] + m11 * local[i + 1] + m12;
+      }
       
+      List<Vec2> outline = this.getPolygonPts(screen, mesh.getOutlineIndices(outlineLod), 0,
+          mesh.getOutlineIndexCount(outlineLod));
       this.setColor(this.getIceSheetFillColor());
-      fillPolygon(perimeter);
+      if (!this.fillTriangles(screen, mesh.getTriangleIndices(), mesh.getTriangleIndexCount())) {
+        this.fillPolygon(outline);
+      }
       this.setColor(this.getIceSheetBorderColor());
-      drawPolygon(perimeter);
+      this.drawPolygon(outline);
+    }
+    
+    /**
+     * Fill triangles, three indices into the vertices each, if the backend
+     * can draw a triangle list in one call. By default it can't, and nothing
+     * is drawn; filling each triangle with its own fillPolygon() would take
+     * thousands of calls and could leave seams between them. Backends which
+     * can should override this.
+     * @param vertices Vertex i is (vertices[2 * i], vertices[2 * i + 1]), in
+     *                 screen coordinates.
+     * @param indices
+     * @param numIndices
+     * @return False if nothing was drawn.
+     */
+    protected boolean fillTriangles(float[] vertices, int[] indices, int numIndices) {
+      return false;
+    }
+    
+    /**
+     * Helper method. Fill a reused list with count indexed vertices, starting
+     * from indices[start]. The list and its points are only valid until the
+     * next call.
+     * @param vertices
+     * @param indices
+     * @param start
+     * @param count
+     * @return
+     */
+    private List<Vec2> getPolygonPts(float[] vertices, int[] indices, int start, int count) {
+      while (this.polygonPtsPool.size() < count) {
+        this.polygonPtsPool.add(new Vec2());
+      }
+      this.polygonPts.clear();
+      for (int i = 0; i < count; ++i) {
+        int v = indices[start + i];
+        this.polygonPts.add(this.polygonPtsPool.get(i).set(vertices[2 * v], vertices[2 * v + 1]));
+      }
+      return this.polygonPts;
     }
     
     public void drawParticle(ParticleEffect particle) {
@@ -264,11 +499,37 @@ public abstract class GameRenderer {
       Vec2 worldCorner = Transform.mul(xf, new Vec2(-particle.getWidth()/2, -particle.getHeight()/2));
       float screenX = this.camera.transformForViewportX(worldCorner.x);
       float screenY = this.camera.transformForViewportY(worldCorner.y);
-      this.drawAnimationOnScreen(
+      this.appendSprite(
           screenX, screenY, screenWidth, screenHeight,
           particle.getAngle(), particle.getAnimation());
     }
     
+    /**
+     * Draw every particle in the system which is on screen, straight from its
+     * arrays.
+     * @param particles
+     */
+    public void drawParticles(ParticleSystem particles) {
+      this.camera.getVisibleWorldAABB(this.visibleRegion);
+      for (int i = 0; i < particles.size(); ++i) {
+        float size = particles.getSize(i);
+        if (!this.isOnScreen(particles.getX(i), particles.getY(i), size)) {
+          continue;
+        }
+        float angle = particles.getAngle(i);
+        float c = (float) Math.cos(angle);
+        float s = (float) Math.sin(angle);
+        // The particle's (-size/2, -size/2) corner, rotated into the world.
+        float worldX = particles.getX(i) - size / 2 * (c - s);
+        float worldY = particles.getY(i) - size / 2 * (s + c);
+        float screenSize = this.camera.scaleForViewport(size);
+        this.appendSprite(
+            this.camera.transformForViewportX(worldX),
+            this.camera.transformForViewportY(worldY),
+            screenSize, screenSize, angle, particles.getAnimation(i));
+      }
+    }
+    
     public static String getCounterString(int num, int len) {
       StringBuilder builder = new StringBuilder(len);
       int numDigits = (num > 0 ? (int) (Math.log10(num) + 1) : 0);
@@ -330,44 +591,39 @@ public abstract class GameRenderer {
       float levelCenterX = this.getCamera().getPanBoundUpperX()/2 + this.getCamera().getPanBoundLowerX()/2;
       float xStart = this.getCamera().transformForViewportX(levelCenterX);
       float xDist = this.getCamera().scaleForViewport(this.getCamera().getPanBoundUpperX() - levelCenterX) + this.getCamera().getScreenWidth()/2;
+      this.beginBatch();
       for (float x = 0; x < xDist; x += w) {
-        this.drawAnimationOnScreen(xStart + x, horizon + h, w, -h, 0, landscapeAnim);
+        this.appendSprite(xStart + x, horizon + h, w, -h, 0, landscapeAnim);
       }
       for (float x = w; x - w < xDist; x += w) {
-        this.drawAnimationOnScreen(xStart - x, horizon + h, w, -h, 0, landscapeAnim);
+        this.appendSprite(xStart - x, horizon + h, w, -h, 0, landscapeAnim);
       }
+      this.flushBatch();
       
       this.setColor(this.getWaterColor());
       this.drawRect(0, (int) horizon, (int) this.getCamera().getScreenWidth(), (int) (this.getCamera().getScreenHeight() - horizon + 1));
     }
     
     
-    private void drawSnowflakes(List<Vec2> snowflakes) {
-      float maxw = this.getCamera().getScreenWidth() / CameraController.MIN_ZOOM_FACTOR;
-      float maxh = this.getCamera().getScreenHeight() / CameraController.MIN_ZOOM_FACTOR;
-      float minx = this.getCamera().getPanBoundLowerX() - maxw/2;
-      float miny = this.getCamera().getPanBoundLowerY() - maxh/2;
-      float maxx = this.getCamera().getPanBoundUpperX() + maxw/2;
-      float maxy = this.getCamera().getPanBoundUpperY() + maxh/2;
-      
-      Animation flakeAnim = new StaticAnimation("snowflake_particle", 0);
-      for (Vec2 flake : snowflakes) {
-        if (flake.x > maxx) {
-          flake.x -= (maxx - minx);
-        } else if (flake.x < minx) {
-          flake.x += (maxx - minx);
-        }
-        if (flake.y > maxy) {
-          flake.y -= (maxy - miny);
+    /**
+     * Draw the snowflakes which are on screen. Flakes near the bottom of the
+     * screen are drawn bigger, as though nearer.
+     * @param snowfall
+     */
+    private void drawSnowflakes(Snowfall snowfall) {
+      this.camera.getVisibleWorldAABB(this.visibleRegion);
+      // Enough to keep flakes half off the edge of the screen.
+      float margin = this.camera.scaleFromViewport(8);
+      for (int i = 0; i < snowfall.size(); ++i) {
+        float flakeX = snowfall.getX(i);
+        float flakeY = snowfall.getY(i);
+        if (!this.isOnScreen(flakeX, flakeY, margin)) {
+          continue;
         }
-        
-        float x = this.getCamera().transformForViewportX(flake.x);
-        float y = this.getCamera().transformForViewportY(flake.y);
+        float x = this.getCamera().transformForViewportX(flakeX);
+        float y = this.getCamera().transformForViewportY(flakeY);
         float size = 16 - 8 * (y / this.getCamera().getScreenHeight());
-        this.drawAnimationOnScreen(x - size/2, y - size/2, size, size, 0, flakeAnim);
-        
-        flake.x += RandomUtil.Uniform(-0.1, 0.1);
-        flake.y += RandomUtil.Uniform(0, 0.2);
+        this.appendSprite(x - size/2, y - size/2, size, size, 0, this.flakeAnim);
       }
     }
 }
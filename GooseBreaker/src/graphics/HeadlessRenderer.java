@@ -0,0 +1,99 @@
+package graphics;
+
+import java.util.List;
+
+import org.jbox2d.common.Vec2;
+
+import controller.GameController;
+
+/**
+ * A GameRenderer which draws nothing, for running games without a screen
+ * (replays, benchmarks, tests). The camera still works, so inputs given in
+ * screen coordinates are transformed as usual.
+ * @author Jack
+ *
+ */
+public class HeadlessRenderer extends GameRenderer {
+
+  public HeadlessRenderer() {
+    super(null);
+  }
+
+  @Override
+  public void setColor(int color) {
+  }
+
+  @Override
+  public int getIceSheetFillColor() {
+    return 0;
+  }
+
+  @Override
+  public int getIceSheetBorderColor() {
+    return 0;
+  }
+
+  @Override
+  public int getTextColor() {
+    return 0;
+  }
+
+  @Override
+  public int getBreadColor() {
+    return 0;
+  }
+
+  @Override
+  public int getWaterColor() {
+    return 0;
+  }
+
+  @Override
+  public int getSkyColor() {
+    return 0;
+  }
+
+  @Override
+  public int getTextBackgroundColor() {
+    return 0;
+  }
+
+  @Override
+  public void clearScreen() {
+  }
+
+  @Override
+  public void drawPolygon(List<Vec2> pts) {
+  }
+
+  @Override
+  public void fillPolygon(List<Vec2> pts) {
+  }
+
+  @Override
+  public void drawAnimationOnScreen(float x, float y, float w, float h, float angle, Animation animation) {
+  }
+
+  @Override
+  public void drawTextRightAligned(String text, float x, float y, float size) {
+  }
+
+  @Override
+  public void drawTextLeftAligned(String text, float x, float y, float size) {
+  }
+
+  @Override
+  public void drawRect(int x, int y, int w, int h) {
+  }
+
+  /**
+   * Skip walking the game elements entirely.
+   */
+  @Override
+  public void renderGameElements(GameController controller) {
+  }
+
+  @Override
+  public void renderUiElements(GameController controller) {
+  }
+}
@@ -0,0 +1,314 @@
+package graphics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.jbox2d.common.Vec2;
+
+import tessellation.IceChunk;
+import tessellation.IceSheet;
+
+/**
+ * A drawable copy of an IceSheet: a vertex buffer of the corners of its
+ * chunks in the sheet's local coordinates, an index buffer of the chunk
+ * triangles, and the indices of the perimeter outline in order. The buffers
+ * are only rebuilt when the sheet's version changes, so drawing an unchanged
+ * sheet is just a matter of transforming the vertices.
+ *
+ * The outline also comes in levels of detail, each simplified with
+ * Douglas-Peucker to within its own tolerance, so that zoomed out views don't
+ * draw many points to a pixel. Each level is simplified the first time it's
+ * asked for after the sheet changes.
+ *
+ * @author Jack
+ *
+ */
+public class IceSheetMesh {
+  private long version;
+  private int numVertices;
+  private float[] vertices;
+  private int numTriangleIndices;
+  private int[] triangles;
+  private int numOutlineIndices;
+  private int[] outline;
+  private float[] outlineTolerances;
+  private long[] outlineLodVersions;
+  private int[] numOutlineLodIndices;
+  private int[][] outlineLods;
+  // Scratch space for simplifying outlines.
+  private boolean[] isKept;
+  private int[] segmentStack;
+
+  /**
+   * A mesh with just the full outline.
+   */
+  public IceSheetMesh() {
+    this(new float[] {0});
+  }
+
+
+  /**
+   * @param outlineTolerances For each outline level of detail, the furthest
+   *                          (in the sheet's local units) the simplified
+   *                          outline may stray from the full one. 0 for the
+   *                          full outline.
+   */
+  public IceSheetMesh(float[] outlineTolerances) {
+    this.version = -1;
+    this.numVertices = 0;
+    this.vertices = new float[0];
+    this.numTriangleIndices = 0;
+    this.triangles = new int[0];
+    this.numOutlineIndices = 0;
+    this.outline = new int[0];
+    int numLods = outlineTolerances.length;
+    this.outlineTolerances = Arrays.copyOf(outlineTolerances, numLods);
+    this.outlineLodVersions = new long[numLods];
+    Arrays.fill(this.outlineLodVersions, -1);
+    this.numOutlineLodIndices = new int[numLods];
+    this.outlineLods = new int[numLods][0];
+    this.isKept = new boolean[0];
+    this.segmentStack = new int[0];
+  }
+
+
+  /**
+   * Rebuild the buffers from the sheet, unless they were built from the same
+   * version of it. A sheet held for a background update can't be walked, so
+   * keeps whatever mesh it had.
+   * @param sheet
+   * @return False if there's no mesh for the sheet's current version.
+   */
+  public boolean update(IceSheet sheet) {
+    if (sheet.getVersion() == this.version) {
+      return true;
+    }
+    if (sheet.isHeldForBackgroundUpdate() || sheet.getRootChunk() == null) {
+      return false;
+    }
+    this.version = sheet.getVersion();
+
+    HashMap<Vec2, Integer> indexOf = new HashMap<Vec2, Integer>();
+    this.numVertices = 0;
+    this.numTriangleIndices = 0;
+    this.triangles = this.ensureCapacity(this.triangles, 3 * sheet.getIceChunks().size());
+    for (IceChunk chunk : sheet.getIceChunks()) {
+      for (int i = 0; i < 3; ++i) {
+        this.triangles[this.numTriangleIndices++] =
+            this.getIndex(chunk.getTriangle().getOrderedVertex(i), indexOf);
+      }
+    }
+
+    // Perimeter points can be corners of deleted chunks bordering the sheet,
+    // so may add vertices of their own.
+    List<Vec2> perimeter = sheet.getBareEdgePerimeterCopy();
+    this.numOutlineIndices = 0;
+    this.outline = this.ensureCapacity(this.outline, perimeter.size());
+    for (Vec2 pt : perimeter) {
+      this.outline[this.numOutlineIndices++] = this.getIndex(pt, indexOf);
+    }
+    return true;
+  }
+
+
+  /**
+   * Number of vertices. Vertex i is (getVertices()[2 * i],
+   * getVertices()[2 * i + 1]), in the sheet's local coordinates.
+   * @return
+   */
+  public int getVertexCount() {
+    return this.numVertices;
+  }
+
+
+  public float[] getVertices() {
+    return this.vertices;
+  }
+
+
+  /**
+   * Number of triangle indices; three per triangle.
+   * @return
+   */
+  public int getTriangleIndexCount() {
+    return this.numTriangleIndices;
+  }
+
+
+  public int[] getTriangleIndices() {
+    return this.triangles;
+  }
+
+
+  public int getOutlineLodCount() {
+    return this.outlineTolerances.length;
+  }
+
+
+  /**
+   * Number of outline indices in a level of detail, one per point in
+   * clockwise order.
+   * @param lod
+   * @return
+   */
+  public int getOutlineIndexCount(int lod) {
+    this.ensureOutlineLod(lod);
+    return this.numOutlineLodIndices[lod];
+  }
+
+
+  public int[] getOutlineIndices(int lod) {
+    this.ensureOutlineLod(lod);
+    return this.outlineLods[lod];
+  }
+
+
+  /**
+   * Helper method. Simplify the outline for a level of detail, unless it's
+   * already been done for this version of the sheet.
+   * @param lod
+   */
+  private void ensureOutlineLod(int lod) {
+    if (this.outlineLodVersions[lod] == this.version) {
+      return;
+    }
+    this.outlineLodVersions[lod] = this.version;
+    int n = this.numOutlineIndices;
+    this.outlineLods[lod] = this.ensureCapacity(this.outlineLods[lod], n);
+    int[] simplified = this.outlineLods[lod];
+    float tolerance = this.outlineTolerances[lod];
+    if (tolerance <= 0 || n < 4) {
+      System.arraycopy(this.outline, 0, simplified, 0, n);
+      this.numOutlineLodIndices[lod] = n;
+      return;
+    }
+
+    // Keep the first point, and the point furthest from it, which splits the
+    // closed outline into two open halves. Then Douglas-Peucker each half,
+    // with a stack of (first, last) segments rather than recursion. Index n
+    // stands for point 0 again.
+    if (this.isKept.length < n) {
+      this.isKept = new boolean[2 * n];
+      this.segmentStack = new int[4 * n];
+    }
+    Arrays.fill(this.isKept, 0, n, false);
+    int far = 0;
+    float farDistSq = -1;
+    for (int i = 1; i < n; ++i) {
+      float distSq = this.getDistSq(i, 0);
+      if (distSq > farDistSq) {
+        far = i;
+        farDistSq = distSq;
+      }
+    }
+    this.isKept[0] = true;
+    this.isKept[far] = true;
+    int top = 0;
+    this.segmentStack[top++] = 0;
+    this.segmentStack[top++] = far;
+    this.segmentStack[top++] = far;
+    this.segmentStack[top++] = n;
+    float toleranceSq = tolerance * tolerance;
+    while (top > 0) {
+      int last = this.segmentStack[--top];
+      int first = this.segmentStack[--top];
+      int worst = -1;
+      float worstDistSq = toleranceSq;
+      for (int i = first + 1; i < last; ++i) {
+        float distSq = this.getSegmentDistSq(i, first, last % n);
+        if (distSq > worstDistSq) {
+          worst = i;
+          worstDistSq = distSq;
+        }
+      }
+      if (worst >= 0) {
+        this.isKept[worst] = true;
+        this.segmentStack[top++] = first;
+        this.segmentStack[top++] = worst;
+        this.segmentStack[top++] = worst;
+        this.segmentStack[top++] = last;
+      }
+    }
+
+    int count = 0;
+    for (int i = 0; i < n; ++i) {
+      if (this.isKept[i]) {
+        simplified[count++] = this.outline[i];
+      }
+    }
+    this.numOutlineLodIndices[lod] = count;
+  }
+
+
+  /**
+   * Helper method. Squared distance between outline points i and j.
+   * @param i
+   * @param j
+   * @return
+   */
+  private float getDistSq(int i, int j) {
+    float dx = this.vertices[2 * this.outline[i]] - this.vertices[2 * this.outline[j]];
+    float dy = this.vertices[2 * this.outline[i] + 1] - this.vertices[2 * this.outline[j] + 1];
+    return dx * dx + dy * dy;
+  }
+
+
+  /**
+   * Helper method. Squared distance from outline point i to the segment
+   * between outline points a and b.
+   * @param i
+   * @param a
+   * @param b
+   * @return
+   */
+  private float getSegmentDistSq(int i, int a, int b) {
+    float ax = this.vertices[2 * this.outline[a]];
+    float ay = this.vertices[2 * this.outline[a] + 1];
+    float abx = this.vertices[2 * this.outline[b]] - ax;
+    float aby = this.vertices[2 * this.outline[b] + 1] - ay;
+    float apx = this.vertices[2 * this.outline[i]] - ax;
+    float apy = this.vertices[2 * this.outline[i] + 1] - ay;
+    float lenSq = abx * abx + aby * aby;
+    float t = lenSq > 0 ? Math.max(0, Math.min(1, (apx * abx + apy * aby) / lenSq)) : 0;
+    float dx = apx - t * abx;
+    float dy = apy - t * aby;
+    return dx * dx + dy * dy;
+  }
+
+
+  /**
+   * Helper method. Get the index of a vertex, adding it to the vertex buffer
+   * if it isn't there yet.
+   * @param v
+   * @param indexOf
+   * @return
+   */
+  private int getIndex(Vec2 v, HashMap<Vec2, Integer> indexOf) {
+    Integer index = indexOf.get(v);
+    if (index != null) {
+      return index;
+    }
+    if (2 * this.numVertices == this.vertices.length) {
+      this.vertices = Arrays.copyOf(this.vertices, Math.max(16, 2 * this.vertices.length));
+    }
+    this.vertices[2 * this.numVertices] = v.x;
+    this.vertices[2 * this.numVertices + 1] = v.y;
+    indexOf.put(v, this.numVertices);
+    return this.numVertices++;
+  }
+
+
+  /**
+   * Helper method. Grow an index buffer to hold at least capacity indices.
+   * @param buffer
+   * @param capacity
+   * @return
+   */
+  private int[] ensureCapacity(int[] buffer, int capacity) {
+    if (buffer.length >= capacity) {
+      return buffer;
+    }
+    return new int[Math.max(capacity, 2 * buffer.length)];
+  }
+}
@@ -39,6 +39,16 @@ public class ParticleEffect {
   }
   
   
+  public float getCurrentTime() {
+    return this.posTween.getCurrentTime();
+  }
+  
+  
+  public void setCurrentTime(float t) {
+    this.posTween.setCurrentTime(t);
+  }
+  
+  
   public float getAngle() {
     return this.initAngle + this.posTween.getCurrentTime() * this.angleVel;
   }
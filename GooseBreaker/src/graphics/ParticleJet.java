@@ -1,15 +1,16 @@
 package graphics;
 
+import java.util.Random;
+
 import org.jbox2d.common.Vec2;
 import org.jbox2d.common.Vec3;
 
-import physics.LinearTrajectory;
-import physics.Trajectory;
 import util.RandomUtil;
 
 public class ParticleJet {
 
   private Animation anim;
+  private Random random;
   private Vec2 src;
   private float minRadius;
   private float maxRadius;
@@ -24,9 +25,10 @@ public class ParticleJet {
   private float minAngularVel;
   private float maxAngularVel;
   
-  public ParticleJet(Animation anim, Vec2 source) {
+  public ParticleJet(Animation anim, Vec2 source, Random random) {
     this.anim = anim;
     this.src = source;
+    this.random = random;
   }
   
   public void setRadius(float r) {
@@ -89,24 +91,64 @@ public class ParticleJet {
     this.maxAngularVel = max;
   }
   
-  public ParticleEffect generate() {
-    float size = (float) RandomUtil.Uniform(this.minSize, this.maxSize);
-    float angle = (float) RandomUtil.Uniform(this.angle - this.angleSpread/2, this.angle + this.angleSpread/2);
-    float lifetime = (float) RandomUtil.Uniform(this.minLifetime, this.maxLifetime);
-    float magnitude = (float) RandomUtil.Uniform(this.minMagnitude, this.maxMagnitude);
-    float radius = (float) RandomUtil.Uniform(this.minRadius, this.maxRadius);
-    float angularVel = (float) RandomUtil.Uniform(this.minAngularVel, this.maxAngularVel);
+  /**
+   * Add randomly generated particles to the system, thinned out if the system
+   * is busy (see ParticleSystem.getEmissionCount()). Random numbers are drawn
+   * for all count particles either way, so that what comes after doesn't
+   * depend on how busy the system was. Doesn't allocate.
+   * @param particles
+   * @param count Number of particles to emit at full density.
+   */
+  public void emit(ParticleSystem particles, int count) {
+    int numSpawned = particles.getEmissionCount(count);
+    for (int i = 0; i < count; ++i) {
+      this.emitOne(particles, i < numSpawned);
+    }
+  }
+  
+  
+  /**
+   * Draw the random numbers for count particles, as emit() would, but spawn
+   * none of them. For jets which can't be seen, so that the random number
+   * generator ends up in the same state whether or not they're drawn.
+   * @param count
+   */
+  public void skip(int count) {
+    for (int i = 0; i < count; ++i) {
+      this.emitOne(null, false);
+    }
+  }
+  
+  
+  /**
+   * Helper method. Generate one random particle, and add it to the system if
+   * isSpawned.
+   * @param particles
+   * @param isSpawned
+   */
+  private void emitOne(ParticleSystem particles, boolean isSpawned) {
+    float size = (float) RandomUtil.Uniform(this.random, this.minSize, this.maxSize);
+    float angle = (float) RandomUtil.Uniform(this.random, this.angle - this.angleSpread/2, this.angle + this.angleSpread/2);
+    float lifetime = (float) RandomUtil.Uniform(this.random, this.minLifetime, this.maxLifetime);
+    float magnitude = (float) RandomUtil.Uniform(this.random, this.minMagnitude, this.maxMagnitude);
+    float radius = (float) RandomUtil.Uniform(this.random, this.minRadius, this.maxRadius);
+    float angularVel = (float) RandomUtil.Uniform(this.random, this.minAngularVel, this.maxAngularVel);
     
-    Vec2 dir = new Vec2((float) Math.cos(angle), (float) Math.sin(angle));
-    float speed = magnitude / lifetime;
-    Vec2 vel = new Vec2(speed * dir.x, speed * dir.y);
+    if (!isSpawned) {
+      return;
+    }
     
-    Trajectory traj = new LinearTrajectory(this.src, vel);
+    float dirX = (float) Math.cos(angle);
+    float dirY = (float) Math.sin(angle);
+    float speed = magnitude / lifetime;
     
+    // Start radius away from the source, as though the particle had been
+    // flying for radius / speed seconds already.
     float t0 = radius / speed;
-    TrajectoryTween tween = new TrajectoryTween(traj, t0, t0 + lifetime);
-    
-    return new ParticleEffect(this.anim, tween, angle, angularVel, size, size);
+    particles.spawn(this.anim,
+        this.src.x + radius * dirX, this.src.y + radius * dirY,
+        speed * dirX, speed * dirY,
+        lifetime, angle + t0 * angularVel, angularVel, size);
   }
   
   
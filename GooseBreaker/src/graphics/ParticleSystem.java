@@ -0,0 +1,301 @@
+package graphics;
+
+import java.util.Arrays;
+
+import org.jbox2d.collision.AABB;
+
+/**
+ * A pool of simple particles, each moving in a straight line at constant
+ * speed and spin until its lifetime runs out. The particles are kept in
+ * parallel arrays rather than as objects, so spawning one doesn't allocate
+ * (once the pool has grown big enough) and stepping them all is one loop
+ * over the arrays. Finished particles are removed by moving the last particle
+ * into their place, so particle indices change as particles finish.
+ *
+ * The number of live particles is capped, so a flood of effects can't slow
+ * down the game or use up memory. When the pool is full, spawning evicts the
+ * particle which will be missed least: one off screen if there is any (see
+ * setVisibleRegion()), and otherwise the one closest to disappearing anyway.
+ * Well before then, getEmissionCount() thins out new effects.
+ *
+ * @author Jack
+ *
+ */
+public class ParticleSystem {
+  private static final int INITIAL_CAPACITY = 256;
+  public static final int DEFAULT_MAX_PARTICLES = 1024;
+  // Effects are emitted at full density until the pool is this full.
+  private static final float FULL_DENSITY_LOAD = 0.5f;
+
+  private int size;
+  private float[] posX;
+  private float[] posY;
+  private float[] velX;
+  private float[] velY;
+  private float[] age;
+  private float[] lifetime;
+  private float[] angle;
+  private float[] angularVel;
+  private float[] particleSize;
+  private Animation[] animation;
+  private int maxParticles;
+  private boolean hasVisibleRegion;
+  private AABB visibleRegion;
+
+  public ParticleSystem() {
+    this(ParticleSystem.DEFAULT_MAX_PARTICLES);
+  }
+
+
+  /**
+   * @param maxParticles Most particles alive at once.
+   */
+  public ParticleSystem(int maxParticles) {
+    this.size = 0;
+    this.maxParticles = Math.max(1, maxParticles);
+    this.allocate(Math.min(ParticleSystem.INITIAL_CAPACITY, this.maxParticles));
+    this.hasVisibleRegion = false;
+    this.visibleRegion = new AABB();
+  }
+
+
+  public int getMaxParticles() {
+    return this.maxParticles;
+  }
+
+
+  /**
+   * Change the most particles alive at once, evicting particles if there are
+   * already too many.
+   * @param maxParticles
+   */
+  public void setMaxParticles(int maxParticles) {
+    this.maxParticles = Math.max(1, maxParticles);
+    while (this.size > this.maxParticles) {
+      this.remove(this.findLeastMissed());
+    }
+  }
+
+
+  /**
+   * Set the region of the world which is on screen, so that particles
+   * outside it are evicted first.
+   * @param region
+   */
+  public void setVisibleRegion(AABB region) {
+    this.visibleRegion.set(region);
+    this.hasVisibleRegion = true;
+  }
+
+
+  /**
+   * How full the pool is, from 0 (empty) to 1 (full).
+   * @return
+   */
+  public float getLoad() {
+    return (float) this.size / this.maxParticles;
+  }
+
+
+  /**
+   * Scale the number of particles an effect would like to emit down to what
+   * the pool can take: all of them while the pool is no more than half full,
+   * falling to none as it fills up.
+   * @param count
+   * @return
+   */
+  public int getEmissionCount(int count) {
+    float load = this.getLoad();
+    if (load <= ParticleSystem.FULL_DENSITY_LOAD) {
+      return count;
+    }
+    return Math.round(count * (1 - load) / (1 - ParticleSystem.FULL_DENSITY_LOAD));
+  }
+
+
+  /**
+   * Number of live particles. Particles are indexed from 0 to size() - 1.
+   * @return
+   */
+  public int size() {
+    return this.size;
+  }
+
+
+  public void clear() {
+    Arrays.fill(this.animation, 0, this.size, null);
+    this.size = 0;
+  }
+
+
+  /**
+   * Add a particle, evicting another one if the pool is full.
+   * @param anim
+   * @param x Initial position.
+   * @param y
+   * @param vx Velocity, in world units per second.
+   * @param vy
+   * @param lifetime Seconds until the particle disappears.
+   * @param angle Initial angle.
+   * @param angularVel Radians per second.
+   * @param size Width and height, in world units.
+   */
+  public void spawn(Animation anim, float x, float y, float vx, float vy,
+      float lifetime, float angle, float angularVel, float size) {
+    if (this.size >= this.maxParticles) {
+      this.remove(this.findLeastMissed());
+    }
+    if (this.size == this.posX.length) {
+      this.allocate(Math.min(2 * this.size, this.maxParticles));
+    }
+    int i = this.size++;
+    this.posX[i] = x;
+    this.posY[i] = y;
+    this.velX[i] = vx;
+    this.velY[i] = vy;
+    this.age[i] = 0;
+    this.lifetime[i] = lifetime;
+    this.angle[i] = angle;
+    this.angularVel[i] = angularVel;
+    this.particleSize[i] = size;
+    this.animation[i] = anim;
+  }
+
+
+  /**
+   * Move every particle along by dt, but no further than the end of its
+   * lifetime, and remove the particles which had already reached it.
+   * @param dt
+   */
+  public void step(float dt) {
+    int i = 0;
+    while (i < this.size) {
+      float remaining = this.lifetime[i] - this.age[i];
+      if (remaining <= 0) {
+        this.remove(i);
+        continue;
+      }
+      float t = Math.min(dt, remaining);
+      this.posX[i] += this.velX[i] * t;
+      this.posY[i] += this.velY[i] * t;
+      this.angle[i] += this.angularVel[i] * t;
+      this.age[i] += t;
+      ++i;
+    }
+  }
+
+
+  public float getX(int i) {
+    return this.posX[i];
+  }
+
+
+  public float getY(int i) {
+    return this.posY[i];
+  }
+
+
+  public float getAngle(int i) {
+    return this.angle[i];
+  }
+
+
+  public float getSize(int i) {
+    return this.particleSize[i];
+  }
+
+
+  public Animation getAnimation(int i) {
+    return this.animation[i];
+  }
+
+
+  /**
+   * Helper method. Find the particle which would be missed least: off screen
+   * rather than on, and then with the least of its lifetime left.
+   * @return
+   */
+  private int findLeastMissed() {
+    int best = 0;
+    boolean isBestVisible = true;
+    float bestRemaining = Float.MAX_VALUE;
+    for (int i = 0; i < this.size; ++i) {
+      boolean isVisible = this.isVisible(i);
+      float remaining = this.lifetime[i] - this.age[i];
+      if ((isBestVisible && !isVisible)
+          || (isBestVisible == isVisible && remaining < bestRemaining)) {
+        best = i;
+        isBestVisible = isVisible;
+        bestRemaining = remaining;
+      }
+    }
+    return best;
+  }
+
+
+  /**
+   * Helper method. Is particle i in the visible region, or is there no
+   * visible region set?
+   * @param i
+   * @return
+   */
+  private boolean isVisible(int i) {
+    return !this.hasVisibleRegion
+        || (this.posX[i] >= this.visibleRegion.lowerBound.x
+            && this.posX[i] <= this.visibleRegion.upperBound.x
+            && this.posY[i] >= this.visibleRegion.lowerBound.y
+            && this.posY[i] <= this.visibleRegion.upperBound.y);
+  }
+
+
+  /**
+   * Helper method. Remove particle i by moving the last particle into its
+   * place.
+   * @param i
+   */
+  private void remove(int i) {
+    int last = --this.size;
+    this.posX[i] = this.posX[last];
+    this.posY[i] = this.posY[last];
+    this.velX[i] = this.velX[last];
+    this.velY[i] = this.velY[last];
+    this.age[i] = this.age[last];
+    this.lifetime[i] = this.lifetime[last];
+    this.angle[i] = this.angle[last];
+    this.angularVel[i] = this.angularVel[last];
+    this.particleSize[i] = this.particleSize[last];
+    this.animation[i] = this.animation[last];
+    this.animation[last] = null;
+  }
+
+
+  /**
+   * Helper method. Grow (or create) the arrays to hold capacity particles.
+   * @param capacity
+   */
+  private void allocate(int capacity) {
+    if (this.posX == null) {
+      this.posX = new float[capacity];
+      this.posY = new float[capacity];
+      this.velX = new float[capacity];
+      this.velY = new float[capacity];
+      this.age = new float[capacity];
+      this.lifetime = new float[capacity];
+      this.angle = new float[capacity];
+      this.angularVel = new float[capacity];
+      this.particleSize = new float[capacity];
+      this.animation = new Animation[capacity];
+      return;
+    }
+    this.posX = Arrays.copyOf(this.posX, capacity);
+    this.posY = Arrays.copyOf(this.posY, capacity);
+    this.velX = Arrays.copyOf(this.velX, capacity);
+    this.velY = Arrays.copyOf(this.velY, capacity);
+    this.age = Arrays.copyOf(this.age, capacity);
+    this.lifetime = Arrays.copyOf(this.lifetime, capacity);
+    this.angle = Arrays.copyOf(this.angle, capacity);
+    this.angularVel = Arrays.copyOf(this.angularVel, capacity);
+    this.particleSize = Arrays.copyOf(this.particleSize, capacity);
+    this.animation = Arrays.copyOf(this.animation, capacity);
+  }
+}
@@ -0,0 +1,112 @@
+package graphics;
+
+import java.util.Random;
+
+import org.jbox2d.collision.AABB;
+
+import util.RandomUtil;
+
+/**
+ * Ambient snow: flakes drifting down over a region of the world, wrapping
+ * around at its edges. Like ParticleSystem, the flakes are kept in parallel
+ * arrays rather than as objects. Each flake has its own tiny random number
+ * stream (xorshift) for its jitter, seeded once when the flakes are created,
+ * so stepping the snow is cheap and doesn't touch any shared Random.
+ *
+ * The snow is stepped with the simulation, and drawing it only reads the
+ * flake positions.
+ *
+ * @author Jack
+ *
+ */
+public class Snowfall {
+  // Most a flake moves sideways, and twice its average fall, per second.
+  private static final float JITTER_SPEED = 6.0f;
+  private static final float MAX_FALL_SPEED = 12.0f;
+  private static final float NOISE_UNIT = 0x1.0p-24f;
+
+  private float minX;
+  private float minY;
+  private float maxX;
+  private float maxY;
+  private int size;
+  private float[] posX;
+  private float[] posY;
+  private int[] noise;
+
+  /**
+   * Scatter flakes uniformly over the region.
+   * @param region Region the flakes fall through, in world coordinates.
+   * @param numFlakes
+   * @param random Used to place and seed the flakes.
+   */
+  public Snowfall(AABB region, int numFlakes, Random random) {
+    this.minX = region.lowerBound.x;
+    this.minY = region.lowerBound.y;
+    this.maxX = region.upperBound.x;
+    this.maxY = region.upperBound.y;
+    this.size = numFlakes;
+    this.posX = new float[numFlakes];
+    this.posY = new float[numFlakes];
+    this.noise = new int[numFlakes];
+    for (int i = 0; i < numFlakes; ++i) {
+      this.posX[i] = (float) RandomUtil.Uniform(random, this.minX, this.maxX);
+      this.posY[i] = (float) RandomUtil.Uniform(random, this.minY, this.maxY);
+      // Xorshift gets stuck at 0.
+      this.noise[i] = random.nextInt() | 1;
+    }
+  }
+
+
+  /**
+   * Number of flakes. Flakes are indexed from 0 to size() - 1.
+   * @return
+   */
+  public int size() {
+    return this.size;
+  }
+
+
+  public float getX(int i) {
+    return this.posX[i];
+  }
+
+
+  public float getY(int i) {
+    return this.posY[i];
+  }
+
+
+  /**
+   * Move every flake along by dt: a random jitter sideways and a random fall,
+   * wrapping flakes which leave the region back round to the other side.
+   * @param dt
+   */
+  public void step(float dt) {
+    float width = this.maxX - this.minX;
+    float height = this.maxY - this.minY;
+    for (int i = 0; i < this.size; ++i) {
+      int n = this.noise[i];
+      n ^= n << 13;
+      n ^= n >>> 17;
+      n ^= n << 5;
+      this.noise[i] = n;
+      // Two independent uniforms in [0, 1) from the high and low halves.
+      float u = ((n >>> 16) << 8) * Snowfall.NOISE_UNIT;
+      float v = ((n & 0xffff) << 8) * Snowfall.NOISE_UNIT;
+
+      float x = this.posX[i] + (2 * u - 1) * Snowfall.JITTER_SPEED * dt;
+      float y = this.posY[i] + v * Snowfall.MAX_FALL_SPEED * dt;
+      if (x > this.maxX) {
+        x -= width;
+      } else if (x < this.minX) {
+        x += width;
+      }
+      if (y > this.maxY) {
+        y -= height;
+      }
+      this.posX[i] = x;
+      this.posY[i] = y;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package graphics;
+
+import java.util.Arrays;
+
+/**
+ * A list of sprites (keyframe animations drawn as rotated quads) waiting to be
+ * drawn together. Each sprite's screen position, size and angle are packed
+ * into one float array, in the order the sprites were added, so a renderer
+ * can walk the whole batch without touching any game objects and issue as few
+ * draw calls as its backend allows (e.g. one per texture).
+ *
+ * @author Jack
+ *
+ */
+public class SpriteBatch {
+  private static final int INITIAL_CAPACITY = 256;
+  // Floats per sprite: x, y, w, h, angle.
+  public static final int STRIDE = 5;
+
+  private int size;
+  private float[] quads;
+  private Animation[] animation;
+
+  public SpriteBatch() {
+    this.size = 0;
+    this.quads = new float[SpriteBatch.INITIAL_CAPACITY * SpriteBatch.STRIDE];
+    this.animation = new Animation[SpriteBatch.INITIAL_CAPACITY];
+  }
+
+
+  /**
+   * Number of sprites in the batch. Sprites are indexed from 0 to size() - 1,
+   * back to front.
+   * @return
+   */
+  public int size() {
+    return this.size;
+  }
+
+
+  public void clear() {
+    Arrays.fill(this.animation, 0, this.size, null);
+    this.size = 0;
+  }
+
+
+  /**
+   * Add a sprite on top of those already in the batch. Takes the same
+   * arguments as GameRenderer.drawAnimationOnScreen().
+   * @param x Upper-left corner x in screen coordinates.
+   * @param y Upper-left corner y in screen coordinates.
+   * @param w Image width in screen coordinates.
+   * @param h Image height in screen coordinates.
+   * @param angle Angle to rotate the image in radians.
+   * @param anim Keyframe animation to display.
+   */
+  public void add(float x, float y, float w, float h, float angle, Animation anim) {
+    if (this.size == this.animation.length) {
+      this.quads = Arrays.copyOf(this.quads, 2 * this.quads.length);
+      this.animation = Arrays.copyOf(this.animation, 2 * this.animation.length);
+    }
+    int offset = this.size * SpriteBatch.STRIDE;
+    this.quads[offset] = x;
+    this.quads[offset + 1] = y;
+    this.quads[offset + 2] = w;
+    this.quads[offset + 3] = h;
+    this.quads[offset + 4] = angle;
+    this.animation[this.size++] = anim;
+  }
+
+
+  public float getX(int i) {
+    return this.quads[i * SpriteBatch.STRIDE];
+  }
+
+
+  public float getY(int i) {
+    return this.quads[i * SpriteBatch.STRIDE + 1];
+  }
+
+
+  public float getWidth(int i) {
+    return this.quads[i * SpriteBatch.STRIDE + 2];
+  }
+
+
+  public float getHeight(int i) {
+    return this.quads[i * SpriteBatch.STRIDE + 3];
+  }
+
+
+  public float getAngle(int i) {
+    return this.quads[i * SpriteBatch.STRIDE + 4];
+  }
+
+
+  public Animation getAnimation(int i) {
+    return this.animation[i];
+  }
+
+
+  /**
+   * The packed sprite data, STRIDE floats per sprite: x, y, w, h, angle.
+   * Only the first size() sprites are valid. Owned by the batch; don't keep
+   * it past the next add().
+   * @return
+   */
+  public float[] getQuads() {
+    return this.quads;
+  }
+}
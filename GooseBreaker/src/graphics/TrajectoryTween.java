@@ -9,7 +9,9 @@ import physics.Trajectory;
  * An abstraction on top of a simple Trajectory object with extra book keeping
  * for the current time step, and for stepping through time.
  * 
- * The tween position follows the trajectory from tMin to tMax.
+ * The tween position follows the trajectory from tMin to tMax. The position at
+ * the current time is only computed once, however many of its coordinates are
+ * asked for.
  * 
  * @author Jack
  *
@@ -19,12 +21,17 @@ public class TrajectoryTween {
   private float tMin;
   private float tMax;
   private float tCur;
+  // The position at time posTime, which is NaN until it's first computed.
+  private Vec3 pos;
+  private float posTime;
   
   public TrajectoryTween(Trajectory trajectory, float tMin, float tMax) {
     this.trajectory = trajectory;
     this.tMin = tMin;
     this.tMax = tMax;
     this.tCur = tMin;
+    this.pos = new Vec3();
+    this.posTime = Float.NaN;
   }
   
   public float getCurrentTime() {
@@ -43,20 +50,24 @@ public class TrajectoryTween {
     return this.trajectory;
   }
   
+  public void setCurrentTime(float t) {
+    this.tCur = Math.max(this.tMin, Math.min(t, this.tMax));
+  }
+  
   public void step(float dt) {
     this.tCur = Math.min(this.tCur + dt, this.tMax);
   }
   
   public float getX() {
-    return this.trajectory.getXAtTime(this.tCur);
+    return this.getCurrentPos().x;
   }
   
   public float getY() {
-    return this.trajectory.getYAtTime(this.tCur);
+    return this.getCurrentPos().y;
   }
   
   public float getZ() {
-    return this.trajectory.getZAtTime(this.tCur);
+    return this.getCurrentPos().z;
   }
   
   public boolean isFinished() {
@@ -64,18 +75,34 @@ public class TrajectoryTween {
   }
   
   public void getPos(Vec2 pos) {
-    this.trajectory.getPosAtTime(this.tCur, pos);
+    Vec3 cur = this.getCurrentPos();
+    pos.x = cur.x;
+    pos.y = cur.y;
   }
   
   public Vec2 getPos() {
-    return this.trajectory.getPosAtTime(this.tCur);
+    Vec3 cur = this.getCurrentPos();
+    return new Vec2(cur.x, cur.y);
   }
   
   public void getPos(Vec3 pos) {
-    this.trajectory.getPosAtTime(this.tCur, pos);
+    pos.set(this.getCurrentPos());
   }
   
   public Vec3 getPos3() {
-    return this.trajectory.getPos3AtTime(this.tCur);
+    return new Vec3(this.getCurrentPos());
+  }
+  
+  /**
+   * Helper method. Get the position at the current time, computing it only if
+   * the time has changed since last time.
+   * @return
+   */
+  private Vec3 getCurrentPos() {
+    if (this.posTime != this.tCur) {
+      this.trajectory.getPosAtTime(this.tCur, this.pos);
+      this.posTime = this.tCur;
+    }
+    return this.pos;
   }
 }
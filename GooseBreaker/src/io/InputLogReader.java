@@ -0,0 +1,221 @@
+package io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import controller.GameController;
+
+/**
+ * Replays a log written by InputLogWriter into a GameController, as fast as
+ * possible. The controller should be freshly created and have the same level
+ * loaded as when the log was recorded.
+ *
+ * @author Jack
+ *
+ */
+public class InputLogReader {
+  private byte[] data;
+  private int pos;
+  private String controllerClassName;
+  private long randomState;
+  private long randomGamma;
+  private long effectsRandomState;
+  private long effectsRandomGamma;
+  private long runMillis;
+  private int runRemaining;
+  private float rate;
+  private int vItersPerSec;
+  private int posItersPerSec;
+  private long tickCount;
+  private boolean isFinished;
+
+  /**
+   * @param data A log written by InputLogWriter.
+   * @throws IllegalArgumentException if data is not an input log.
+   */
+  public InputLogReader(byte[] data) {
+    this.data = data;
+    this.pos = 0;
+    if (data.length < 4 || this.readInt() != InputLogWriter.MAGIC) {
+      throw new IllegalArgumentException("not an input log");
+    }
+    long version = this.readVarint();
+    if (version != InputLogWriter.VERSION) {
+      throw new IllegalArgumentException("unsupported input log version " + version);
+    }
+    int nameLength = (int) this.readVarint();
+    this.controllerClassName = new String(data, this.pos, nameLength, InputLogWriter.UTF8);
+    this.pos += nameLength;
+    this.randomState = this.readLong();
+    this.randomGamma = this.readLong();
+    this.effectsRandomState = this.readLong();
+    this.effectsRandomGamma = this.readLong();
+    this.runRemaining = 0;
+    this.tickCount = 0;
+    this.isFinished = false;
+  }
+
+
+  /**
+   * Read an input log from the given input stream and return it, or null on
+   * IO exception or if the stream doesn't contain an input log.
+   * @param is
+   * @return
+   */
+  public static InputLogReader parseOrNull(InputStream is) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int n;
+      while ((n = is.read(buf)) > 0) {
+        bytes.write(buf, 0, n);
+      }
+      return new InputLogReader(bytes.toByteArray());
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    } catch (IllegalArgumentException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+
+  /**
+   * Get the class name of the controller the log was recorded with.
+   * @return
+   */
+  public String getControllerClassName() {
+    return this.controllerClassName;
+  }
+
+
+  /**
+   * Get the number of steps replayed so far.
+   * @return
+   */
+  public long getTickCount() {
+    return this.tickCount;
+  }
+
+
+  /**
+   * Prepare the controller's world for replaying, by putting its random
+   * number generators into their recorded state. Call this once before
+   * advance().
+   * @param controller
+   */
+  public void start(GameController controller) {
+    controller.getGameWorld().getRandom().setState(this.randomState);
+    controller.getGameWorld().getRandom().setGamma(this.randomGamma);
+    controller.getGameWorld().getEffectsRandom().setState(this.effectsRandomState);
+    controller.getGameWorld().getEffectsRandom().setGamma(this.effectsRandomGamma);
+  }
+
+
+  /**
+   * Apply recorded inputs up to and including the next step.
+   * @param controller
+   * @return false iff the log has ended and nothing was applied.
+   */
+  public boolean advance(GameController controller) {
+    while (this.runRemaining == 0) {
+      if (this.isFinished || this.pos >= this.data.length) {
+        this.isFinished = true;
+        return false;
+      }
+      int tag = this.data[this.pos++];
+      switch (tag) {
+      case InputLogWriter.TAG_END:
+        this.isFinished = true;
+        return false;
+      case InputLogWriter.TAG_STEPS:
+        this.runMillis = this.readVarint();
+        this.runRemaining = (int) this.readVarint();
+        break;
+      case InputLogWriter.TAG_STEP_PARAMS:
+        this.rate = this.readFloat();
+        this.vItersPerSec = (int) this.readVarint();
+        this.posItersPerSec = (int) this.readVarint();
+        break;
+      case InputLogWriter.TAG_VIEWPORT_SIZE:
+        int w = (int) this.readVarint();
+        int h = (int) this.readVarint();
+        controller.setViewportSize(w, h);
+        break;
+      case InputLogWriter.TAG_TRANSLATE:
+        float dx = this.readFloat();
+        float dy = this.readFloat();
+        controller.translateViewport(dx, dy);
+        break;
+      case InputLogWriter.TAG_SCALE:
+        controller.scaleViewport(this.readFloat());
+        break;
+      case InputLogWriter.TAG_FLING:
+        float x = this.readFloat();
+        float y = this.readFloat();
+        float vx = this.readFloat();
+        float vy = this.readFloat();
+        controller.fling(x, y, vx, vy);
+        break;
+      case InputLogWriter.TAG_SIMULATION_LOD:
+        controller.setSimulationLod((int) this.readVarint());
+        break;
+      default:
+        throw new IllegalStateException("bad input log tag " + tag + " at byte " + (this.pos - 1));
+      }
+    }
+    --this.runRemaining;
+    ++this.tickCount;
+    controller.stepMillis(this.runMillis, this.rate, this.vItersPerSec, this.posItersPerSec);
+    return true;
+  }
+
+
+  /**
+   * Replay the whole log into the controller.
+   * @param controller
+   * @return The number of steps replayed.
+   */
+  public long replay(GameController controller) {
+    this.start(controller);
+    while (this.advance(controller)) {
+    }
+    return this.tickCount;
+  }
+
+
+  private long readVarint() {
+    long v = 0;
+    int shift = 0;
+    int b;
+    do {
+      b = this.data[this.pos++];
+      v |= (long) (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return v;
+  }
+
+
+  private int readInt() {
+    int v = 0;
+    for (int i = 0; i < 4; ++i) {
+      v = (v << 8) | (this.data[this.pos++] & 0xff);
+    }
+    return v;
+  }
+
+
+  private long readLong() {
+    long hi = this.readInt();
+    long lo = this.readInt() & 0xffffffffL;
+    return (hi << 32) | lo;
+  }
+
+
+  private float readFloat() {
+    return Float.intBitsToFloat(this.readInt());
+  }
+}
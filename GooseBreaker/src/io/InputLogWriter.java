@@ -0,0 +1,236 @@
+package io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import physics.IceWorld;
+import controller.GameController;
+
+/**
+ * Records the inputs to a GameController (steps, flings, panning and zooming,
+ * and settings which affect the simulation) into a compact binary log, which
+ * InputLogReader can replay into a fresh controller to reproduce the session
+ * exactly.
+ *
+ * The log starts with the controller's class name and the world's random
+ * number generator states and streams (gammas), followed by a stream of
+ * events. Tick timestamps are delta-encoded: consecutive steps with the same
+ * elapsed time are written as a single run, so an input event's tick is the
+ * number of steps in the runs before it. Integers are written as varints and
+ * floats as their exact bits.
+ *
+ * The log is kept in memory, so recording never blocks the game loop on IO.
+ *
+ * @author Jack
+ *
+ */
+public class InputLogWriter {
+  static final int MAGIC = 0x47424c47;  // "GBLG"
+  static final int VERSION = 2;
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  static final int TAG_END = 0;
+  static final int TAG_STEPS = 1;
+  static final int TAG_STEP_PARAMS = 2;
+  static final int TAG_VIEWPORT_SIZE = 3;
+  static final int TAG_TRANSLATE = 4;
+  static final int TAG_SCALE = 5;
+  static final int TAG_FLING = 6;
+  static final int TAG_SIMULATION_LOD = 7;
+
+  private ByteArrayOutputStream out;
+  private long runMillis;
+  private int runLength;
+  private boolean hasStepParams;
+  private float rate;
+  private int vItersPerSec;
+  private int posItersPerSec;
+  private long tickCount;
+  private boolean isClosed;
+
+  /**
+   * Start a log for the given controller. This should be created after the
+   * level has been loaded, and before the first step.
+   * @param controller
+   */
+  public InputLogWriter(GameController controller) {
+    IceWorld world = controller.getGameWorld();
+    this.out = new ByteArrayOutputStream();
+    this.runMillis = -1;
+    this.runLength = 0;
+    this.hasStepParams = false;
+    this.tickCount = 0;
+    this.isClosed = false;
+    this.writeInt(InputLogWriter.MAGIC);
+    this.writeVarint(InputLogWriter.VERSION);
+    byte[] className = controller.getClass().getName().getBytes(InputLogWriter.UTF8);
+    this.writeVarint(className.length);
+    this.out.write(className, 0, className.length);
+    this.writeLong(world.getRandom().getState());
+    this.writeLong(world.getRandom().getGamma());
+    this.writeLong(world.getEffectsRandom().getState());
+    this.writeLong(world.getEffectsRandom().getGamma());
+  }
+
+
+  /**
+   * Get the number of steps recorded so far.
+   * @return
+   */
+  public long getTickCount() {
+    return this.tickCount;
+  }
+
+
+  /**
+   * Record one step of the controller.
+   * @param elapsedMillis
+   * @param rate
+   * @param vItersPerSec
+   * @param posItersPerSec
+   */
+  public void recordStep(long elapsedMillis, float rate, int vItersPerSec, int posItersPerSec) {
+    if (!this.hasStepParams || rate != this.rate ||
+        vItersPerSec != this.vItersPerSec || posItersPerSec != this.posItersPerSec) {
+      this.flushRun();
+      this.hasStepParams = true;
+      this.rate = rate;
+      this.vItersPerSec = vItersPerSec;
+      this.posItersPerSec = posItersPerSec;
+      this.writeTag(InputLogWriter.TAG_STEP_PARAMS);
+      this.writeFloat(rate);
+      this.writeVarint(vItersPerSec);
+      this.writeVarint(posItersPerSec);
+    }
+    if (elapsedMillis != this.runMillis) {
+      this.flushRun();
+      this.runMillis = elapsedMillis;
+    }
+    ++this.runLength;
+    ++this.tickCount;
+  }
+
+
+  public void recordViewportSize(int w, int h) {
+    this.flushRun();
+    this.writeTag(InputLogWriter.TAG_VIEWPORT_SIZE);
+    this.writeVarint(w);
+    this.writeVarint(h);
+  }
+
+
+  public void recordTranslateViewport(float dx, float dy) {
+    this.flushRun();
+    this.writeTag(InputLogWriter.TAG_TRANSLATE);
+    this.writeFloat(dx);
+    this.writeFloat(dy);
+  }
+
+
+  public void recordScaleViewport(float scaleFactor) {
+    this.flushRun();
+    this.writeTag(InputLogWriter.TAG_SCALE);
+    this.writeFloat(scaleFactor);
+  }
+
+
+  public void recordFling(float viewportX, float viewportY, float viewportVelX, float viewportVelY) {
+    this.flushRun();
+    this.writeTag(InputLogWriter.TAG_FLING);
+    this.writeFloat(viewportX);
+    this.writeFloat(viewportY);
+    this.writeFloat(viewportVelX);
+    this.writeFloat(viewportVelY);
+  }
+
+
+  public void recordSimulationLod(int stride) {
+    this.flushRun();
+    this.writeTag(InputLogWriter.TAG_SIMULATION_LOD);
+    this.writeVarint(stride);
+  }
+
+
+  /**
+   * Finish the log. Nothing more may be recorded afterwards.
+   */
+  public void close() {
+    if (!this.isClosed) {
+      this.flushRun();
+      this.writeTag(InputLogWriter.TAG_END);
+      this.isClosed = true;
+    }
+  }
+
+
+  /**
+   * Get the finished log.
+   * @return
+   */
+  public byte[] toByteArray() {
+    this.close();
+    return this.out.toByteArray();
+  }
+
+
+  /**
+   * Write the finished log to the given stream.
+   * @param os
+   * @throws IOException
+   */
+  public void writeTo(OutputStream os) throws IOException {
+    this.close();
+    this.out.writeTo(os);
+  }
+
+
+  /**
+   * Helper method. Write out the pending run of steps, if any.
+   */
+  private void flushRun() {
+    if (this.runLength > 0) {
+      this.writeTag(InputLogWriter.TAG_STEPS);
+      this.writeVarint(this.runMillis);
+      this.writeVarint(this.runLength);
+      this.runLength = 0;
+    }
+  }
+
+
+  private void writeTag(int tag) {
+    if (this.isClosed) {
+      throw new IllegalStateException("input log is closed");
+    }
+    this.out.write(tag);
+  }
+
+
+  private void writeVarint(long v) {
+    while ((v & ~0x7fL) != 0) {
+      this.out.write((int) ((v & 0x7f) | 0x80));
+      v >>>= 7;
+    }
+    this.out.write((int) v);
+  }
+
+
+  private void writeInt(int v) {
+    this.out.write(v >>> 24);
+    this.out.write(v >>> 16);
+    this.out.write(v >>> 8);
+    this.out.write(v);
+  }
+
+
+  private void writeLong(long v) {
+    this.writeInt((int) (v >>> 32));
+    this.writeInt((int) v);
+  }
+
+
+  private void writeFloat(float v) {
+    this.writeInt(Float.floatToIntBits(v));
+  }
+}
@@ -14,14 +14,48 @@ import org.jbox2d.dynamics.World;
  *
  */
 public abstract class Agent extends AnimatedBody {
+  // Time which IceWorld hasn't stepped the agent for yet (see
+  // IceWorld.setLodStride()).
+  private float deferredTime = 0;
+  // False if the agent should reuse what it last perceived rather than look
+  // at the world again (see IceWorld.setAiDecimation()).
+  private boolean isPerceptionDue = true;
 
   /**
    * Let the agent ponder it's place in the world (existentially and
-   * computationally) and then act, probably by applying force/impulse to the
-   * supplied body.
+   * computationally) and decide what to do about it. Must not change the world
+   * or any body in it, since IceWorld may have many agents deciding at once on
+   * different threads (see AgentWorker); the agent's own state is fine.
+   * @param dt
+   * @param myBody
    * @return true iff the agent decided to take an action.
    */
-  public abstract boolean step(float dt, Body myBody);
+  public abstract boolean decide(float dt, Body myBody);
+  
+  
+  /**
+   * Carry out the action chosen by the last call to decide(), probably by
+   * applying force/impulse to the supplied body. Only called if decide()
+   * returned true, and always from the simulation thread.
+   * @param dt
+   * @param myBody
+   */
+  public abstract void apply(float dt, Body myBody);
+  
+  
+  /**
+   * Decide, then act on the decision.
+   * @param dt
+   * @param myBody
+   * @return true iff the agent decided to take an action.
+   */
+  public boolean step(float dt, Body myBody) {
+    if (!this.decide(dt, myBody)) {
+      return false;
+    }
+    this.apply(dt, myBody);
+    return true;
+  }
   
   
   /**
@@ -30,4 +64,56 @@ public abstract class Agent extends AnimatedBody {
    * @return
    */
   public abstract Body addToWorldAsBody(World world);
+  
+  
+  /**
+   * Save any state the agent keeps outside of its Body. The default agent has
+   * none.
+   * @param snapshot
+   */
+  public void saveState(IceWorldSnapshot snapshot) {
+  }
+  
+  
+  /**
+   * Restore the state saved by saveState(), in the same order.
+   * @param snapshot
+   */
+  public void restoreState(IceWorldSnapshot snapshot) {
+  }
+  
+  
+  /**
+   * Hash of the state saved by saveState(), for detecting divergence between
+   * simulation runs.
+   * @return
+   */
+  public long getStateHash() {
+    return 0;
+  }
+  
+  
+  float getDeferredTime() {
+    return this.deferredTime;
+  }
+  
+  
+  void setDeferredTime(float deferredTime) {
+    this.deferredTime = deferredTime;
+  }
+  
+  
+  /**
+   * Whether decide() should look at the world this time, or may steer by what
+   * it saw last time instead.
+   * @return
+   */
+  protected boolean isPerceptionDue() {
+    return this.isPerceptionDue;
+  }
+  
+  
+  void setPerceptionDue(boolean isPerceptionDue) {
+    this.isPerceptionDue = isPerceptionDue;
+  }
 }
@@ -1,7 +1,7 @@
 package physics;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -27,8 +27,8 @@ public class AgentContactListener implements ContactListener {
   
   
   public AgentContactListener() {
-    bumpedChunks = new HashSet<Fixture>();
-    bumpedFood = new HashMap<Body, Body>();
+    bumpedChunks = new LinkedHashSet<Fixture>();
+    bumpedFood = new LinkedHashMap<Body, Body>();
     
   }
   
@@ -0,0 +1,99 @@
+package physics;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.jbox2d.dynamics.Body;
+
+/**
+ * Runs Agent.decide() for many agents at once on a pool of threads. Give one
+ * to IceWorld.setAgentWorker().
+ *
+ * Deciding doesn't change the world, so every agent sees the same world no
+ * matter how the decisions get scheduled, and IceWorld applies them one at a
+ * time in the usual order afterwards. The results are exactly the same as
+ * without a worker.
+ *
+ * @author Jack
+ *
+ */
+public class AgentWorker {
+  // Fewer agents than this aren't worth handing to another thread.
+  private static final int MIN_AGENTS_PER_TASK = 8;
+  private ForkJoinPool pool;
+
+  /**
+   * Use one thread per processor.
+   */
+  public AgentWorker() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+
+  /**
+   * @param parallelism Number of threads.
+   */
+  public AgentWorker(int parallelism) {
+    // The pool's threads are daemons, so they don't keep the game running.
+    this.pool = new ForkJoinPool(parallelism);
+  }
+
+
+  /**
+   * Call decide() for the agent of each body, and wait for them all.
+   * @param bodies Bodies belonging to agents.
+   * @param dts Time to decide for, for each body.
+   * @param decisions Receives what each agent's decide() returned.
+   * @param n Number of bodies to decide for.
+   */
+  public void decideAll(ArrayList<Body> bodies, float[] dts, boolean[] decisions, int n) {
+    this.pool.invoke(new DecideTask(bodies, dts, decisions, 0, n));
+  }
+
+
+  /**
+   * Stop the threads once the decisions already started are done.
+   */
+  public void shutdown() {
+    this.pool.shutdown();
+  }
+
+
+  /**
+   * Decides for the bodies in [begin, end), splitting in half until there are
+   * few enough to do on one thread.
+   */
+  private static class DecideTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private ArrayList<Body> bodies;
+    private float[] dts;
+    private boolean[] decisions;
+    private int begin;
+    private int end;
+
+    public DecideTask(ArrayList<Body> bodies, float[] dts, boolean[] decisions, int begin, int end) {
+      this.bodies = bodies;
+      this.dts = dts;
+      this.decisions = decisions;
+      this.begin = begin;
+      this.end = end;
+    }
+
+
+    @Override
+    protected void compute() {
+      if (this.end - this.begin <= AgentWorker.MIN_AGENTS_PER_TASK) {
+        for (int i = this.begin; i < this.end; ++i) {
+          Body b = this.bodies.get(i);
+          this.decisions[i] = ((Agent) b.getUserData()).decide(this.dts[i], b);
+        }
+        return;
+      }
+      int mid = (this.begin + this.end) >>> 1;
+      RecursiveAction.invokeAll(
+          new DecideTask(this.bodies, this.dts, this.decisions, this.begin, mid),
+          new DecideTask(this.bodies, this.dts, this.decisions, mid, this.end));
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package physics;
 
+import java.util.Random;
+
 import util.RandomUtil;
 import graphics.ParticleEffect;
 import graphics.TrajectoryTween;
@@ -12,16 +14,16 @@ import graphics.TrajectoryTween;
 public class FlyingPieceOfFood extends ParticleEffect {
   private FoodPiece pieceOfFood;
   
-  private static float randomAngle() {
-    return (float) RandomUtil.Uniform(0, 2 * Math.PI);
+  private static float randomAngle(Random random) {
+    return (float) RandomUtil.Uniform(random, 0, 2 * Math.PI);
   }
   
-  private static float randomAngularVelocity(float magnitude) {
-    return (float) RandomUtil.UniformSum(3, -magnitude, magnitude);
+  private static float randomAngularVelocity(Random random, float magnitude) {
+    return (float) RandomUtil.UniformSum(random, 3, -magnitude, magnitude);
   }
   
-  public FlyingPieceOfFood(FoodPiece food, TrajectoryTween tween) {
-    super(food, tween, randomAngle(), randomAngularVelocity(9),
+  public FlyingPieceOfFood(FoodPiece food, TrajectoryTween tween, Random random) {
+    super(food, tween, randomAngle(random), randomAngularVelocity(random, 9),
           food.getShape().getRadius(), food.getShape().getRadius());
     this.pieceOfFood = food;
   }
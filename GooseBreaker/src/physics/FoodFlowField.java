@@ -0,0 +1,721 @@
+package physics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jbox2d.collision.AABB;
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+
+import tessellation.IceSheet;
+
+/**
+ * A shared map of the way to the nearest food from everywhere on the water, so
+ * that geese don't each have to look for food themselves. Give one to
+ * IceWorld.setFoodFlowField().
+ *
+ * The field is a grid over a fixed region of the world. Each cell holds the
+ * cost of the cheapest path from it to a cell with food in it, where crossing
+ * a cell covered by ice costs more than crossing open water. Geese can break
+ * through ice, so it slows them down rather than stopping them. A goose just
+ * heads for the neighbouring cell with the lowest cost.
+ *
+ * update() only redoes the parts of the field affected by food or ice which
+ * has changed since the last update. The costs are the same as if the field
+ * had been built from scratch, so they only depend on the state of the world.
+ *
+ * @author Jack
+ *
+ */
+public class FoodFlowField {
+  // How many times more it costs to cross a cell of ice than a cell of water.
+  private static final float ICE_COST = 4.0f;
+  private static final float SQRT2 = (float) Math.sqrt(2);
+  private static final float UNREACHABLE = Float.POSITIVE_INFINITY;
+  // Neighbouring cells, straight ones first.
+  private static final int[] NEIGHBOR_DX = { 1, -1, 0, 0, 1, -1, 1, -1 };
+  private static final int[] NEIGHBOR_DY = { 0, 0, 1, -1, 1, 1, -1, -1 };
+  // How far ahead findWaypoint() looks along the path, in cells.
+  private static final int MAX_WAYPOINT_CELLS = 8;
+  private static final AtomicLong versionCounter = new AtomicLong();
+
+  private float cellSize;
+  private float originX;
+  private float originY;
+  private int width;
+  private int height;
+  private float[] neighborDist;
+
+  // Number of ice sheets and food bodies in each cell, as of the last update.
+  private int[] iceCount;
+  private int[] foodCount;
+  // The costs and food which dist[] was computed for.
+  private float[] cost;
+  private boolean[] isSeed;
+  // Cheapest path cost to food, and the next cell along that path.
+  private float[] dist;
+  private int[] parent;
+
+  // Cells whose iceCount or foodCount changed during this update.
+  private int[] touched;
+  private int numTouched;
+  private boolean[] isTouched;
+  // Scratch space for invalidating cells.
+  private int[] invalid;
+  // Binary min-heap of cells by dist, for Dijkstra's algorithm.
+  private int[] heapCells;
+  private float[] heapKeys;
+  private int heapSize;
+
+  private Map<Body, SheetRaster> sheetRasters;
+  private Map<Body, FoodCell> foodCells;
+  private long updateCount;
+  private long version;
+  private float[] crossings;
+  private Transform xf;
+  // Cells covered by the sheet being rasterized.
+  private int[] scratchCells;
+  private int numScratchCells;
+
+  /**
+   * @param bounds Region of the world to cover.
+   * @param cellSize Width and height of each cell, in world units.
+   */
+  public FoodFlowField(AABB bounds, float cellSize) {
+    this.cellSize = cellSize;
+    this.originX = bounds.lowerBound.x;
+    this.originY = bounds.lowerBound.y;
+    this.width = Math.max(1, (int) Math.ceil((bounds.upperBound.x - bounds.lowerBound.x) / cellSize));
+    this.height = Math.max(1, (int) Math.ceil((bounds.upperBound.y - bounds.lowerBound.y) / cellSize));
+    this.neighborDist = new float[FoodFlowField.NEIGHBOR_DX.length];
+    for (int k = 0; k < this.neighborDist.length; ++k) {
+      this.neighborDist[k] = k < 4 ? cellSize : cellSize * FoodFlowField.SQRT2;
+    }
+
+    int n = this.width * this.height;
+    this.iceCount = new int[n];
+    this.foodCount = new int[n];
+    this.cost = new float[n];
+    Arrays.fill(this.cost, 1);
+    this.isSeed = new boolean[n];
+    this.dist = new float[n];
+    Arrays.fill(this.dist, FoodFlowField.UNREACHABLE);
+    this.parent = new int[n];
+    Arrays.fill(this.parent, -1);
+    this.touched = new int[n];
+    this.numTouched = 0;
+    this.isTouched = new boolean[n];
+    this.invalid = new int[n];
+    this.heapCells = new int[n];
+    this.heapKeys = new float[n];
+    this.heapSize = 0;
+
+    this.sheetRasters = new IdentityHashMap<Body, SheetRaster>();
+    this.foodCells = new IdentityHashMap<Body, FoodCell>();
+    this.updateCount = 0;
+    this.version = FoodFlowField.versionCounter.incrementAndGet();
+    this.crossings = new float[8];
+    this.xf = new Transform();
+    this.scratchCells = new int[16];
+    this.numScratchCells = 0;
+  }
+
+
+  public float getCellSize() {
+    return this.cellSize;
+  }
+
+
+  /**
+   * Bring the field up to date with the ice sheets and food in the world.
+   * Only sheets which have moved or broken since the last update, and food
+   * which has moved between cells, cost anything.
+   * @param iceSheetBodies
+   * @param foodBodies
+   */
+  public void update(Collection<Body> iceSheetBodies, Collection<Body> foodBodies) {
+    ++this.updateCount;
+    for (Body b : iceSheetBodies) {
+      this.updateSheet(b);
+    }
+    for (Iterator<SheetRaster> it = this.sheetRasters.values().iterator(); it.hasNext();) {
+      SheetRaster raster = it.next();
+      if (raster.updateCount != this.updateCount) {
+        this.unrasterize(raster);
+        it.remove();
+      }
+    }
+
+    for (Body b : foodBodies) {
+      int cell = this.getCellAt(b.getPosition().x, b.getPosition().y);
+      FoodCell food = this.foodCells.get(b);
+      if (food == null) {
+        food = new FoodCell();
+        this.foodCells.put(b, food);
+      } else if (food.cell != cell) {
+        this.addFood(food.cell, -1);
+      }
+      if (food.cell != cell) {
+        food.cell = cell;
+        this.addFood(cell, 1);
+      }
+      food.updateCount = this.updateCount;
+    }
+    for (Iterator<FoodCell> it = this.foodCells.values().iterator(); it.hasNext();) {
+      FoodCell food = it.next();
+      if (food.updateCount != this.updateCount) {
+        this.addFood(food.cell, -1);
+        it.remove();
+      }
+    }
+
+    this.updateDistances();
+  }
+
+
+  /**
+   * Get the version of the field. The version changes every time an update
+   * changes the cost of any cell, so anything worked out from the field can
+   * be kept until the version changes. Versions are unique across fields.
+   * @return
+   */
+  public long getVersion() {
+    return this.version;
+  }
+
+
+  /**
+   * Get the direction to head in from pos to get to food the cheapest way.
+   * @param pos
+   * @param out Receives a vector from pos to the middle of the next cell on
+   *        the way.
+   * @return false, and leaves out alone, if pos is outside the field, if
+   *         there's no way to any food, or if there's food in the same cell as
+   *         pos (so the field can't tell where it is any better than that).
+   */
+  public boolean getFlowDirection(Vec2 pos, Vec2 out) {
+    int cell = this.getCellAt(pos);
+    if (cell < 0 || this.isSeed[cell]) {
+      return false;
+    }
+    int next = this.getDownhillCell(cell);
+    if (next < 0) {
+      return false;
+    }
+    this.getCellCenter(next, out).subLocal(pos);
+    return true;
+  }
+
+
+  /**
+   * Find where to head for from a cell: the furthest cell along the cheapest
+   * path to food, up to a few cells ahead, which can be reached in a straight
+   * line without crossing any ice. This cuts the corners of the path, which
+   * only moves between neighbouring cells. Only depends on the cell and the
+   * version of the field, so the result can be cached until either changes.
+   * @param cell
+   * @return The cell to head for, or -1 if cell is outside the field, if
+   *         there's no way to any food, or if there's food in cell.
+   */
+  public int findWaypoint(int cell) {
+    if (cell < 0 || this.isSeed[cell]) {
+      return -1;
+    }
+    int waypoint = this.getDownhillCell(cell);
+    if (waypoint < 0) {
+      return -1;
+    }
+    for (int i = 1; i < FoodFlowField.MAX_WAYPOINT_CELLS && !this.isSeed[waypoint]; ++i) {
+      int next = this.getDownhillCell(waypoint);
+      if (next < 0 || !this.isOpenWaterBetween(cell, next)) {
+        break;
+      }
+      waypoint = next;
+    }
+    return waypoint;
+  }
+
+
+  /**
+   * Find the food a cell's cheapest path leads to, by going downhill to the
+   * end of the path. Like findWaypoint(), this only depends on the costs, so
+   * it's the same as for a field built from scratch.
+   * ~O(n) for a path n cells long.
+   * @param cell
+   * @return The cell with the food in it, or -1 if cell is outside the field
+   *         or there's no way to any food.
+   */
+  public int findFoodCell(int cell) {
+    if (cell < 0 || this.dist[cell] == FoodFlowField.UNREACHABLE) {
+      return -1;
+    }
+    while (!this.isSeed[cell]) {
+      cell = this.getDownhillCell(cell);
+      if (cell < 0) {
+        return -1;
+      }
+    }
+    return cell;
+  }
+
+
+  /**
+   * Get the index of the cell containing pos.
+   * @param pos
+   * @return -1 if pos is outside the field.
+   */
+  public int getCellAt(Vec2 pos) {
+    return this.getCellAt(pos.x, pos.y);
+  }
+
+
+  /**
+   * @param cell
+   * @param out Receives the middle of the cell, in world coordinates.
+   * @return out
+   */
+  public Vec2 getCellCenter(int cell, Vec2 out) {
+    return out.set(this.originX + (cell % this.width + 0.5f) * this.cellSize,
+        this.originY + (cell / this.width + 0.5f) * this.cellSize);
+  }
+
+
+  /**
+   * Get the cost of the cheapest path from pos to food, in world units of
+   * open water.
+   * @param pos
+   * @return Float.POSITIVE_INFINITY if pos is outside the field or there's no
+   *         way to any food.
+   */
+  public float getCostToFood(Vec2 pos) {
+    int cell = this.getCellAt(pos.x, pos.y);
+    return cell < 0 ? FoodFlowField.UNREACHABLE : this.dist[cell];
+  }
+
+
+  /**
+   * Helper method. Get the neighbouring cell with the cheapest path to food,
+   * if it's any cheaper than the cell itself. Ties go to the first neighbour
+   * in NEIGHBOR_DX order.
+   * @param cell
+   * @return -1 if no neighbour is cheaper.
+   */
+  private int getDownhillCell(int cell) {
+    int x = cell % this.width;
+    int y = cell / this.width;
+    int best = -1;
+    float bestDist = this.dist[cell];
+    for (int k = 0; k < FoodFlowField.NEIGHBOR_DX.length; ++k) {
+      int nx = x + FoodFlowField.NEIGHBOR_DX[k];
+      int ny = y + FoodFlowField.NEIGHBOR_DY[k];
+      if (nx < 0 || nx >= this.width || ny < 0 || ny >= this.height) {
+        continue;
+      }
+      int neighbor = ny * this.width + nx;
+      if (this.dist[neighbor] < bestDist) {
+        best = neighbor;
+        bestDist = this.dist[neighbor];
+      }
+    }
+    return best;
+  }
+
+
+  /**
+   * Helper method. Check that the straight line between the middles of two
+   * cells doesn't cross any ice, other than in the first cell, by sampling it
+   * every half a cell.
+   * @param from
+   * @param to
+   * @return
+   */
+  private boolean isOpenWaterBetween(int from, int to) {
+    float x0 = from % this.width + 0.5f;
+    float y0 = from / this.width + 0.5f;
+    float dx = to % this.width + 0.5f - x0;
+    float dy = to / this.width + 0.5f - y0;
+    int numSamples = (int) Math.ceil(2 * Math.max(Math.abs(dx), Math.abs(dy)));
+    for (int i = 1; i <= numSamples; ++i) {
+      float t = (float) i / numSamples;
+      int cell = (int) (y0 + t * dy) * this.width + (int) (x0 + t * dx);
+      if (cell != from && this.iceCount[cell] > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * Helper method. Rasterize the sheet again if it has broken or moved since
+   * the last update. Ice drifting by less than a cell usually still covers
+   * the same cells, in which case nothing needs repairing.
+   * @param b
+   */
+  private void updateSheet(Body b) {
+    IceSheet sheet = (IceSheet) b.getUserData();
+    SheetRaster raster = this.sheetRasters.get(b);
+    if (raster == null) {
+      raster = new SheetRaster();
+      this.sheetRasters.put(b, raster);
+    }
+    raster.updateCount = this.updateCount;
+    boolean isBroken = raster.version != sheet.getVersion();
+    if (!isBroken && raster.x == b.getPosition().x && raster.y == b.getPosition().y
+        && raster.angle == b.getAngle()) {
+      return;
+    }
+
+    if (isBroken) {
+      ArrayList<Vec2> perimeter = sheet.getBareEdgePerimeterCopy();
+      raster.version = sheet.getVersion();
+      raster.numPts = perimeter.size();
+      if (raster.localPts.length < 2 * raster.numPts) {
+        raster.localPts = new float[4 * raster.numPts];
+        raster.worldPts = new float[4 * raster.numPts];
+      }
+      for (int i = 0; i < raster.numPts; ++i) {
+        raster.localPts[2 * i] = perimeter.get(i).x;
+        raster.localPts[2 * i + 1] = perimeter.get(i).y;
+      }
+    }
+    raster.x = b.getPosition().x;
+    raster.y = b.getPosition().y;
+    raster.angle = b.getAngle();
+    this.rasterize(raster, b);
+    if (this.isSameCells(raster)) {
+      return;
+    }
+    this.unrasterize(raster);
+    for (int i = 0; i < this.numScratchCells; ++i) {
+      raster.addCell(this.scratchCells[i]);
+      this.addIce(this.scratchCells[i], 1);
+    }
+  }
+
+
+  /**
+   * Helper method. Check whether the cells just rasterized are the ones the
+   * sheet was last added to. Both lists are in row-major order.
+   * @param raster
+   * @return
+   */
+  private boolean isSameCells(SheetRaster raster) {
+    if (raster.numCells != this.numScratchCells) {
+      return false;
+    }
+    for (int i = 0; i < this.numScratchCells; ++i) {
+      if (raster.cells[i] != this.scratchCells[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * Helper method. Find every cell whose middle is inside the sheet's
+   * perimeter, using the even-odd rule a row at a time, and put them in
+   * scratchCells.
+   * @param raster
+   * @param b
+   */
+  private void rasterize(SheetRaster raster, Body b) {
+    this.numScratchCells = 0;
+    this.xf.set(b.getPosition(), b.getAngle());
+    float minY = Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+    for (int i = 0; i < raster.numPts; ++i) {
+      float lx = raster.localPts[2 * i];
+      float ly = raster.localPts[2 * i + 1];
+      float wx = this.xf.q.c * lx - this.xf.q.s * ly + this.xf.p.x;
+      float wy = this.xf.q.s * lx + this.xf.q.c * ly + this.xf.p.y;
+      raster.worldPts[2 * i] = wx;
+      raster.worldPts[2 * i + 1] = wy;
+      minY = Math.min(minY, wy);
+      maxY = Math.max(maxY, wy);
+    }
+    if (this.crossings.length < raster.numPts) {
+      this.crossings = new float[2 * raster.numPts];
+    }
+
+    int firstRow = Math.max(0, (int) Math.ceil((minY - this.originY) / this.cellSize - 0.5f));
+    int lastRow = Math.min(this.height - 1, (int) Math.floor((maxY - this.originY) / this.cellSize - 0.5f));
+    for (int row = firstRow; row <= lastRow; ++row) {
+      float cy = this.originY + (row + 0.5f) * this.cellSize;
+      int numCrossings = 0;
+      for (int i = 0, j = raster.numPts - 1; i < raster.numPts; j = i++) {
+        float yi = raster.worldPts[2 * i + 1];
+        float yj = raster.worldPts[2 * j + 1];
+        if ((yi > cy) != (yj > cy)) {
+          float xi = raster.worldPts[2 * i];
+          float xj = raster.worldPts[2 * j];
+          this.crossings[numCrossings++] = xi + (cy - yi) / (yj - yi) * (xj - xi);
+        }
+      }
+      Arrays.sort(this.crossings, 0, numCrossings);
+      for (int k = 0; k + 1 < numCrossings; k += 2) {
+        int firstCol = Math.max(0, (int) Math.ceil((this.crossings[k] - this.originX) / this.cellSize - 0.5f));
+        int lastCol = Math.min(this.width - 1, (int) Math.floor((this.crossings[k + 1] - this.originX) / this.cellSize - 0.5f));
+        for (int col = firstCol; col <= lastCol; ++col) {
+          if (this.numScratchCells == this.scratchCells.length) {
+            this.scratchCells = Arrays.copyOf(this.scratchCells, 2 * this.numScratchCells);
+          }
+          this.scratchCells[this.numScratchCells++] = row * this.width + col;
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Helper method. Take the sheet out of every cell it was last added to.
+   * @param raster
+   */
+  private void unrasterize(SheetRaster raster) {
+    for (int i = 0; i < raster.numCells; ++i) {
+      this.addIce(raster.cells[i], -1);
+    }
+    raster.numCells = 0;
+  }
+
+
+  private void addIce(int cell, int delta) {
+    this.iceCount[cell] += delta;
+    this.touch(cell);
+  }
+
+
+  private void addFood(int cell, int delta) {
+    if (cell < 0) {
+      return;
+    }
+    this.foodCount[cell] += delta;
+    this.touch(cell);
+  }
+
+
+  private void touch(int cell) {
+    if (!this.isTouched[cell]) {
+      this.isTouched[cell] = true;
+      this.touched[this.numTouched++] = cell;
+    }
+  }
+
+
+  /**
+   * Helper method. Bring dist[] up to date with the touched cells. Cells
+   * which got more expensive, or lost their food, are reset along with every
+   * cell whose cheapest path went through them; those, and cells which got
+   * cheaper or gained food, are then fixed up with Dijkstra's algorithm,
+   * starting from their neighbours.
+   */
+  private void updateDistances() {
+    int numInvalid = 0;
+    boolean isChanged = false;
+    for (int i = 0; i < this.numTouched; ++i) {
+      int cell = this.touched[i];
+      float newCost = this.iceCount[cell] > 0 ? FoodFlowField.ICE_COST : 1;
+      boolean newIsSeed = this.foodCount[cell] > 0;
+      isChanged |= newCost != this.cost[cell] || newIsSeed != this.isSeed[cell];
+      boolean isWorse = (this.isSeed[cell] && !newIsSeed)
+          || (!newIsSeed && newCost > this.cost[cell]);
+      this.cost[cell] = newCost;
+      this.isSeed[cell] = newIsSeed;
+      if (isWorse && this.dist[cell] != FoodFlowField.UNREACHABLE) {
+        this.dist[cell] = FoodFlowField.UNREACHABLE;
+        this.parent[cell] = -1;
+        this.invalid[numInvalid++] = cell;
+      }
+    }
+
+    // Reset everything downstream of the cells which got worse.
+    for (int i = 0; i < numInvalid; ++i) {
+      int cell = this.invalid[i];
+      int x = cell % this.width;
+      int y = cell / this.width;
+      for (int k = 0; k < FoodFlowField.NEIGHBOR_DX.length; ++k) {
+        int nx = x + FoodFlowField.NEIGHBOR_DX[k];
+        int ny = y + FoodFlowField.NEIGHBOR_DY[k];
+        if (nx < 0 || nx >= this.width || ny < 0 || ny >= this.height) {
+          continue;
+        }
+        int neighbor = ny * this.width + nx;
+        if (this.parent[neighbor] == cell) {
+          this.dist[neighbor] = FoodFlowField.UNREACHABLE;
+          this.parent[neighbor] = -1;
+          this.invalid[numInvalid++] = neighbor;
+        }
+      }
+    }
+
+    for (int i = 0; i < numInvalid; ++i) {
+      this.relaxFromNeighbors(this.invalid[i]);
+    }
+    for (int i = 0; i < this.numTouched; ++i) {
+      int cell = this.touched[i];
+      this.isTouched[cell] = false;
+      if (this.isSeed[cell]) {
+        if (this.dist[cell] != 0) {
+          this.dist[cell] = 0;
+          this.parent[cell] = -1;
+          this.push(cell, 0);
+        }
+      } else {
+        this.relaxFromNeighbors(cell);
+      }
+    }
+    this.numTouched = 0;
+    if (isChanged) {
+      this.version = FoodFlowField.versionCounter.incrementAndGet();
+    }
+
+    while (this.heapSize > 0) {
+      float d = this.heapKeys[0];
+      int cell = this.pop();
+      if (d > this.dist[cell]) {
+        continue;
+      }
+      int x = cell % this.width;
+      int y = cell / this.width;
+      for (int k = 0; k < FoodFlowField.NEIGHBOR_DX.length; ++k) {
+        int nx = x + FoodFlowField.NEIGHBOR_DX[k];
+        int ny = y + FoodFlowField.NEIGHBOR_DY[k];
+        if (nx < 0 || nx >= this.width || ny < 0 || ny >= this.height) {
+          continue;
+        }
+        int neighbor = ny * this.width + nx;
+        float nd = d + this.neighborDist[k] * this.cost[neighbor];
+        if (nd < this.dist[neighbor]) {
+          this.dist[neighbor] = nd;
+          this.parent[neighbor] = cell;
+          this.push(neighbor, nd);
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Helper method. Lower the cell's dist to the cheapest way through any of
+   * its neighbours, and queue it if that's an improvement.
+   * @param cell
+   */
+  private void relaxFromNeighbors(int cell) {
+    int x = cell % this.width;
+    int y = cell / this.width;
+    for (int k = 0; k < FoodFlowField.NEIGHBOR_DX.length; ++k) {
+      int nx = x + FoodFlowField.NEIGHBOR_DX[k];
+      int ny = y + FoodFlowField.NEIGHBOR_DY[k];
+      if (nx < 0 || nx >= this.width || ny < 0 || ny >= this.height) {
+        continue;
+      }
+      int neighbor = ny * this.width + nx;
+      float nd = this.dist[neighbor] + this.neighborDist[k] * this.cost[cell];
+      if (nd < this.dist[cell]) {
+        this.dist[cell] = nd;
+        this.parent[cell] = neighbor;
+      }
+    }
+    if (this.dist[cell] != FoodFlowField.UNREACHABLE) {
+      this.push(cell, this.dist[cell]);
+    }
+  }
+
+
+  private void push(int cell, float key) {
+    if (this.heapSize == this.heapCells.length) {
+      this.heapCells = Arrays.copyOf(this.heapCells, 2 * this.heapSize);
+      this.heapKeys = Arrays.copyOf(this.heapKeys, 2 * this.heapSize);
+    }
+    int i = this.heapSize++;
+    while (i > 0) {
+      int up = (i - 1) / 2;
+      if (this.heapKeys[up] <= key) {
+        break;
+      }
+      this.heapCells[i] = this.heapCells[up];
+      this.heapKeys[i] = this.heapKeys[up];
+      i = up;
+    }
+    this.heapCells[i] = cell;
+    this.heapKeys[i] = key;
+  }
+
+
+  private int pop() {
+    int top = this.heapCells[0];
+    int cell = this.heapCells[--this.heapSize];
+    float key = this.heapKeys[this.heapSize];
+    int i = 0;
+    while (2 * i + 1 < this.heapSize) {
+      int down = 2 * i + 1;
+      if (down + 1 < this.heapSize && this.heapKeys[down + 1] < this.heapKeys[down]) {
+        ++down;
+      }
+      if (key <= this.heapKeys[down]) {
+        break;
+      }
+      this.heapCells[i] = this.heapCells[down];
+      this.heapKeys[i] = this.heapKeys[down];
+      i = down;
+    }
+    this.heapCells[i] = cell;
+    this.heapKeys[i] = key;
+    return top;
+  }
+
+
+  /**
+   * Helper method. Get the index of the cell containing (x, y), or -1 if it's
+   * outside the field.
+   * @param x
+   * @param y
+   * @return
+   */
+  private int getCellAt(float x, float y) {
+    int cx = (int) Math.floor((x - this.originX) / this.cellSize);
+    int cy = (int) Math.floor((y - this.originY) / this.cellSize);
+    if (cx < 0 || cx >= this.width || cy < 0 || cy >= this.height) {
+      return -1;
+    }
+    return cy * this.width + cx;
+  }
+
+
+  /**
+   * The cells covered by a sheet as of the last update, and what the sheet
+   * looked like then.
+   */
+  private static class SheetRaster {
+    long version = -1;
+    float x, y, angle;
+    int numPts = 0;
+    float[] localPts = new float[0];
+    float[] worldPts = new float[0];
+    int[] cells = new int[16];
+    int numCells = 0;
+    long updateCount;
+
+    void addCell(int cell) {
+      if (this.numCells == this.cells.length) {
+        this.cells = Arrays.copyOf(this.cells, 2 * this.numCells);
+      }
+      this.cells[this.numCells++] = cell;
+    }
+  }
+
+
+  /**
+   * The cell a food body was in as of the last update.
+   */
+  private static class FoodCell {
+    int cell = -1;
+    long updateCount;
+  }
+}
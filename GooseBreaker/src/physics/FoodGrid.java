@@ -0,0 +1,252 @@
+package physics;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+
+/**
+ * A uniform grid of food bodies, for finding the food nearest to a goose
+ * without looking at every piece of food in the world. IceWorld keeps it up to
+ * date as food is added, eaten, and moves.
+ *
+ * The grid covers the cells which have ever held food, and grows as needed.
+ * Queries don't allocate.
+ *
+ * @author Jack
+ *
+ */
+public class FoodGrid {
+  private float cellSize;
+  // Cell coordinates of cells[0], and the size of the grid in cells.
+  private int originX;
+  private int originY;
+  private int width;
+  private int height;
+  // Row-major; null for cells which have never held food.
+  private ArrayList<ArrayList<Body>> cells;
+  // Packed cell coordinates of each body in the grid.
+  private Map<Body, Long> cellOfBody;
+
+  /**
+   * @param cellSize Width and height of each cell, in world units.
+   */
+  public FoodGrid(float cellSize) {
+    this.cellSize = cellSize;
+    this.width = 0;
+    this.height = 0;
+    this.cells = new ArrayList<ArrayList<Body>>();
+    this.cellOfBody = new IdentityHashMap<Body, Long>();
+  }
+
+
+  public int size() {
+    return this.cellOfBody.size();
+  }
+
+
+  /**
+   * Add a food body at its current position, or move it to the cell of its
+   * current position if it's already in the grid.
+   * @param b
+   */
+  public void update(Body b) {
+    int cx = this.toCell(b.getPosition().x);
+    int cy = this.toCell(b.getPosition().y);
+    long cell = FoodGrid.pack(cx, cy);
+    Long oldCell = this.cellOfBody.get(b);
+    if (oldCell != null) {
+      if (oldCell.longValue() == cell) {
+        return;
+      }
+      this.getCell(FoodGrid.unpackX(oldCell), FoodGrid.unpackY(oldCell)).remove(b);
+    }
+    this.cellOfBody.put(b, cell);
+    this.growToContain(cx, cy);
+    int i = (cy - this.originY) * this.width + (cx - this.originX);
+    ArrayList<Body> bodies = this.cells.get(i);
+    if (bodies == null) {
+      bodies = new ArrayList<Body>();
+      this.cells.set(i, bodies);
+    }
+    bodies.add(b);
+  }
+
+
+  /**
+   * Remove a food body from the grid, if it's in it.
+   * @param b
+   */
+  public void remove(Body b) {
+    Long oldCell = this.cellOfBody.remove(b);
+    if (oldCell != null) {
+      this.getCell(FoodGrid.unpackX(oldCell), FoodGrid.unpackY(oldCell)).remove(b);
+    }
+  }
+
+
+  public void clear() {
+    for (int i = 0; i < this.cells.size(); ++i) {
+      if (this.cells.get(i) != null) {
+        this.cells.get(i).clear();
+      }
+    }
+    this.cellOfBody.clear();
+  }
+
+
+  /**
+   * Find the nearest food within a cone of vision: the food whose direction
+   * from pos makes an angle with dir whose cosine is at least cosHalfAngle.
+   * Searches outwards from pos one ring of cells at a time, and stops as soon
+   * as no unsearched cell could hold anything nearer, so the cost depends on
+   * how far away the nearest food is rather than on how much food there is.
+   * No square roots.
+   * @param pos Where to look from.
+   * @param dir Direction to look in. Must be a unit vector.
+   * @param cosHalfAngle Cosine of half the cone's angle; -1 to see all around.
+   * @param maxRange Ignore food further away than this.
+   * @return The nearest food body, or null if there is none in the cone.
+   */
+  public Body findNearestInCone(Vec2 pos, Vec2 dir, float cosHalfAngle, float maxRange) {
+    if (this.cellOfBody.isEmpty()) {
+      return null;
+    }
+    int cx = this.toCell(pos.x);
+    int cy = this.toCell(pos.y);
+    // Rings beyond the edges of the grid are empty.
+    int maxRing = Math.max(
+        Math.max(cx - this.originX, this.originX + this.width - 1 - cx),
+        Math.max(cy - this.originY, this.originY + this.height - 1 - cy));
+    if (maxRange < this.cellSize * maxRing) {
+      maxRing = (int) Math.ceil(maxRange / this.cellSize);
+    }
+
+    Body nearest = null;
+    float nearestDistSq = maxRange * maxRange;
+    for (int r = 0; r <= maxRing; ++r) {
+      // Everything in ring r is at least r - 1 cells away from pos.
+      float minDist = (r - 1) * this.cellSize;
+      if (r > 0 && minDist * minDist > nearestDistSq) {
+        break;
+      }
+      for (int y = cy - r; y <= cy + r; ++y) {
+        // Only the first and last rows of the ring are whole.
+        int step = (y == cy - r || y == cy + r) ? 1 : Math.max(1, 2 * r);
+        for (int x = cx - r; x <= cx + r; x += step) {
+          ArrayList<Body> bodies = this.getCell(x, y);
+          if (bodies == null) {
+            continue;
+          }
+          for (int i = 0; i < bodies.size(); ++i) {
+            Body b = bodies.get(i);
+            float dx = b.getPosition().x - pos.x;
+            float dy = b.getPosition().y - pos.y;
+            float distSq = dx * dx + dy * dy;
+            if (distSq <= nearestDistSq
+                && (nearest == null || distSq < nearestDistSq)
+                && FoodGrid.isInCone(dir.x * dx + dir.y * dy, distSq, cosHalfAngle)) {
+              nearest = b;
+              nearestDistSq = distSq;
+            }
+          }
+        }
+      }
+    }
+    return nearest;
+  }
+
+
+  /**
+   * Check cos(angle) >= cosHalfAngle, where cos(angle) = dot / sqrt(lenSq),
+   * without the square root.
+   * @param dot
+   * @param lenSq
+   * @param cosHalfAngle
+   * @return
+   */
+  static boolean isInCone(float dot, float lenSq, float cosHalfAngle) {
+    if (cosHalfAngle >= 0) {
+      return dot >= 0 && dot * dot >= cosHalfAngle * cosHalfAngle * lenSq;
+    } else {
+      return dot >= 0 || dot * dot <= cosHalfAngle * cosHalfAngle * lenSq;
+    }
+  }
+
+
+  /**
+   * Helper method. Get the bodies in the cell, or null if it's outside the
+   * grid or has never held food.
+   * @param x
+   * @param y
+   * @return
+   */
+  private ArrayList<Body> getCell(int x, int y) {
+    x -= this.originX;
+    y -= this.originY;
+    if (x < 0 || x >= this.width || y < 0 || y >= this.height) {
+      return null;
+    }
+    return this.cells.get(y * this.width + x);
+  }
+
+
+  /**
+   * Helper method. Make sure the cell is inside the grid, growing it (by at
+   * least double, so this happens rarely) if not.
+   * @param cx
+   * @param cy
+   */
+  private void growToContain(int cx, int cy) {
+    if (this.width > 0 && cx >= this.originX && cx < this.originX + this.width
+        && cy >= this.originY && cy < this.originY + this.height) {
+      return;
+    }
+    int minX = cx, minY = cy, maxX = cx, maxY = cy;
+    if (this.width > 0) {
+      minX = Math.min(minX, this.originX - this.width / 2);
+      minY = Math.min(minY, this.originY - this.height / 2);
+      maxX = Math.max(maxX, this.originX + this.width - 1 + this.width / 2);
+      maxY = Math.max(maxY, this.originY + this.height - 1 + this.height / 2);
+    }
+    int newWidth = maxX - minX + 1;
+    int newHeight = maxY - minY + 1;
+    ArrayList<ArrayList<Body>> newCells = new ArrayList<ArrayList<Body>>(newWidth * newHeight);
+    for (int i = 0; i < newWidth * newHeight; ++i) {
+      newCells.add(null);
+    }
+    for (int y = 0; y < this.height; ++y) {
+      for (int x = 0; x < this.width; ++x) {
+        int newIndex = (y + this.originY - minY) * newWidth + (x + this.originX - minX);
+        newCells.set(newIndex, this.cells.get(y * this.width + x));
+      }
+    }
+    this.cells = newCells;
+    this.originX = minX;
+    this.originY = minY;
+    this.width = newWidth;
+    this.height = newHeight;
+  }
+
+
+  private int toCell(float coord) {
+    return (int) Math.floor(coord / this.cellSize);
+  }
+
+
+  private static long pack(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+
+
+  private static int unpackX(long cell) {
+    return (int) (cell >> 32);
+  }
+
+
+  private static int unpackY(long cell) {
+    return (int) cell;
+  }
+}
@@ -2,10 +2,13 @@ package physics;
 
 import graphics.Animation;
 
+import org.jbox2d.collision.shapes.CircleShape;
 import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.collision.shapes.ShapeType;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyDef;
 import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Fixture;
 import org.jbox2d.dynamics.World;
 
 /**
@@ -42,4 +45,31 @@ public abstract class FoodPiece implements Animation {
     b.setLinearDamping(FreeSpace.WATER_VISCOSITY * 10);
     return b;
   }
+  
+  /**
+   * Reuse an inactive Body created by attachToWorldAsBody() (possibly for a
+   * different piece of food) for this piece of food. If the shapes are both
+   * circles, the existing fixture is resized in place; otherwise it is
+   * replaced.
+   * @param b
+   */
+  public void reattachBody(Body b) {
+    b.setUserData(this);
+    Shape shape = getShape();
+    Fixture f = b.getFixtureList();
+    if (f != null && f.getNext() == null &&
+        f.getShape().getType() == ShapeType.CIRCLE && shape.getType() == ShapeType.CIRCLE) {
+      // The fixture owns a copy of the shape, so this is safe to modify.
+      CircleShape fixtureShape = (CircleShape) f.getShape();
+      fixtureShape.m_radius = shape.m_radius;
+      fixtureShape.m_p.set(((CircleShape) shape).m_p);
+      f.setDensity(getDensity());
+      b.resetMassData();
+    } else {
+      while (b.getFixtureList() != null) {
+        b.destroyFixture(b.getFixtureList());
+      }
+      b.createFixture(shape, getDensity());
+    }
+  }
 }
@@ -0,0 +1,142 @@
+package physics;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.jbox2d.dynamics.Body;
+
+import tessellation.IceChunk;
+import tessellation.IceSheet;
+
+/**
+ * The chunk graph half of breaking the ice of one IceSheet body: split the
+ * chunks which are too big, then remove the small ones in one batch and find
+ * the pieces the sheet falls apart into. None of this touches the physics
+ * world, so it can run on a FractureWorker thread, alongside jobs for other
+ * sheets; IceWorld applies the result to the body afterwards.
+ *
+ * @author Jack
+ *
+ */
+public class FractureJob implements Runnable {
+  private Body body;
+  private IceSheet sheet;
+  private ArrayList<IceChunk> splitChunks;
+  private ArrayList<IceChunk> removeChunks;
+  private Random random;
+  private ArrayList<IceSheet> newSheets;
+  private Future<?> future;
+
+  /**
+   * @param body Body of the sheet. Only kept for IceWorld; never touched by
+   *          run().
+   * @param random Random number generator for the splits, used only by this
+   *          job.
+   */
+  public FractureJob(Body body, Random random) {
+    this.body = body;
+    this.sheet = (IceSheet) body.getUserData();
+    this.splitChunks = new ArrayList<IceChunk>();
+    this.removeChunks = new ArrayList<IceChunk>();
+    this.random = random;
+  }
+
+
+  public Body getBody() {
+    return this.body;
+  }
+
+
+  public IceSheet getSheet() {
+    return this.sheet;
+  }
+
+
+  /**
+   * Split the chunk in two when the job runs.
+   * @param chunk
+   */
+  public void addSplitChunk(IceChunk chunk) {
+    this.splitChunks.add(chunk);
+  }
+
+
+  /**
+   * Remove the chunk from the sheet when the job runs.
+   * @param chunk
+   */
+  public void addRemoveChunk(IceChunk chunk) {
+    this.removeChunks.add(chunk);
+  }
+
+
+  /**
+   * Get the chunks to be split, for grouping jobs.
+   * @return
+   */
+  ArrayList<IceChunk> getSplitChunks() {
+    return this.splitChunks;
+  }
+
+
+  ArrayList<IceChunk> getRemoveChunks() {
+    return this.removeChunks;
+  }
+
+
+  /**
+   * Get the sheets the sheet broke into, as returned by
+   * IceSheet.removeIceChunks(), or null if no chunks were removed (so the
+   * sheet is still in one piece).
+   * @return
+   */
+  public ArrayList<IceSheet> getNewSheets() {
+    return this.newSheets;
+  }
+
+
+  @Override
+  public void run() {
+    for (IceChunk chunk : this.splitChunks) {
+      this.sheet.randomBinaryDivision(chunk, this.random);
+    }
+    if (!this.removeChunks.isEmpty()) {
+      this.newSheets = this.sheet.removeIceChunks(this.removeChunks);
+      for (IceSheet newSheet : this.newSheets) {
+        newSheet.getBareIceChunks();
+      }
+    } else {
+      // Bring the cached perimeter up to date here rather than when the
+      // fixtures are rebuilt.
+      this.sheet.getBareIceChunks();
+    }
+  }
+
+
+  void setFuture(Future<?> future) {
+    this.future = future;
+  }
+
+
+  /**
+   * Wait for the job to finish running on its FractureWorker. Returns at once
+   * if the job was run directly instead.
+   * @throws IllegalStateException if the job failed or the wait was
+   *           interrupted. The sheet can't be used after that.
+   */
+  public void await() {
+    if (this.future == null) {
+      return;
+    }
+    try {
+      this.future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while fracturing ice", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("fracturing ice failed", e.getCause());
+    }
+  }
+}
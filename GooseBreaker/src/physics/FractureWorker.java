@@ -0,0 +1,226 @@
+package physics;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import tessellation.IceChunk;
+
+/**
+ * Runs FractureJobs on a pool of background threads, so that IceWorld only has
+ * to apply their results to the physics bodies. Give one to
+ * IceWorld.setFractureWorker().
+ *
+ * Each batch of jobs is split into groups which share no chunks, and the
+ * groups run in parallel. Sheets which have broken apart can still share
+ * deleted chunks along their borders, and splitting or removing a chunk
+ * updates the adjacency lists of its deleted neighbors, which the other sheet
+ * reads. So each deleted chunk a job would update is mapped to that job, and
+ * jobs whose sheets border such a chunk go in the same group as its writer,
+ * to run one at a time in the order they were submitted. Each job draws from its own random number generator,
+ * so the results don't depend on how the groups get scheduled.
+ *
+ * @author Jack
+ *
+ */
+public class FractureWorker {
+  private ForkJoinPool pool;
+  // Scratch space for grouping jobs, reused by every submit().
+  private int[] groupOf;
+  private IdentityHashMap<IceChunk, Integer> writerOf;
+  private ArrayList<GroupTask> groupTasks;
+  // Every group task made so far. A task is reused once its future is done.
+  private ArrayList<GroupTask> tasks;
+  private int idleScanStart;
+
+  /**
+   * Use one thread per processor.
+   */
+  public FractureWorker() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+
+  /**
+   * @param parallelism Number of threads.
+   */
+  public FractureWorker(int parallelism) {
+    // The pool's threads are daemons, so they don't keep the game running.
+    this.pool = new ForkJoinPool(parallelism);
+    this.groupOf = new int[0];
+    this.writerOf = new IdentityHashMap<IceChunk, Integer>();
+    this.groupTasks = new ArrayList<GroupTask>();
+    this.tasks = new ArrayList<GroupTask>();
+  }
+
+
+  /**
+   * Start running the jobs in the background, and hand their sheets over to
+   * the pool's threads (see IceSheet.beginBackgroundUpdate()). Use
+   * job.await() to wait for each one.
+   * ~O(n) for n chunks in the jobs' sheets.
+   * @param jobs
+   */
+  public synchronized void submit(ArrayList<FractureJob> jobs) {
+    // Union-find over the jobs. Each group is named after its first job.
+    int numJobs = jobs.size();
+    if (this.groupOf.length < numJobs) {
+      this.groupOf = new int[2 * numJobs];
+    }
+    for (int i = 0; i < numJobs; ++i) {
+      this.groupOf[i] = i;
+    }
+
+    // Two jobs conflict when one splits or removes a chunk next to a deleted
+    // chunk which borders the other's sheet. Map each deleted chunk a job
+    // writes to that job, then union each job with the writers of the
+    // deleted chunks bordering its sheet.
+    this.writerOf.clear();
+    for (int i = 0; i < numJobs; ++i) {
+      FractureJob job = jobs.get(i);
+      this.addWriter(job.getSplitChunks(), i);
+      this.addWriter(job.getRemoveChunks(), i);
+    }
+    if (!this.writerOf.isEmpty()) {
+      for (int i = 0; i < numJobs; ++i) {
+        for (IceChunk chunk : jobs.get(i).getSheet().getIceChunks()) {
+          for (int e = 0; e < 3; ++e) {
+            for (IceChunk deleted : chunk.getAdjacentAndDeletedSortedClockwise(e)) {
+              Integer writer = deleted.isDeleted() ? this.writerOf.get(deleted) : null;
+              if (writer != null) {
+                this.union(i, writer);
+              }
+            }
+          }
+        }
+      }
+      this.writerOf.clear();
+    }
+    
+    for (FractureJob job : jobs) {
+      job.getSheet().beginBackgroundUpdate();
+    }
+    // Groups run in the order of their first jobs, and each group's jobs in
+    // submission order.
+    int numGroups = 0;
+    this.idleScanStart = 0;
+    for (int i = 0; i < numJobs; ++i) {
+      if (findGroup(this.groupOf, i) == i) {
+        this.groupOf[i] = -1 - numGroups;
+        this.groupTasks.add(this.getIdleTask());
+        ++numGroups;
+      }
+    }
+    for (int i = 0; i < numJobs; ++i) {
+      int root = findGroup(this.groupOf, i);
+      this.groupTasks.get(-1 - this.groupOf[root]).jobs.add(jobs.get(i));
+    }
+    for (GroupTask task : this.groupTasks) {
+      task.future = this.pool.submit(task);
+      for (FractureJob job : task.jobs) {
+        job.setFuture(task.future);
+      }
+    }
+    this.groupTasks.clear();
+  }
+
+
+  /**
+   * Helper method. Record job i as the writer of the deleted neighbors of
+   * the chunks, joining it with any other job which writes one of them.
+   * @param chunks
+   * @param i
+   */
+  private void addWriter(ArrayList<IceChunk> chunks, int i) {
+    for (IceChunk chunk : chunks) {
+      for (int e = 0; e < 3; ++e) {
+        for (IceChunk deleted : chunk.getAdjacentAndDeletedSortedClockwise(e)) {
+          if (!deleted.isDeleted()) {
+            continue;
+          }
+          Integer writer = this.writerOf.put(deleted, i);
+          if (writer != null && writer != i) {
+            this.union(i, writer);
+          }
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Helper method. Put jobs i and j in the same group, named after the
+   * earlier of their first jobs.
+   * @param i
+   * @param j
+   */
+  private void union(int i, int j) {
+    int gi = findGroup(this.groupOf, i);
+    int gj = findGroup(this.groupOf, j);
+    if (gi != gj) {
+      this.groupOf[Math.max(gi, gj)] = Math.min(gi, gj);
+    }
+  }
+
+
+  /**
+   * Helper method. Get a group task which isn't running, with no jobs.
+   * @return
+   */
+  private GroupTask getIdleTask() {
+    for (int i = this.idleScanStart; i < this.tasks.size(); ++i) {
+      GroupTask task = this.tasks.get(i);
+      if (task.future == null || task.future.isDone()) {
+        this.idleScanStart = i + 1;
+        task.jobs.clear();
+        task.future = null;
+        return task;
+      }
+    }
+    GroupTask task = new GroupTask();
+    this.tasks.add(task);
+    this.idleScanStart = this.tasks.size();
+    return task;
+  }
+
+
+  /**
+   * Helper method. Find the index of the first job in job i's group. Once
+   * groups are numbered, a group's first job holds -1 - its number.
+   * @param groupOf
+   * @param i
+   * @return
+   */
+  private static int findGroup(int[] groupOf, int i) {
+    while (groupOf[i] >= 0 && groupOf[i] != i) {
+      i = groupOf[i];
+    }
+    return i;
+  }
+
+
+  /**
+   * Stop the threads once the jobs already submitted are done.
+   */
+  public void shutdown() {
+    this.pool.shutdown();
+  }
+
+
+  /**
+   * A group of jobs run one after the other on one thread. Kept around and
+   * reused, along with its list, once it's done.
+   */
+  private static class GroupTask implements Runnable {
+    private ArrayList<FractureJob> jobs = new ArrayList<FractureJob>();
+    private Future<?> future;
+
+    @Override
+    public void run() {
+      for (FractureJob job : this.jobs) {
+        job.run();
+      }
+    }
+  }
+}
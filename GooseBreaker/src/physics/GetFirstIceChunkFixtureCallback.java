@@ -21,6 +21,7 @@ public class GetFirstIceChunkFixtureCallback implements RayCastCallback {
 
   public GetFirstIceChunkFixtureCallback() {
     result = null;
+    pt = new Vec2();
     fraction = 0;
   }
 
@@ -35,6 +36,11 @@ public class GetFirstIceChunkFixtureCallback implements RayCastCallback {
   }
   
   
+  /**
+   * Get the point where the ray hit the result. The returned Vec2 is reused
+   * by later casts, so copy it to keep it.
+   * @return
+   */
   public Vec2 getPoint() {
     return pt;
   }
@@ -54,14 +60,14 @@ public class GetFirstIceChunkFixtureCallback implements RayCastCallback {
 
     result = fixture;
     this.fraction = fraction;
-    this.pt = new Vec2(point);
+    this.pt.set(point);
     return fraction;
   }
 
 
   public void clear() {
     this.fraction = 0;
-    this.pt = null;
+    this.pt.setZero();
     this.result = null;
   }
 
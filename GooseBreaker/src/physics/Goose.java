@@ -14,6 +14,8 @@ import org.jbox2d.dynamics.Fixture;
 import org.jbox2d.dynamics.World;
 import org.jbox2d.dynamics.joints.WeldJointDef;
 
+import util.HashUtil;
+
 /**
  * A Goose agent that swims towards the nearest BreadBall within a cone of
  * vision. 
@@ -30,13 +32,30 @@ public class Goose extends Agent {
   private static final float VISION_CONE_COS_HALF_ANGLE = -1.0f / 2;
   private static final float SWIM_FREQUENCY = 0.4f;
   private static final float SWIM_STROKE_TIME = 0.15f;
+  // Geese can see food as far away as it gets, unless told otherwise.
+  private static final float DEFAULT_VISION_RANGE = Float.MAX_VALUE;
   
   private float width = 1.0f;
   private float height = 1.0f;
   private float stepTimer;
   private float swimFrequency;
   private float strokeTime;
+  private float visionRange;
   private GooseAnimation animation;
+  private Vec2 gooseDir;
+  private Vec2 toFood;
+  // The stroke chosen by the last call to decide().
+  private boolean isStroking;
+  private boolean isLeftLegStroke;
+  // The waypoint last found in the world's FoodFlowField, the cell with the
+  // food it leads to, and the cell and field version they were found for.
+  private int pathFromCell;
+  private long pathVersion;
+  private int pathWaypoint;
+  private int pathFoodCell;
+  // Where the goose was last heading, for steering between perceptions.
+  private boolean hasTarget;
+  private Vec2 target;
   
   
   public Goose(float size) {
@@ -45,7 +64,30 @@ public class Goose extends Agent {
     this.stepTimer = 0;
     this.swimFrequency = Goose.SWIM_FREQUENCY;
     this.strokeTime = Goose.SWIM_STROKE_TIME;
+    this.visionRange = Goose.DEFAULT_VISION_RANGE;
     this.animation = new GooseAnimation();
+    this.gooseDir = new Vec2();
+    this.toFood = new Vec2();
+    this.pathFromCell = -1;
+    this.pathVersion = -1;
+    this.pathWaypoint = -1;
+    this.pathFoodCell = -1;
+    this.hasTarget = false;
+    this.target = new Vec2();
+  }
+  
+  
+  public float getVisionRange() {
+    return this.visionRange;
+  }
+  
+  
+  /**
+   * Make the goose ignore food further away than range.
+   * @param range
+   */
+  public void setVisionRange(float range) {
+    this.visionRange = range;
   }
   
   
@@ -104,30 +146,65 @@ public class Goose extends Agent {
   
   
   /**
-   * Look at all the food pieces in the world, and get the vector direction
-   * from the body to the nearest food piece. Ignore food not within the cone
-   * of vision, as though the goose cannot "see" the food.
+   * Find the nearest food piece in the world, and get the vector direction
+   * from the body to it. Ignore food not within the cone of vision or out of
+   * range, as though the goose cannot "see" the food. Uses the world's
+   * FoodGrid, so only food near the goose is looked at.
    * TODO: The goose has an infinitesimally short term memory; maybe increase it
    * @param body
-   * @return
+   * @return The direction, valid until the next call, or null if there's no
+   *         food in sight.
    */
   private Vec2 getDirOfNearestFoodPiece(Body body) {
     IceWorld world = (IceWorld) body.getWorld();
-    Vec2 gooseDir = new Vec2((float) (Math.cos(body.getAngle())), (float) Math.sin(body.getAngle()));
-    Vec2 toNearestFood = null;
-    float nearestFoodDist = Float.MAX_VALUE;
-    for (Body foodBody : world.getFoodPieceBodies()) {
-      Vec2 towardsFood = foodBody.getPosition().sub(body.getPosition());
-      float cosAngle = Vec2.dot(gooseDir, towardsFood) / gooseDir.length() / towardsFood.length();
-      if (cosAngle < Goose.VISION_CONE_COS_HALF_ANGLE) {
-        continue;
+    Body foodBody = world.getFoodGrid().findNearestInCone(body.getPosition(),
+        this.gooseDir, Goose.VISION_CONE_COS_HALF_ANGLE, this.visionRange);
+    if (foodBody == null) {
+      return null;
+    }
+    return this.toFood.set(foodBody.getPosition()).subLocal(body.getPosition());
+  }
+  
+  
+  /**
+   * Get the direction to swim in: towards the next waypoint on the world's
+   * FoodFlowField if it has one and the food at the end of the path is in
+   * sight, or else straight for the nearest food piece in sight. The food is
+   * taken to be in the middle of its cell. The waypoint is only looked for
+   * again once the goose moves to another cell or the field changes.
+   * @param body
+   * @return The direction, valid until the next call, or null if there's
+   *         nowhere to go.
+   */
+  private Vec2 getTravelDir(Body body) {
+    FoodFlowField field = ((IceWorld) body.getWorld()).getFoodFlowField();
+    if (field != null) {
+      int cell = field.getCellAt(body.getPosition());
+      if (cell != this.pathFromCell || field.getVersion() != this.pathVersion) {
+        this.pathFromCell = cell;
+        this.pathVersion = field.getVersion();
+        this.pathWaypoint = field.findWaypoint(cell);
+        this.pathFoodCell = this.pathWaypoint >= 0 ? field.findFoodCell(cell) : -1;
       }
-      if (towardsFood.lengthSquared() < nearestFoodDist) {
-        nearestFoodDist = towardsFood.lengthSquared();
-        toNearestFood = towardsFood;
+      if (this.pathWaypoint >= 0 && this.pathFoodCell >= 0 && this.isInSight(
+          field.getCellCenter(this.pathFoodCell, this.toFood).subLocal(body.getPosition()))) {
+        return field.getCellCenter(this.pathWaypoint, this.toFood).subLocal(body.getPosition());
       }
     }
-    return toNearestFood;
+    return getDirOfNearestFoodPiece(body);
+  }
+  
+  
+  /**
+   * Helper method. Check whether something is within the cone of vision and
+   * in range.
+   * @param toPt Vector from the goose to the thing.
+   * @return
+   */
+  private boolean isInSight(Vec2 toPt) {
+    float distSq = toPt.lengthSquared();
+    return distSq <= this.visionRange * this.visionRange
+        && FoodGrid.isInCone(Vec2.dot(this.gooseDir, toPt), distSq, Goose.VISION_CONE_COS_HALF_ANGLE);
   }
   
   
@@ -140,28 +217,77 @@ public class Goose extends Agent {
 
 
   /**
-   * The goose steps by finding the nearest food piece, and swimming towards it.
+   * The goose decides by finding the nearest food piece, and which leg to swim
+   * towards it with. If it isn't due to perceive the world this time, it heads
+   * back towards wherever it was heading last time instead.
    */
   @Override
-  public boolean step(float dt, Body myBody) {
-    Vec2 travelDir = getDirOfNearestFoodPiece(myBody);
+  public boolean decide(float dt, Body myBody) {
+    this.gooseDir.set((float) Math.cos(myBody.getAngle()), (float) Math.sin(myBody.getAngle()));
+    Vec2 travelDir;
+    if (this.isPerceptionDue()) {
+      travelDir = getTravelDir(myBody);
+      this.hasTarget = travelDir != null;
+      if (this.hasTarget) {
+        this.target.set(myBody.getPosition()).addLocal(travelDir);
+      }
+    } else if (this.hasTarget) {
+      travelDir = this.toFood.set(this.target).subLocal(myBody.getPosition());
+    } else {
+      travelDir = null;
+    }
     if (travelDir == null) {
       stepTimer = this.swimFrequency;
       return false;
     }
     
-    Vec2 gooseDir = new Vec2((float) (Math.cos(myBody.getAngle())), (float) Math.sin(myBody.getAngle()));
     // Is the food to the left or to the right from the goose's point of view?
     // If the food is clockwise from the goose, that means the goose should turn
     // left, which means swim with the right leg (and vice versa)
-    boolean clockwise = Vec2.cross(gooseDir, travelDir) > 0;
-      
-    if (this.isFlapping()) {
-      applySwimImpulse(myBody, !clockwise, dt);
-    }
+    boolean clockwise = Vec2.cross(this.gooseDir, travelDir) > 0;
+    
+    this.isStroking = this.isFlapping();
+    this.isLeftLegStroke = !clockwise;
     this.addToTimer(dt);
     return true;
   }
+  
+  
+  /**
+   * The goose applies the stroke it decided on, if it's mid-stroke.
+   */
+  @Override
+  public void apply(float dt, Body myBody) {
+    if (this.isStroking) {
+      applySwimImpulse(myBody, this.isLeftLegStroke, dt);
+    }
+  }
+
+
+  @Override
+  public void saveState(IceWorldSnapshot snapshot) {
+    snapshot.putFloat(this.stepTimer);
+    snapshot.putBoolean(this.hasTarget);
+    snapshot.putFloat(this.target.x);
+    snapshot.putFloat(this.target.y);
+  }
+  
+  
+  @Override
+  public void restoreState(IceWorldSnapshot snapshot) {
+    this.stepTimer = snapshot.getFloat();
+    this.hasTarget = snapshot.getBoolean();
+    this.target.x = snapshot.getFloat();
+    this.target.y = snapshot.getFloat();
+  }
+  
+  
+  @Override
+  public long getStateHash() {
+    long h = HashUtil.combine(Float.floatToIntBits(this.stepTimer), this.hasTarget ? 1 : 0);
+    h = HashUtil.combine(h, this.target.x);
+    return HashUtil.combine(h, this.target.y);
+  }
 
 
   public boolean isFlapping() {
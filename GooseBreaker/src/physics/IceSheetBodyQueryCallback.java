@@ -0,0 +1,59 @@
+package physics;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jbox2d.callbacks.QueryCallback;
+import org.jbox2d.callbacks.RayCastCallback;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.Fixture;
+
+import tessellation.IceSheet;
+
+/**
+ * Query and ray cast callback that collects every IceSheet body with a fixture
+ * whose bounding box overlaps the query box, or which is crossed by the ray.
+ * Results accumulate over queries until clear().
+ * @author Jack
+ *
+ */
+public class IceSheetBodyQueryCallback implements QueryCallback, RayCastCallback {
+
+  private Set<Body> result;
+
+
+  public IceSheetBodyQueryCallback() {
+    this.result = new HashSet<Body>();
+  }
+
+
+  public Set<Body> getResult() {
+    return this.result;
+  }
+
+
+  @Override
+  public boolean reportFixture(Fixture fixture) {
+    if (fixture.getBody().getUserData() instanceof IceSheet) {
+      this.result.add(fixture.getBody());
+    }
+    return true;
+  }
+
+
+  /**
+   * Collect the body and continue along the whole ray.
+   */
+  @Override
+  public float reportFixture(Fixture fixture, Vec2 point, Vec2 normal,
+      float fraction) {
+    this.reportFixture(fixture);
+    return 1;
+  }
+
+
+  public void clear() {
+    this.result.clear();
+  }
+}
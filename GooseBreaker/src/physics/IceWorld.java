@@ -1,50 +1,352 @@
 package physics;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
+import org.jbox2d.collision.AABB;
+import org.jbox2d.common.MathUtils;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.Fixture;
 import org.jbox2d.dynamics.World;
+import org.jbox2d.dynamics.joints.Joint;
 import org.jbox2d.dynamics.joints.JointEdge;
+import org.jbox2d.dynamics.joints.WeldJoint;
 import org.jbox2d.dynamics.joints.WeldJointDef;
 import org.jbox2d.particle.ParticleDef;
 import org.jbox2d.particle.ParticleGroupDef;
 
 import tessellation.IceChunk;
+import tessellation.IceGraphSnapshot;
 import tessellation.IceSheet;
+import tessellation.Triangle;
+import util.HashUtil;
+import util.SeededRandom;
 import controller.GameController;
 
 public class IceWorld extends World {
+  // About the size of a goose.
+  private static final float FOOD_GRID_CELL_SIZE = 5.0f;
   private AgentContactListener agentContactListener;
   private GameController controller;
   private Collection<Body> iceSheetBodies;
   private Collection<Body> agentBodies;
   private boolean hasAnyAgentActed;
   private Collection<Body> foodBodies;
+  // Inactive bodies of eaten food, kept for reuse by the next food to land.
+  private ArrayList<Body> parkedFoodBodies;
+  private FoodGrid foodGrid;
+  // Null to have agents look for food themselves.
+  private FoodFlowField foodFlowField;
   private Map<Body, Collection<Fixture>> bumpedChunks;
   private ArrayList<IceChunk> pendingDelete;
-  private ArrayList<Fixture> fixturesPendingDelete;
+  // Null to break ice on the simulation thread.
+  private FractureWorker fractureWorker;
+  private boolean isFracturePipelined;
+  // Jobs whose results haven't been applied to their bodies yet.
+  private ArrayList<FractureJob> fractureJobs;
+  private Set<IceChunk> fractureFixtureChunks;
+  // Null to decide for every agent on the simulation thread.
+  private AgentWorker agentWorker;
+  // The agents deciding this step, and what they decided.
+  private ArrayList<Body> decidingAgentBodies;
+  private float[] decidingAgentDts;
+  private boolean[] agentDecisions;
+  private ArrayList<Agent> actingAgents;
+  private IceGraphSnapshot lastGraphSnapshot;
+  private Map<Body, Integer> snapshotSheetIndex;
+  private Vec2 snapshotVec;
+  // Scratch space for taking and restoring snapshots.
+  private ArrayList<IceSheet> snapshotSheets;
+  private ArrayList<Body> snapshotSheetBodies;
+  private Map<IceSheet, Body> oldSheetBodies;
+  private Map<FoodPiece, Body> oldFoodBodies;
+  private Map<Agent, Body> oldAgentBodies;
+  private PointQueryCallback pointQuery;
+  private IceSheetBodyQueryCallback sheetBodyQuery;
+  private AABB shatterAABB;
+  private Vec2 shatterCenter;
+  private ArrayList<Body> shatterBodies;
+  private ArrayList<IceChunk> shatterWork;
+  private Vec2[] cutStarts;
+  private Vec2[] cutEnds;
+  private Vec2[] localCutStarts;
+  private Vec2[] localCutEnds;
+  private SeededRandom random;
+  private SeededRandom effectsRandom;
+  private long stepCount;
+  // Agents outside lodFocus only step every lodStride'th step.
+  private int lodStride;
+  // Agents only perceive the world every aiDecimation'th step.
+  private int aiDecimation;
+  // Time spent in the last step(), for profiling.
+  private long lastAgentStepNanos;
+  private long lastFoodGridNanos;
+  private long lastFlowFieldNanos;
+  private long lastPhysicsStepNanos;
+  private AABB lodFocus;
+  private boolean hasLodFocus;
+  private long stateHash;
+  // Per-body hashes from the last updateStateHash(): sheets, then food, then
+  // agents, along with the extra state each was hashed with.
+  private Body[] hashedBodies;
+  private long[] bodyStateHashes;
+  private long[] bodyStateExtras;
+  private int numHashedBodies;
+  private int numHashedSheets;
+  private int numHashedFood;
   
+  /**
+   * Create a world seeded from the current time.
+   */
   public IceWorld() {
+    this(System.nanoTime());
+  }
+  
+  /**
+   * Create a world whose runs are reproducible: the same seed and the same
+   * sequence of inputs always produce the same simulation.
+   * @param seed
+   */
+  public IceWorld(long seed) {
     super(new Vec2());  // no gravity!
     agentContactListener = new AgentContactListener();
     this.setContactListener(agentContactListener);
-    this.iceSheetBodies = new HashSet<Body>();
-    this.agentBodies = new HashSet<Body>();
-    this.foodBodies = new HashSet<Body>();
-    this.bumpedChunks = new HashMap<Body, Collection<Fixture>>();
+    // Linked collections, so that bodies are always visited in the order
+    // they were added, regardless of their identity hash codes.
+    this.iceSheetBodies = new LinkedHashSet<Body>();
+    this.agentBodies = new LinkedHashSet<Body>();
+    this.foodBodies = new LinkedHashSet<Body>();
+    this.parkedFoodBodies = new ArrayList<Body>();
+    this.foodGrid = new FoodGrid(IceWorld.FOOD_GRID_CELL_SIZE);
+    this.bumpedChunks = new LinkedHashMap<Body, Collection<Fixture>>();
     this.pendingDelete = new ArrayList<IceChunk>();
-    this.fixturesPendingDelete = new ArrayList<Fixture>();
+    this.fractureJobs = new ArrayList<FractureJob>();
+    this.fractureFixtureChunks = new HashSet<IceChunk>();
+    this.decidingAgentBodies = new ArrayList<Body>();
+    this.decidingAgentDts = new float[0];
+    this.agentDecisions = new boolean[0];
+    this.actingAgents = new ArrayList<Agent>();
     this.hasAnyAgentActed = false;
+    this.snapshotSheetIndex = new IdentityHashMap<Body, Integer>();
+    this.snapshotVec = new Vec2();
+    this.snapshotSheets = new ArrayList<IceSheet>();
+    this.snapshotSheetBodies = new ArrayList<Body>();
+    this.oldSheetBodies = new LinkedHashMap<IceSheet, Body>();
+    this.oldFoodBodies = new LinkedHashMap<FoodPiece, Body>();
+    this.oldAgentBodies = new LinkedHashMap<Agent, Body>();
+    this.pointQuery = new PointQueryCallback();
+    this.sheetBodyQuery = new IceSheetBodyQueryCallback();
+    this.shatterAABB = new AABB();
+    this.shatterCenter = new Vec2();
+    this.shatterBodies = new ArrayList<Body>();
+    this.shatterWork = new ArrayList<IceChunk>();
+    this.cutStarts = new Vec2[1];
+    this.cutEnds = new Vec2[1];
+    this.localCutStarts = new Vec2[0];
+    this.localCutEnds = new Vec2[0];
+    this.stepCount = 0;
+    this.lodStride = 1;
+    this.aiDecimation = 1;
+    this.lodFocus = new AABB();
+    this.hasLodFocus = false;
+    this.hashedBodies = new Body[16];
+    this.bodyStateHashes = new long[16];
+    this.bodyStateExtras = new long[16];
+    this.setSeed(seed);
+  }
+  
+  /**
+   * Reseed the world's random number generators.
+   * @param seed
+   */
+  public void setSeed(long seed) {
+    this.random = new SeededRandom(seed);
+    this.effectsRandom = this.random.split();
+  }
+  
+  /**
+   * Get the random number generator which everything affecting the
+   * simulation (e.g. ice fracture) should draw from.
+   * @return
+   */
+  public SeededRandom getRandom() {
+    return this.random;
+  }
+  
+  /**
+   * Get a random number generator for purely cosmetic effects (particles,
+   * sounds). It is seeded along with getRandom(), but kept separate so that
+   * drawing more or fewer effects never changes the simulation.
+   * @return
+   */
+  public SeededRandom getEffectsRandom() {
+    return this.effectsRandom;
+  }
+  
+  /**
+   * Break ice on the given worker's threads, or on the simulation thread if
+   * null (the default). step() still decides which bumped chunks to split or
+   * remove, but the chunk graph work for each bumped sheet runs in parallel.
+   * 
+   * If pipelined, the graph work runs while the game carries on, and the
+   * bodies are only updated at the start of the next step; until then the
+   * bumped bodies are inactive, just as they briefly are without a worker.
+   * Otherwise step() waits for the work, and the results are exactly the
+   * same as without a worker. Either way, runs are reproducible.
+   * @param worker
+   * @param isPipelined
+   */
+  public void setFractureWorker(FractureWorker worker, boolean isPipelined) {
+    this.finishFractures();
+    this.fractureWorker = worker;
+    this.isFracturePipelined = isPipelined;
+  }
+  
+  
+  /**
+   * Same as setFractureWorker(worker, true).
+   * @param worker
+   */
+  public void setFractureWorker(FractureWorker worker) {
+    this.setFractureWorker(worker, true);
+  }
+  
+  
+  public FractureWorker getFractureWorker() {
+    return this.fractureWorker;
+  }
+  
+  
+  /**
+   * Have the agents decide what to do in parallel on the worker's threads
+   * (see Agent.decide()). Their decisions are still applied one at a time on
+   * the simulation thread, so the results are exactly the same as without a
+   * worker.
+   * @param worker null to decide on the simulation thread.
+   */
+  public void setAgentWorker(AgentWorker worker) {
+    this.agentWorker = worker;
+  }
+  
+  
+  public AgentWorker getAgentWorker() {
+    return this.agentWorker;
+  }
+  
+  
+  /**
+   * Set the simulation level of detail. Agents outside the focus region (see
+   * setLodFocus()) only think every stride'th step, and then step once for
+   * all the time they missed, so they spend less time in the AI but still
+   * keep up with the world. The agents' bodies and the ice are still
+   * simulated every step. A stride of 1 (the default) steps every agent
+   * every step.
+   * @param stride
+   */
+  public void setLodStride(int stride) {
+    this.lodStride = Math.max(1, stride);
+  }
+  
+  
+  public int getLodStride() {
+    return this.lodStride;
+  }
+  
+  
+  /**
+   * Have agents only perceive the world (e.g. look for food) every interval'th
+   * step, and steer by what they last saw in between. Agents still act every
+   * step. Their turns are staggered, so each step only 1/interval of them
+   * perceive. Agents outside the LOD focus perceive on every step they get
+   * (see setLodStride()). An interval of 1 (the default) perceives every step.
+   * Perceiving isn't constant-time even with a FoodFlowField: the food a path
+   * leads to has to be found and checked against the goose's vision, and
+   * geese which can't see it search the FoodGrid instead.
+   * @param interval
+   */
+  public void setAiDecimation(int interval) {
+    this.aiDecimation = Math.max(1, interval);
+  }
+  
+  
+  public int getAiDecimation() {
+    return this.aiDecimation;
+  }
+  
+  
+  /**
+   * Get how long the last step() spent on agents deciding and acting.
+   * @return
+   */
+  public long getLastAgentStepNanos() {
+    return this.lastAgentStepNanos;
+  }
+  
+  
+  /**
+   * Get how long the last step() spent bringing the FoodGrid up to date.
+   * @return
+   */
+  public long getLastFoodGridNanos() {
+    return this.lastFoodGridNanos;
   }
   
+  
+  /**
+   * Get how long the last step() spent bringing the FoodFlowField up to date,
+   * if there is one.
+   * @return
+   */
+  public long getLastFlowFieldNanos() {
+    return this.lastFlowFieldNanos;
+  }
+  
+  
+  /**
+   * Get how long the last step() spent on everything but agents and the
+   * indices they use: the physics solver, breaking ice, eating food, and
+   * hashing.
+   * @return
+   */
+  public long getLastPhysicsStepNanos() {
+    return this.lastPhysicsStepNanos;
+  }
+  
+  
+  /**
+   * Set the region of the world (e.g. around what's on screen) which is
+   * simulated in full detail. Until this is called, everything is.
+   * @param focus
+   */
+  public void setLodFocus(AABB focus) {
+    this.lodFocus.set(focus);
+    this.hasLodFocus = true;
+  }
+  
+  
+  /**
+   * True iff the point is simulated in full detail: LOD is off, or the point
+   * is in the focus region.
+   * @param pt World point.
+   * @return
+   */
+  public boolean isInLodFocus(Vec2 pt) {
+    return this.lodStride == 1 || !this.hasLodFocus
+        || (pt.x >= this.lodFocus.lowerBound.x && pt.x <= this.lodFocus.upperBound.x
+            && pt.y >= this.lodFocus.lowerBound.y && pt.y <= this.lodFocus.upperBound.y);
+  }
+  
+  
   public void setController(GameController controller) {
     this.controller = controller;
   }
@@ -81,6 +383,7 @@ public class IceWorld extends World {
   public Body addAgent(Agent agent) {
     Body b = agent.addToWorldAsBody(this);
     b.setUserData(agent);
+    agent.setBody(b);
     agentBodies.add(b);
     return b;
   }
@@ -104,18 +407,50 @@ public class IceWorld extends World {
   
   /**
    * Add a Body for the FoodPiece to this world, and also add the new Body to
-   * the list of Bodies for FoodPieces.
+   * the list of Bodies for FoodPieces. The body of previously removed food is
+   * reused if there is one.
    * @param food
    * @return
    */
   public Body addFoodPieceBody(FoodPiece food) {
-    Body b = food.attachToWorldAsBody(this);
+    Body b;
+    if (this.parkedFoodBodies.isEmpty()) {
+      b = food.attachToWorldAsBody(this);
+    } else {
+      b = this.parkedFoodBodies.remove(this.parkedFoodBodies.size() - 1);
+      food.reattachBody(b);
+      b.setActive(true);
+      b.setAwake(true);
+    }
     b.setUserData(food);
     foodBodies.add(b);
+    this.foodGrid.update(b);
     return b;
   }
   
   
+  /**
+   * Remove a food Body from the world. Rather than being destroyed, the body
+   * is deactivated (so it takes no part in collisions and leaves the
+   * broadphase) and parked for reuse by addFoodPieceBody().
+   * @param foodBody
+   */
+  public void removeFoodPieceBody(Body foodBody) {
+    for (JointEdge j = foodBody.getJointList(); j != null;) {
+      Joint joint = j.joint;
+      j = j.next;
+      this.destroyJoint(joint);
+    }
+    foodBody.setActive(false);
+    this.snapshotVec.setZero();
+    foodBody.setLinearVelocity(this.snapshotVec);
+    foodBody.setAngularVelocity(0);
+    this.foodBodies.remove(foodBody);
+    this.foodGrid.remove(foodBody);
+    this.parkedFoodBodies.add(foodBody);
+  }
+  
+  
   /**
    * Helper method which checks if a food body is sitting on top of ice. If it
    * is, the food becomes welded to the ice.
@@ -126,16 +461,13 @@ public class IceWorld extends World {
     Vec2 worldPos = foodBody.getPosition();
     for (Body iceBody : this.getIceSheetBodies()) {
       IceSheet sheet = (IceSheet) iceBody.getUserData();
+      if (sheet.isHeldForBackgroundUpdate()) {
+        continue;
+      }
       for (IceChunk chunk : sheet.getIceChunks()) {
         if (chunk.getTriangle().testPoint(iceBody.getTransform(), worldPos)) {
-          WeldJointDef jd = new WeldJointDef();
-          jd.bodyA = foodBody;
-          jd.bodyB = iceBody;
-          jd.referenceAngle = iceBody.getAngle() - foodBody.getAngle();
-          jd.localAnchorA.set(0, 0);
-          jd.localAnchorB.set(iceBody.getLocalPoint(worldPos));
-          jd.collideConnected = false;
-          this.createJoint(jd);
+          this.weldFoodToIce(foodBody, iceBody, iceBody.getLocalPoint(worldPos),
+              iceBody.getAngle() - foodBody.getAngle());
           return;
         }
       }
@@ -143,6 +475,26 @@ public class IceWorld extends World {
   }
   
   
+  /**
+   * Helper method which welds the center of a food body to the given point
+   * (in local coordinates) on an ice body.
+   * @param foodBody
+   * @param iceBody
+   * @param localAnchor
+   * @param referenceAngle
+   */
+  private void weldFoodToIce(Body foodBody, Body iceBody, Vec2 localAnchor, float referenceAngle) {
+    WeldJointDef jd = new WeldJointDef();
+    jd.bodyA = foodBody;
+    jd.bodyB = iceBody;
+    jd.referenceAngle = referenceAngle;
+    jd.localAnchorA.set(0, 0);
+    jd.localAnchorB.set(localAnchor);
+    jd.collideConnected = false;
+    this.createJoint(jd);
+  }
+  
+  
   /**
    * Same as addFoodPieceBody, but place the body at the given position and
    * weld it to the ice at that position (if any).
@@ -153,10 +505,52 @@ public class IceWorld extends World {
   public Body addFoodPieceBodyAt(FoodPiece food, Vec2 worldPos, float angle) {
     Body b = addFoodPieceBody(food);
     b.setTransform(worldPos, angle);
+    this.foodGrid.update(b);
     maybeWeldFoodToIce(b);
     return b;
   }
 
+  /**
+   * Get the spatial index of the food bodies, for finding food near a point.
+   * It's up to date as of the last step(), and with any food added since.
+   * @return
+   */
+  public FoodGrid getFoodGrid() {
+    return this.foodGrid;
+  }
+  
+  
+  /**
+   * Share a flow field towards the food between the agents, kept up to date
+   * by step(). Geese follow it instead of looking for food themselves, except
+   * right next to food or outside the field.
+   * @param field null to have agents look for food themselves.
+   */
+  public void setFoodFlowField(FoodFlowField field) {
+    this.foodFlowField = field;
+    if (field != null) {
+      field.update(this.iceSheetBodies, this.foodBodies);
+    }
+  }
+  
+  
+  public FoodFlowField getFoodFlowField() {
+    return this.foodFlowField;
+  }
+  
+  
+  /**
+   * Helper method. Move every food body to the grid cell where it is now.
+   * ~O(number of food bodies), but only bodies which changed cells do any
+   * real work.
+   */
+  private void updateFoodGrid() {
+    for (Body b : this.foodBodies) {
+      this.foodGrid.update(b);
+    }
+  }
+  
+  
   /**
    * Get all the Bodies representing pieces of food in the world.
    * @return
@@ -199,77 +593,114 @@ public class IceWorld extends World {
     // the updated bodies and add to the list of chunks.
     agentContactListener.bumpedChunks.clear();
     
-    // Step two: for each body, split everything we can, and collect all the
-    // chunks we plan to delete.
+    // Step two: for each body, decide which chunks to split and which to
+    // delete, and leave the chunk graph work to a FractureJob. Each job draws
+    // from its own generator split off from the world's, so the results don't
+    // depend on which thread runs it, or when.
     for (Entry<Body, Collection<Fixture>> e : bumpedChunks.entrySet()) {
       Body chunkBody = e.getKey();
       IceSheet sheet = (IceSheet) chunkBody.getUserData();
-      this.pendingDelete.clear();
-      this.fixturesPendingDelete.clear();
+      FractureJob job = new FractureJob(chunkBody, this.random.split());
       for (Fixture chunkFixture : e.getValue()) {
         IceChunk chunk = (IceChunk) chunkFixture.getUserData();
         if (chunk.getTriangle().getArea() < sheet.getMaxArea()) {
-          pendingDelete.add(chunk);
-          fixturesPendingDelete.add(chunkFixture);
+          job.addRemoveChunk(chunk);
           if (this.controller != null) {
             this.controller.onAgentBreaksIce(chunkBody.getWorldPoint(chunk.getTriangle().m_centroid));
           }
         } else {
-          this.updateIceSheetBodyWithBinaryDivision(chunkBody, chunkFixture);
+          job.addSplitChunk(chunk);
         }
       }
-      // Step two part two: if we want to delete chunks for the body, delete
-      // them all at once and readd the body. Otherwise, just readd the body.
-      if (pendingDelete.isEmpty()) {
-        chunkBody.setActive(true);
-        super.step(0, 0, 0);
-      } else {
-        ArrayList<IceChunk> prevPerimChunks = sheet.getBareIceChunksCopy();
-        ArrayList<IceSheet> newSheets = sheet.removeIceChunks(pendingDelete);
-        if (newSheets.isEmpty()) {
-          this.destroyBody(chunkBody);
-          this.iceSheetBodies.remove(chunkBody);
-          super.step(0, 0, 0);
-        } else if (newSheets.size() == 1 && newSheets.get(0) == sheet) {
-          for (Fixture f : fixturesPendingDelete) {
-            chunkBody.destroyFixture(f);
-          }
-          for (IceChunk newlyBare : sheet.getBareIceChunks()) {
-            if (prevPerimChunks.contains(newlyBare)) {
-              continue;
-            }
-            chunkBody.createFixture(newlyBare.getTriangle(), IceSheet.DENSITY).setUserData(newlyBare);
-          }
-          
-          if (chunkBody.getFixtureList() == null) {
-            this.destroyBody(chunkBody);
-            this.iceSheetBodies.remove(chunkBody);
-          } else {
-            chunkBody.setActive(true);
-          }
-          super.step(0, 0, 0);
-        } else {
-          this.removeBodyToCreateNewSheets(chunkBody, newSheets);
-        }
+      this.fractureJobs.add(job);
+    }
+    
+    // Step three: run the jobs (in parallel, with a worker), and update the
+    // bodies to match.
+    if (this.fractureWorker == null) {
+      for (FractureJob job : this.fractureJobs) {
+        job.run();
+      }
+      this.finishFractures();
+    } else if (!this.fractureJobs.isEmpty()) {
+      this.fractureWorker.submit(this.fractureJobs);
+      if (!this.isFracturePipelined) {
+        this.finishFractures();
       }
     }
   }
   
   
-  private void updateIceSheetBodyWithBinaryDivision(Body chunkBody,
-      Fixture chunkFixture) {
-    IceSheet sheet = (IceSheet) chunkBody.getUserData();
-    IceChunk chunk = (IceChunk) chunkFixture.getUserData();
-    ArrayList<IceChunk> newChunks = sheet.randomBinaryDivision(chunk);
-    chunkBody.destroyFixture(chunkFixture);
-    for (IceChunk newChunk : newChunks) {
-      if (newChunk.hasBareEdge()) {
-        chunkBody.createFixture(newChunk.getTriangle(), IceSheet.DENSITY).setUserData(newChunk);
+  /**
+   * Apply the fracture jobs which are still pending to their bodies, waiting
+   * for any which are still running. With a pipelined worker, these are the
+   * jobs submitted during the last step. step() does this first thing;
+   * anything else which needs all the ice up to date (snapshots, shattering)
+   * calls it too. Does nothing if there are no jobs.
+   */
+  public void finishFractures() {
+    if (this.fractureJobs.isEmpty()) {
+      return;
+    }
+    // Wait for all of them before touching any sheet: welding food to ice
+    // reads the other sheets.
+    for (FractureJob job : this.fractureJobs) {
+      job.await();
+    }
+    for (FractureJob job : this.fractureJobs) {
+      job.getSheet().endBackgroundUpdate();
+    }
+    for (FractureJob job : this.fractureJobs) {
+      this.applyFracture(job);
+    }
+    this.fractureJobs.clear();
+    super.step(0, 0, 0);
+  }
+  
+  
+  /**
+   * Helper for finishFractures(). Update a body to match its sheet after a
+   * fracture job: replace it if the sheet broke apart, otherwise only swap
+   * the fixtures of chunks which were split or removed for fixtures of the
+   * new bare chunks.
+   * @param job
+   */
+  private void applyFracture(FractureJob job) {
+    Body b = job.getBody();
+    IceSheet sheet = job.getSheet();
+    ArrayList<IceSheet> newSheets = job.getNewSheets();
+    if (newSheets != null) {
+      if (newSheets.isEmpty()) {
+        this.destroyBody(b);
+        this.iceSheetBodies.remove(b);
+        return;
+      } else if (newSheets.size() > 1 || newSheets.get(0) != sheet) {
+        this.removeBodyToCreateNewSheets(b, newSheets);
+        return;
       }
     }
-    //super.step(0, 0, 0);
+    Set<IceChunk> bareChunks = sheet.getBareIceChunks();
+    this.fractureFixtureChunks.clear();
+    for (Fixture f = b.getFixtureList(); f != null;) {
+      Fixture next = f.getNext();
+      IceChunk chunk = (IceChunk) f.getUserData();
+      if (bareChunks.contains(chunk)) {
+        this.fractureFixtureChunks.add(chunk);
+      } else {
+        b.destroyFixture(f);
+      }
+      f = next;
+    }
+    for (IceChunk chunk : bareChunks) {
+      if (!this.fractureFixtureChunks.contains(chunk)) {
+        b.createFixture(chunk.getTriangle(), IceSheet.DENSITY).setUserData(chunk);
+      }
+    }
+    this.fractureFixtureChunks.clear();
+    b.setActive(true);
   }
-
+  
+  
   /**
    * Same as above, but removes pieces of food from the world when they are
    * bumped.
@@ -280,9 +711,7 @@ public class IceWorld extends World {
       FoodPiece food = (FoodPiece) foodBody.getUserData();
       Body agentBody = foodAgent.getValue();
       Agent agent = (Agent) agentBody.getUserData();
-      this.destroyBody(foodBody);
-      this.foodBodies.remove(foodBody);
-      super.step(0, 0, 0);
+      this.removeFoodPieceBody(foodBody);
       
       if (this.controller != null) {
         this.controller.onAgentEatsFood(agent, food);
@@ -293,17 +722,57 @@ public class IceWorld extends World {
   
   
   private boolean stepAllAgents(float dt) {
-    boolean hasActed = false;
+    int n = this.agentBodies.size();
+    if (this.decidingAgentDts.length < n) {
+      this.decidingAgentDts = new float[2 * n];
+      this.agentDecisions = new boolean[2 * n];
+    }
+    this.decidingAgentBodies.clear();
+    
+    // Offset each agent's turn by its index, so the agents outside the focus
+    // don't all think on the same step, nor all perceive on the same step.
+    long turn = this.stepCount;
     for (Body b : this.agentBodies) {
       Agent agent = (Agent) b.getUserData();
-      if (agent.step(dt, b)) {
-        hasActed = true;
-        if (this.controller != null) {
-          this.controller.onAgentActs(agent);
-        }
+      float agentDt = dt + agent.getDeferredTime();
+      ++turn;
+      boolean isInFocus = this.isInLodFocus(b.getPosition());
+      if (!isInFocus && turn % this.lodStride != 0) {
+        agent.setDeferredTime(agentDt);
+        continue;
       }
+      agent.setDeferredTime(0);
+      agent.setPerceptionDue(!isInFocus || turn % this.aiDecimation == 0);
+      this.decidingAgentDts[this.decidingAgentBodies.size()] = agentDt;
+      this.decidingAgentBodies.add(b);
     }
-    return hasActed;
+    ++this.stepCount;
+    
+    // Every agent decides against the same world, then they all act.
+    int numDeciding = this.decidingAgentBodies.size();
+    if (this.agentWorker != null) {
+      this.agentWorker.decideAll(this.decidingAgentBodies, this.decidingAgentDts,
+          this.agentDecisions, numDeciding);
+    } else {
+      for (int i = 0; i < numDeciding; ++i) {
+        Body b = this.decidingAgentBodies.get(i);
+        this.agentDecisions[i] = ((Agent) b.getUserData()).decide(this.decidingAgentDts[i], b);
+      }
+    }
+    this.actingAgents.clear();
+    for (int i = 0; i < numDeciding; ++i) {
+      if (this.agentDecisions[i]) {
+        Body b = this.decidingAgentBodies.get(i);
+        Agent agent = (Agent) b.getUserData();
+        agent.apply(this.decidingAgentDts[i], b);
+        this.actingAgents.add(agent);
+      }
+    }
+    
+    if (this.controller != null && !this.actingAgents.isEmpty()) {
+      this.controller.onAgentsAct(this.actingAgents);
+    }
+    return !this.actingAgents.isEmpty();
   }
   
   
@@ -311,15 +780,159 @@ public class IceWorld extends World {
    * The world step pulverizes any IceChunk/FoodPiece which collided with an
    * Agent since the last call to step(), and calls step() for each Body
    * belonging to an Agent in addition to the normal physics solver super.step()
+   * With a pipelined fracture worker, the bumped ice is only pulverized at the
+   * start of the next step.
    */
   @Override
   public void step(float dt, int velocityIterations, int positionIterations) {
+    long startNanos = System.nanoTime();
+    finishFractures();
     super.step(dt, velocityIterations, positionIterations);
     
     processBumpedIceChunks();
     processBumpedFoodPieces();
     
+    long gridStartNanos = System.nanoTime();
+    updateFoodGrid();
+    long fieldStartNanos = System.nanoTime();
+    if (this.foodFlowField != null) {
+      this.foodFlowField.update(this.iceSheetBodies, this.foodBodies);
+    }
+    long agentStartNanos = System.nanoTime();
     this.hasAnyAgentActed = stepAllAgents(dt);
+    long agentEndNanos = System.nanoTime();
+    this.lastFoodGridNanos = fieldStartNanos - gridStartNanos;
+    this.lastFlowFieldNanos = agentStartNanos - fieldStartNanos;
+    this.lastAgentStepNanos = agentEndNanos - agentStartNanos;
+    
+    updateStateHash(false);
+    this.lastPhysicsStepNanos = System.nanoTime() - startNanos
+        - (agentEndNanos - gridStartNanos);
+  }
+  
+  
+  /**
+   * Get a hash of the whole simulation state (bodies, ice chunk graphs, agent
+   * state and random number generators) as of the last step() or
+   * restoreSnapshot(). Two runs from the same seed with the same inputs have
+   * the same hash after every step, so comparing hashes is enough to detect
+   * desyncs. Use WorldStateDiff to find out what differs.
+   * O(1).
+   * @return
+   */
+  public long getStateHash() {
+    return this.stateHash;
+  }
+  
+  
+  /**
+   * Recompute getStateHash() from scratch, rehashing every body. Call this
+   * after moving bodies from outside step(), since a body moved while asleep
+   * would otherwise keep its old hash.
+   * O(number of bodies).
+   */
+  public void updateStateHash() {
+    this.updateStateHash(true);
+  }
+  
+  
+  /**
+   * Helper method. Recompute getStateHash(). Unless isFull, only bodies which
+   * are awake, are new to their place in the order, or whose extra state has
+   * changed get their kinematics rehashed; sleeping bodies can't move, so the
+   * rest keep their hashes from last time. Each sheet's chunk graph is only
+   * rehashed when it has changed (see IceSheet.getGraphHash()). The per-body
+   * hashes are still folded together in order, one long each, for
+   * WorldStateDiff to compare.
+   * @param isFull
+   */
+  private void updateStateHash(boolean isFull) {
+    int n = this.iceSheetBodies.size() + this.foodBodies.size() + this.agentBodies.size();
+    if (this.hashedBodies.length < n) {
+      this.hashedBodies = Arrays.copyOf(this.hashedBodies, 2 * n);
+      this.bodyStateHashes = Arrays.copyOf(this.bodyStateHashes, 2 * n);
+      this.bodyStateExtras = Arrays.copyOf(this.bodyStateExtras, 2 * n);
+    }
+    int numPreviouslyHashed = this.numHashedBodies;
+    this.numHashedBodies = 0;
+    for (Body b : this.iceSheetBodies) {
+      IceSheet sheet = (IceSheet) b.getUserData();
+      putBodyStateHash(b, sheet.getGraphHash(), isFull);
+    }
+    this.numHashedSheets = this.numHashedBodies;
+    for (Body b : this.foodBodies) {
+      putBodyStateHash(b, b.getJointList() != null ? 1 : 0, isFull);
+    }
+    this.numHashedFood = this.numHashedBodies - this.numHashedSheets;
+    for (Body b : this.agentBodies) {
+      Agent agent = (Agent) b.getUserData();
+      putBodyStateHash(b, HashUtil.combine(agent.getStateHash(), agent.getDeferredTime()), isFull);
+    }
+    // Forget bodies which are gone, so they can't be mistaken for new ones.
+    if (numPreviouslyHashed > this.numHashedBodies) {
+      Arrays.fill(this.hashedBodies, this.numHashedBodies, numPreviouslyHashed, null);
+    }
+    
+    long h = HashUtil.combine(this.random.getState(), this.effectsRandom.getState());
+    h = HashUtil.combine(h, this.stepCount);
+    h = HashUtil.combine(h, this.numHashedSheets);
+    h = HashUtil.combine(h, this.numHashedFood);
+    for (int i = 0; i < this.numHashedBodies; ++i) {
+      h = HashUtil.combine(h, this.bodyStateHashes[i]);
+    }
+    this.stateHash = h;
+  }
+  
+  
+  /**
+   * Helper for updateStateHash(). Hash a body's transform and velocity along
+   * with extra state belonging to its user data, unless the body was hashed
+   * in the same place last time with the same extra state and hasn't been
+   * awake since.
+   * @param b
+   * @param extra
+   * @param isFull Rehash the body regardless.
+   */
+  private void putBodyStateHash(Body b, long extra, boolean isFull) {
+    int i = this.numHashedBodies++;
+    if (!isFull && this.hashedBodies[i] == b && this.bodyStateExtras[i] == extra
+        && !b.isAwake()) {
+      return;
+    }
+    long h = HashUtil.combine(extra, b.getPosition().x);
+    h = HashUtil.combine(h, b.getPosition().y);
+    h = HashUtil.combine(h, b.getAngle());
+    h = HashUtil.combine(h, b.getLinearVelocity().x);
+    h = HashUtil.combine(h, b.getLinearVelocity().y);
+    h = HashUtil.combine(h, b.getAngularVelocity());
+    this.hashedBodies[i] = b;
+    this.bodyStateHashes[i] = h;
+    this.bodyStateExtras[i] = extra;
+  }
+  
+  
+  int getHashedSheetCount() {
+    return this.numHashedSheets;
+  }
+  
+  
+  int getHashedFoodCount() {
+    return this.numHashedFood;
+  }
+  
+  
+  int getHashedBodyCount() {
+    return this.numHashedBodies;
+  }
+  
+  
+  Body getHashedBody(int i) {
+    return this.hashedBodies[i];
+  }
+  
+  
+  long getBodyStateHash(int i) {
+    return this.bodyStateHashes[i];
   }
   
 
@@ -372,22 +985,30 @@ public class IceWorld extends World {
   /**
    * Given a world point, find a Fixture that contains the world point. If there
    * is more than one such fixture, return one of them arbitrarily. If there is
-   * no such fixture, return null. Just a dumb linear search. testPoint() seems
-   * fast enough that this doesn't really slow things down.
+   * no such fixture, return null. Only fixtures whose bounding boxes contain
+   * the point (found with the broadphase) are tested exactly.
    * 
    * @param pt
    *          World point to query for a Fixture
    * @return A Fixture containing the point, or null if there are none that do.
    */
   public Fixture getFixtureAt(Vec2 pt) {
-    for (Body b = this.getBodyList(); b != null; b = b.getNext()) {
-      for (Fixture f = b.getFixtureList(); f != null; f = f.getNext()) {
-        if (f.testPoint(pt)) {
-          return f;
-        }
-      }
+    return this.pointQuery.query(this, pt);
+  }
+  
+  
+  /**
+   * Same as getFixtureAt() for each of the first n points, in one call.
+   * ~O(n log m) for m fixtures, with no allocation.
+   * @param pts World points to query.
+   * @param n Number of points to query.
+   * @param results Receives the Fixture containing pts[i] (or null) in
+   *          results[i].
+   */
+  public void getFixturesAt(Vec2[] pts, int n, Fixture[] results) {
+    for (int i = 0; i < n; ++i) {
+      results[i] = this.pointQuery.query(this, pts[i]);
     }
-    return null;
   }
 
   public Body addFoodPieceBodyAt(FoodPiece food, Vec2 pos) {
@@ -396,42 +1017,492 @@ public class IceWorld extends World {
   
   
   /**
-   * Helper method for removing at the given position an IceChunk which is part
-   * of a super chunk that hasn't been fully resolved yet.
-   * @param f The super chunk's Fixture
-   * @param pos Position in world coordinates.
+   * Break all the ice inside a circle at once, e.g. for heavy impacts or
+   * explosions. Chunks entirely inside the circle are removed; chunks on the
+   * boundary are split down to maxArea, and the pieces whose centroids are
+   * inside are removed. Each affected sheet has all its chunks removed in one
+   * batch, and its fixtures rebuilt once.
+   * @param center World point.
+   * @param radius
+   * @param maxArea Size to split boundary chunks down to.
+   * @return The number of chunks removed.
+   */
+  public int shatterRadius(Vec2 center, float radius, float maxArea) {
+    this.finishFractures();
+    this.shatterAABB.lowerBound.set(center.x - radius, center.y - radius);
+    this.shatterAABB.upperBound.set(center.x + radius, center.y + radius);
+    this.sheetBodyQuery.clear();
+    this.queryAABB(this.sheetBodyQuery, this.shatterAABB);
+    // Visit bodies in world order rather than broadphase order, so that
+    // splits draw from the random number generator reproducibly.
+    this.shatterBodies.clear();
+    for (Body b : this.iceSheetBodies) {
+      if (this.sheetBodyQuery.getResult().contains(b)) {
+        this.shatterBodies.add(b);
+      }
+    }
+    this.sheetBodyQuery.clear();
+    
+    int numRemoved = 0;
+    boolean isAnyModified = false;
+    for (Body b : this.shatterBodies) {
+      IceSheet sheet = (IceSheet) b.getUserData();
+      b.getLocalPointToOut(center, this.shatterCenter);
+      this.pendingDelete.clear();
+      this.shatterWork.clear();
+      for (IceChunk chunk : sheet.getIceChunks()) {
+        if (chunk.getTriangle().intersectsCircle(this.shatterCenter, radius)) {
+          this.shatterWork.add(chunk);
+        }
+      }
+      boolean isModified = false;
+      while (!this.shatterWork.isEmpty()) {
+        IceChunk chunk = this.shatterWork.remove(this.shatterWork.size() - 1);
+        Triangle tri = chunk.getTriangle();
+        if (tri.isInsideCircle(this.shatterCenter, radius)) {
+          this.pendingDelete.add(chunk);
+        } else if (tri.getArea() < maxArea) {
+          if (MathUtils.distanceSquared(tri.m_centroid, this.shatterCenter) <= radius * radius) {
+            this.pendingDelete.add(chunk);
+          }
+        } else {
+          isModified = true;
+          for (IceChunk piece : sheet.randomBinaryDivision(chunk, this.random)) {
+            if (piece.getTriangle().intersectsCircle(this.shatterCenter, radius)) {
+              this.shatterWork.add(piece);
+            }
+          }
+        }
+      }
+      if (!this.pendingDelete.isEmpty() || isModified) {
+        numRemoved += this.pendingDelete.size();
+        isAnyModified = true;
+        this.rebuildIceSheetBody(b, this.pendingDelete);
+      }
+    }
+    this.pendingDelete.clear();
+    this.shatterBodies.clear();
+    if (isAnyModified) {
+      super.step(0, 0, 0);
+    }
+    return numRemoved;
+  }
+  
+  
+  /**
+   * Helper method. Remove the chunks from the body's sheet in one batch, then
+   * rebuild its fixtures from scratch, or replace it with a body for each
+   * piece the sheet broke into.
+   * @param b
+   * @param removeChunks
    */
-  /*
-  private void resolveAndRemoveIceChunk(Fixture f, Vec2 pos) {
-    Body b = f.getBody();
+  private void rebuildIceSheetBody(Body b, ArrayList<IceChunk> removeChunks) {
     IceSheet sheet = (IceSheet) b.getUserData();
-    IceChunk superChunk = (IceChunk) f.getUserData();
-    IceChunk removeChunk = sheet.resolveIceChunk(superChunk, b.getLocalPoint(pos));
-    if (removeChunk.hasBareEdge()) {
-      this.removeBodyToCreateNewSheets(b, sheet.removeIceChunk(removeChunk));
-    } else {
-      this.updateIceSheetBody(b);
+    if (!removeChunks.isEmpty()) {
+      ArrayList<IceSheet> newSheets = sheet.removeIceChunks(removeChunks);
+      if (newSheets.isEmpty()) {
+        this.destroyBody(b);
+        this.iceSheetBodies.remove(b);
+        return;
+      } else if (newSheets.size() > 1 || newSheets.get(0) != sheet) {
+        this.removeBodyToCreateNewSheets(b, newSheets);
+        return;
+      }
     }
-  }*/
-
-
+    for (Fixture f = b.getFixtureList(); f != null;) {
+      Fixture next = f.getNext();
+      b.destroyFixture(f);
+      f = next;
+    }
+    for (IceChunk chunk : sheet.getBareIceChunks()) {
+      b.createFixture(chunk.getTriangle(), IceSheet.DENSITY).setUserData(chunk);
+    }
+  }
+  
+  
+  /**
+   * Save the state of the world (and its controller) so that it can be put
+   * back later with restoreSnapshot().
+   * @return
+   */
+  public IceWorldSnapshot takeSnapshot() {
+    return this.takeSnapshot(new IceWorldSnapshot());
+  }
+  
+  
   /**
-   * Remove the first n ice chunk encountered on the segment from pt1 to pt2.
+   * Same as takeSnapshot(), but reuse the storage of an old snapshot.
    * 
+   * The ice chunk graphs are copy-on-write: as long as no ice has broken since
+   * the last snapshot, the new snapshot shares the old one's graph, and only
+   * the body state is saved. Otherwise only the graphs of the sheets which
+   * changed are copied.
+   * @param out Snapshot to overwrite.
+   * @return out
+   */
+  public IceWorldSnapshot takeSnapshot(IceWorldSnapshot out) {
+    this.finishFractures();
+    out.clear();
+    ArrayList<IceSheet> sheets = this.snapshotSheets;
+    sheets.clear();
+    for (Body b : this.iceSheetBodies) {
+      sheets.add((IceSheet) b.getUserData());
+    }
+    if (this.lastGraphSnapshot == null || !this.lastGraphSnapshot.isCurrentFor(sheets)) {
+      this.lastGraphSnapshot = IceGraphSnapshot.capture(sheets, this.lastGraphSnapshot);
+    }
+    out.graph = this.lastGraphSnapshot;
+    
+    out.putLong(this.random.getState());
+    out.putLong(this.effectsRandom.getState());
+    out.putBoolean(this.hasAnyAgentActed);
+    out.putLong(this.stepCount);
+    
+    this.snapshotSheetIndex.clear();
+    out.putInt(this.iceSheetBodies.size());
+    for (Body b : this.iceSheetBodies) {
+      this.snapshotSheetIndex.put(b, this.snapshotSheetIndex.size());
+      out.putRef(b.getUserData());
+      putKinematics(out, b);
+    }
+    
+    out.putInt(this.foodBodies.size());
+    for (Body b : this.foodBodies) {
+      out.putRef(b.getUserData());
+      putKinematics(out, b);
+      WeldJoint weld = null;
+      for (JointEdge j = b.getJointList(); j != null; j = j.next) {
+        if (j.joint instanceof WeldJoint && this.snapshotSheetIndex.containsKey(j.other)) {
+          weld = (WeldJoint) j.joint;
+          out.putInt(this.snapshotSheetIndex.get(j.other));
+          break;
+        }
+      }
+      if (weld == null) {
+        out.putInt(-1);
+      } else {
+        out.putFloat(weld.getLocalAnchorB().x);
+        out.putFloat(weld.getLocalAnchorB().y);
+        out.putFloat(weld.getReferenceAngle());
+      }
+    }
+    
+    out.putInt(this.agentBodies.size());
+    for (Body b : this.agentBodies) {
+      Agent agent = (Agent) b.getUserData();
+      out.putRef(agent);
+      putKinematics(out, b);
+      out.putFloat(agent.getDeferredTime());
+      agent.saveState(out);
+    }
+    
+    out.putBoolean(this.controller != null);
+    if (this.controller != null) {
+      this.controller.saveState(out);
+    }
+    return out;
+  }
+  
+  
+  /**
+   * Put the world (and its controller) back into the state saved in the
+   * snapshot. Bodies whose ice sheet hasn't changed are kept and only moved,
+   * and welds which haven't changed are kept, so restoring is cheap unless
+   * lots of ice broke in the meantime. The same snapshot may be restored any
+   * number of times.
+   * @param snapshot
+   */
+  public void restoreSnapshot(IceWorldSnapshot snapshot) {
+    this.finishFractures();
+    snapshot.rewind();
+    this.agentContactListener.clear();
+    IceGraphSnapshot graph = snapshot.getGraph();
+    
+    // Keep the bodies of sheets which haven't changed since the snapshot; the
+    // fixtures of all others are stale.
+    Map<IceSheet, Body> oldSheetBodies = this.oldSheetBodies;
+    oldSheetBodies.clear();
+    for (Body b : this.iceSheetBodies) {
+      oldSheetBodies.put((IceSheet) b.getUserData(), b);
+    }
+    if (!graph.isCurrentFor(oldSheetBodies.keySet())) {
+      for (Body b : this.iceSheetBodies) {
+        IceSheet sheet = (IceSheet) b.getUserData();
+        if (!graph.isSheetCurrent(sheet)) {
+          oldSheetBodies.remove(sheet);
+          this.destroyBody(b);
+        }
+      }
+      graph.restore();
+    }
+    this.lastGraphSnapshot = graph;
+    
+    this.random.setState(snapshot.getLong());
+    this.effectsRandom.setState(snapshot.getLong());
+    this.hasAnyAgentActed = snapshot.getBoolean();
+    this.stepCount = snapshot.getLong();
+    
+    this.iceSheetBodies.clear();
+    ArrayList<Body> sheetBodies = this.snapshotSheetBodies;
+    sheetBodies.clear();
+    int numSheets = snapshot.getInt();
+    for (int i = 0; i < numSheets; ++i) {
+      IceSheet sheet = (IceSheet) snapshot.getRef();
+      Body b = oldSheetBodies.remove(sheet);
+      if (b == null) {
+        b = this.addIceSheet(sheet);
+      } else {
+        this.iceSheetBodies.add(b);
+      }
+      getKinematics(snapshot, b);
+      sheetBodies.add(b);
+    }
+    for (Body b : oldSheetBodies.values()) {
+      this.destroyBody(b);
+    }
+    oldSheetBodies.clear();
+    
+    Map<FoodPiece, Body> oldFoodBodies = this.oldFoodBodies;
+    oldFoodBodies.clear();
+    for (Body b : this.foodBodies) {
+      oldFoodBodies.put((FoodPiece) b.getUserData(), b);
+    }
+    this.foodBodies.clear();
+    int numFood = snapshot.getInt();
+    for (int i = 0; i < numFood; ++i) {
+      FoodPiece food = (FoodPiece) snapshot.getRef();
+      Body b = oldFoodBodies.remove(food);
+      if (b == null) {
+        b = this.addFoodPieceBody(food);
+      } else {
+        this.foodBodies.add(b);
+      }
+      getKinematics(snapshot, b);
+      int weldSheet = snapshot.getInt();
+      Body iceBody = null;
+      float referenceAngle = 0;
+      if (weldSheet >= 0) {
+        iceBody = sheetBodies.get(weldSheet);
+        this.snapshotVec.x = snapshot.getFloat();
+        this.snapshotVec.y = snapshot.getFloat();
+        referenceAngle = snapshot.getFloat();
+      }
+      if (!this.keepOnlyWeld(b, iceBody, this.snapshotVec, referenceAngle) && iceBody != null) {
+        this.weldFoodToIce(b, iceBody, this.snapshotVec, referenceAngle);
+      }
+    }
+    for (Body b : oldFoodBodies.values()) {
+      this.removeFoodPieceBody(b);
+    }
+    oldFoodBodies.clear();
+    updateFoodGrid();
+    
+    Map<Agent, Body> oldAgentBodies = this.oldAgentBodies;
+    oldAgentBodies.clear();
+    for (Body b : this.agentBodies) {
+      oldAgentBodies.put((Agent) b.getUserData(), b);
+    }
+    this.agentBodies.clear();
+    int numAgents = snapshot.getInt();
+    for (int i = 0; i < numAgents; ++i) {
+      Agent agent = (Agent) snapshot.getRef();
+      Body b = oldAgentBodies.remove(agent);
+      if (b == null) {
+        b = this.addAgent(agent);
+      } else {
+        this.agentBodies.add(b);
+      }
+      getKinematics(snapshot, b);
+      agent.setDeferredTime(snapshot.getFloat());
+      agent.restoreState(snapshot);
+    }
+    for (Body b : oldAgentBodies.values()) {
+      this.destroyBody(b);
+    }
+    oldAgentBodies.clear();
+    
+    if (snapshot.getBoolean() && this.controller != null) {
+      this.controller.restoreState(snapshot);
+    }
+    
+    updateStateHash();
+  }
+  
+  
+  /**
+   * Helper for restoreSnapshot(). Destroy the joints of a food body, except
+   * for a weld to the given ice body with exactly the given anchor and
+   * reference angle, if it has one.
+   * @param foodBody
+   * @param iceBody Ice body the food should be welded to, or null.
+   * @param localAnchor Anchor on the ice body.
+   * @param referenceAngle
+   * @return True iff the weld was kept.
+   */
+  private boolean keepOnlyWeld(Body foodBody, Body iceBody, Vec2 localAnchor, float referenceAngle) {
+    boolean isKept = false;
+    for (JointEdge j = foodBody.getJointList(); j != null;) {
+      Joint joint = j.joint;
+      Body other = j.other;
+      j = j.next;
+      if (!isKept && iceBody != null && other == iceBody && joint instanceof WeldJoint) {
+        WeldJoint weld = (WeldJoint) joint;
+        if (weld.getLocalAnchorB().x == localAnchor.x
+            && weld.getLocalAnchorB().y == localAnchor.y
+            && weld.getReferenceAngle() == referenceAngle) {
+          isKept = true;
+          continue;
+        }
+      }
+      this.destroyJoint(joint);
+    }
+    return isKept;
+  }
+  
+  
+  /**
+   * Helper for takeSnapshot(). Save a body's transform and velocity.
+   * @param out
+   * @param b
+   */
+  private static void putKinematics(IceWorldSnapshot out, Body b) {
+    out.putFloat(b.getPosition().x);
+    out.putFloat(b.getPosition().y);
+    out.putFloat(b.getAngle());
+    out.putFloat(b.getLinearVelocity().x);
+    out.putFloat(b.getLinearVelocity().y);
+    out.putFloat(b.getAngularVelocity());
+  }
+  
+  
+  /**
+   * Helper for restoreSnapshot(). The inverse of putKinematics().
+   * @param in
+   * @param b
+   */
+  private void getKinematics(IceWorldSnapshot in, Body b) {
+    this.snapshotVec.x = in.getFloat();
+    this.snapshotVec.y = in.getFloat();
+    b.setTransform(this.snapshotVec, in.getFloat());
+    this.snapshotVec.x = in.getFloat();
+    this.snapshotVec.y = in.getFloat();
+    b.setLinearVelocity(this.snapshotVec);
+    b.setAngularVelocity(in.getFloat());
+    b.setActive(true);
+    b.setAwake(true);
+  }
+  
+  
+  /**
+   * Cut through the ice along the segment from pt1 to pt2, removing every
+   * chunk it crosses. See removeIceChunksThrough(Vec2[], Vec2[], int, float).
    * @param pt1
    * @param pt2
+   * @param maxArea Size to split crossed chunks down to.
+   * @return The number of chunks removed.
    */
-  /*
-  public void removeIceChunksThrough(Vec2 pt1, Vec2 pt2, int n) {
-    GetFirstIceChunkFixtureCallback cb = new GetFirstIceChunkFixtureCallback();
+  public int removeIceChunksThrough(Vec2 pt1, Vec2 pt2, float maxArea) {
+    this.cutStarts[0] = pt1;
+    this.cutEnds[0] = pt2;
+    int numRemoved = this.removeIceChunksThrough(this.cutStarts, this.cutEnds, 1, maxArea);
+    this.cutStarts[0] = null;
+    this.cutEnds[0] = null;
+    return numRemoved;
+  }
+  
+  
+  /**
+   * Cut through the ice along n segments at once, from starts[i] to ends[i].
+   * The sheets crossed are found by ray casting; every chunk of those sheets
+   * crossed by a segment is split down to maxArea, and the pieces crossed by
+   * a segment are removed. Each sheet has all its pieces removed in one batch
+   * and its fixtures rebuilt once, however many segments cross it.
+   * Only sheets whose perimeter is crossed by a segment are found, so
+   * segments should start outside the ice, like a blade swipe.
+   * @param starts World points.
+   * @param ends World points.
+   * @param n Number of segments.
+   * @param maxArea Size to split crossed chunks down to.
+   * @return The number of chunks removed.
+   */
+  public int removeIceChunksThrough(Vec2[] starts, Vec2[] ends, int n, float maxArea) {
+    this.finishFractures();
+    this.sheetBodyQuery.clear();
     for (int i = 0; i < n; ++i) {
-      this.raycast(cb, pt1, pt2);
-      if (cb.getFraction() > 0 && cb.getFraction() < 1) {
-        resolveAndRemoveIceChunk(cb.getResult(), cb.getPoint());
-        cb.clear();
-      } else {
-        break;
+      if (!starts[i].equals(ends[i])) {
+        this.raycast(this.sheetBodyQuery, starts[i], ends[i]);
       }
     }
-  }*/
+    this.shatterBodies.clear();
+    for (Body b : this.iceSheetBodies) {
+      if (this.sheetBodyQuery.getResult().contains(b)) {
+        this.shatterBodies.add(b);
+      }
+    }
+    this.sheetBodyQuery.clear();
+    if (this.localCutStarts.length < n) {
+      this.localCutStarts = new Vec2[n];
+      this.localCutEnds = new Vec2[n];
+      for (int i = 0; i < n; ++i) {
+        this.localCutStarts[i] = new Vec2();
+        this.localCutEnds[i] = new Vec2();
+      }
+    }
+    
+    int numRemoved = 0;
+    for (Body b : this.shatterBodies) {
+      IceSheet sheet = (IceSheet) b.getUserData();
+      for (int i = 0; i < n; ++i) {
+        b.getLocalPointToOut(starts[i], this.localCutStarts[i]);
+        b.getLocalPointToOut(ends[i], this.localCutEnds[i]);
+      }
+      this.pendingDelete.clear();
+      this.shatterWork.clear();
+      for (IceChunk chunk : sheet.getIceChunks()) {
+        if (this.isCrossedByCut(chunk, n)) {
+          this.shatterWork.add(chunk);
+        }
+      }
+      while (!this.shatterWork.isEmpty()) {
+        IceChunk chunk = this.shatterWork.remove(this.shatterWork.size() - 1);
+        if (chunk.getTriangle().getArea() < maxArea) {
+          this.pendingDelete.add(chunk);
+        } else {
+          for (IceChunk piece : sheet.randomBinaryDivision(chunk, this.random)) {
+            if (this.isCrossedByCut(piece, n)) {
+              this.shatterWork.add(piece);
+            }
+          }
+        }
+      }
+      // The ray only hit the body's bounding box if nothing was crossed.
+      if (!this.pendingDelete.isEmpty()) {
+        numRemoved += this.pendingDelete.size();
+        this.rebuildIceSheetBody(b, this.pendingDelete);
+      }
+    }
+    this.pendingDelete.clear();
+    this.shatterBodies.clear();
+    if (numRemoved > 0) {
+      super.step(0, 0, 0);
+    }
+    return numRemoved;
+  }
+  
+  
+  /**
+   * Helper for removeIceChunksThrough(). True iff any of the first n cut
+   * segments (in the body's local coordinates) crosses the chunk.
+   * @param chunk
+   * @param n
+   * @return
+   */
+  private boolean isCrossedByCut(IceChunk chunk, int n) {
+    for (int i = 0; i < n; ++i) {
+      if (chunk.getTriangle().intersectsSegment(this.localCutStarts[i], this.localCutEnds[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
 }
@@ -0,0 +1,149 @@
+package physics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import tessellation.IceGraphSnapshot;
+
+/**
+ * A saved state of an IceWorld, taken with IceWorld.takeSnapshot() and put
+ * back with IceWorld.restoreSnapshot().
+ *
+ * Body transforms, velocities, welds, agent state and controller state are
+ * packed into one compact buffer, alongside a table of object references
+ * (sheets, food, agents) which can't be packed. The ice chunk graphs are kept
+ * in an IceGraphSnapshot, which is shared with other snapshots for as long as
+ * no ice breaks.
+ *
+ * Values must be read back in the same order they were written.
+ *
+ * @author Jack
+ *
+ */
+public class IceWorldSnapshot {
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private ByteBuffer data;
+  private ArrayList<Object> refs;
+  private int refCursor;
+  IceGraphSnapshot graph;
+
+  public IceWorldSnapshot() {
+    this.data = ByteBuffer.allocate(IceWorldSnapshot.INITIAL_CAPACITY);
+    this.refs = new ArrayList<Object>();
+    this.refCursor = 0;
+  }
+
+
+  /**
+   * Get the saved ice chunk graphs.
+   * @return
+   */
+  public IceGraphSnapshot getGraph() {
+    return this.graph;
+  }
+
+
+  /**
+   * The number of bytes used in the packed buffer.
+   * @return
+   */
+  public int getSizeBytes() {
+    return this.data.position();
+  }
+
+
+  /**
+   * Forget everything, but keep the allocated storage for reuse.
+   */
+  void clear() {
+    this.data.clear();
+    this.refs.clear();
+    this.refCursor = 0;
+    this.graph = null;
+  }
+
+
+  /**
+   * Prepare for reading back values from the start.
+   */
+  void rewind() {
+    this.data.rewind();
+    this.refCursor = 0;
+  }
+
+
+  /**
+   * Helper method. Grow the buffer so that at least n more bytes fit.
+   * @param n
+   */
+  private void ensureCapacity(int n) {
+    if (this.data.remaining() >= n) {
+      return;
+    }
+    int capacity = Math.max(this.data.capacity() * 2, this.data.position() + n);
+    ByteBuffer grown = ByteBuffer.allocate(capacity);
+    this.data.flip();
+    grown.put(this.data);
+    this.data = grown;
+  }
+
+
+  public void putFloat(float v) {
+    this.ensureCapacity(4);
+    this.data.putFloat(v);
+  }
+
+
+  public void putInt(int v) {
+    this.ensureCapacity(4);
+    this.data.putInt(v);
+  }
+
+
+  public void putLong(long v) {
+    this.ensureCapacity(8);
+    this.data.putLong(v);
+  }
+
+
+  public void putBoolean(boolean v) {
+    this.ensureCapacity(1);
+    this.data.put((byte) (v ? 1 : 0));
+  }
+
+
+  /**
+   * Save a reference to an object which can't be packed into the buffer. The
+   * object itself is not copied.
+   * @param o
+   */
+  public void putRef(Object o) {
+    this.refs.add(o);
+  }
+
+
+  public float getFloat() {
+    return this.data.getFloat();
+  }
+
+
+  public int getInt() {
+    return this.data.getInt();
+  }
+
+
+  public long getLong() {
+    return this.data.getLong();
+  }
+
+
+  public boolean getBoolean() {
+    return this.data.get() != 0;
+  }
+
+
+  public Object getRef() {
+    return this.refs.get(this.refCursor++);
+  }
+}
@@ -0,0 +1,64 @@
+package physics;
+
+import org.jbox2d.callbacks.QueryCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+
+/**
+ * QueryCallback that finds a fixture containing a point. The world's
+ * broadphase only reports fixtures whose bounding boxes contain the point,
+ * and only those are tested exactly. Reusable: nothing is allocated per query.
+ * @author Jack
+ *
+ */
+public class PointQueryCallback implements QueryCallback {
+  // Half-width of the box queried around the point.
+  private static final float QUERY_EPSILON = 1e-4f;
+
+  private Vec2 pt;
+  private AABB aabb;
+  private Fixture result;
+
+
+  public PointQueryCallback() {
+    this.pt = new Vec2();
+    this.aabb = new AABB();
+    this.result = null;
+  }
+
+
+  public Fixture getResult() {
+    return this.result;
+  }
+
+
+  /**
+   * Find a fixture in the world containing the point. If there is more than
+   * one, return one of them arbitrarily.
+   * @param world
+   * @param point World point.
+   * @return The fixture, or null if there is none.
+   */
+  public Fixture query(World world, Vec2 point) {
+    this.pt.set(point);
+    this.aabb.lowerBound.set(point.x - PointQueryCallback.QUERY_EPSILON,
+        point.y - PointQueryCallback.QUERY_EPSILON);
+    this.aabb.upperBound.set(point.x + PointQueryCallback.QUERY_EPSILON,
+        point.y + PointQueryCallback.QUERY_EPSILON);
+    this.result = null;
+    world.queryAABB(this, this.aabb);
+    return this.result;
+  }
+
+
+  @Override
+  public boolean reportFixture(Fixture fixture) {
+    if (fixture.testPoint(this.pt)) {
+      this.result = fixture;
+      return false;
+    }
+    return true;
+  }
+}
@@ -1,5 +1,6 @@
 package physics;
 
+import org.jbox2d.common.Vec2;
 import org.jbox2d.common.Vec3;
 
 /**
@@ -14,6 +15,9 @@ import org.jbox2d.common.Vec3;
  * Note that the special case c = 0 has to be handled separately, since the
  * general solution only works in the limit as c -> 0.
  * 
+ * All three coordinates share the factor 1 - e^(-ct), so getPosAtTime()
+ * computes it once for all of them.
+ * 
  * @author Jack
  *
  */
@@ -22,6 +26,8 @@ public class ThrownTrajectory extends Trajectory {
   private Vec3 initialVel;
   private float gravity;
   private float damping;
+  // Newton's method usually converges in 3 or 4 iterations.
+  private static final int MAX_NEWTON_ITERATIONS = 16;
   
   public ThrownTrajectory(Vec3 pos0, Vec3 vel0, float g, float c) {
     this.initialPos = new Vec3(pos0);
@@ -32,35 +38,80 @@ public class ThrownTrajectory extends Trajectory {
   
   @Override
   public float getXAtTime(float t) {
+    return this.getXAtTime(t, this.getDampingFactor(t));
+  }
+  
+  @Override
+  public float getYAtTime(float t) {
+    return this.getYAtTime(t, this.getDampingFactor(t));
+  }
+  
+  @Override
+  public float getZAtTime(float t) {
+    return this.getZAtTime(t, this.getDampingFactor(t));
+  }
+  
+  @Override
+  public void getPosAtTime(float t, Vec2 pos) {
+    float dampingFactor = this.getDampingFactor(t);
+    pos.x = this.getXAtTime(t, dampingFactor);
+    pos.y = this.getYAtTime(t, dampingFactor);
+  }
+  
+  @Override
+  public void getPosAtTime(float t, Vec3 pos) {
+    float dampingFactor = this.getDampingFactor(t);
+    pos.x = this.getXAtTime(t, dampingFactor);
+    pos.y = this.getYAtTime(t, dampingFactor);
+    pos.z = this.getZAtTime(t, dampingFactor);
+  }
+  
+  /**
+   * Helper method. Get 1 - e^(-ct), the fraction of the initial velocity
+   * (above terminal velocity) which has been lost by time t.
+   * @param t
+   * @return
+   */
+  private float getDampingFactor(float t) {
+    if (damping == 0.0f) {
+      return 0;
+    }
+    return (float) (1 - Math.exp(-damping * t));
+  }
+  
+  private float getXAtTime(float t, float dampingFactor) {
     if (damping == 0.0f) {
       return initialPos.x + initialVel.x * t;
     }
-    
-    float dampingFactor = (float) (1 - Math.exp(-damping * t));
     return initialPos.x + initialVel.x / damping * dampingFactor;
   }
   
-  @Override
-  public float getYAtTime(float t) {
+  private float getYAtTime(float t, float dampingFactor) {
     if (damping == 0.0f) {
       return initialPos.y + initialVel.y* t;
     }
-    
-    float dampingFactor = (float) (1 - Math.exp(-damping * t));
     return initialPos.y + initialVel.y / damping * dampingFactor;
   }
   
-  @Override
-  public float getZAtTime(float t) {
+  private float getZAtTime(float t, float dampingFactor) {
     if (damping == 0.0f) {
       return initialPos.z + initialVel.z * t - 0.5f * gravity * t * t;
     }
-    
-    float dampingFactor = (float) (1 - Math.exp(-damping * t));
     float gOverC = gravity / damping;
     return initialPos.z - gOverC * t + (initialVel.z + gOverC) / damping * dampingFactor;
   }
   
+  /**
+   * Helper method. Get the vertical velocity at time t, given 1 - e^(-ct).
+   * z' = -g/c + (z'_0 + g/c) e^(-ct)
+   * @param dampingFactor
+   * @return
+   */
+  private float getZVelocity(float dampingFactor) {
+    float gOverC = gravity / damping;
+    return -gOverC + (initialVel.z + gOverC) * (1 - dampingFactor);
+  }
+  
   private float undampedTimeOfFlight() {
     float radical = (float) Math.sqrt(initialVel.z * initialVel.z + 2 * initialPos.z * gravity);
     return (initialVel.z + radical) / (gravity);
@@ -89,6 +140,12 @@ public class ThrownTrajectory extends Trajectory {
   /**
    * Get the smallest time > 0 for which z <= 0, with error no more than
    * maxError.
+   * 
+   * Uses Newton's method, at one exp() per iteration. Unless the object is
+   * thrown down faster than terminal velocity, z is concave, so starting from
+   * an overestimate the iterates stay on the far side of the root and
+   * converge to it quadratically. Otherwise z is convex, and the same goes
+   * for starting from 0. Falls back to bisection if rounding gets in the way.
    * @param maxError
    * @return
    */
@@ -99,9 +156,32 @@ public class ThrownTrajectory extends Trajectory {
       return 0;
     }
     float underEstimate = 0;
-    // using the fact that 0 <= 1 - e^(-ct) <= 1 for t >= 0 and c > 0,
-    // z < z_approx = z_0 - g/c t + (z'_0 + g/c) / c so when z_approx = 0, z <= 0 too.
-    float overEstimate = damping / gravity * (initialPos.z + (initialVel.z + gravity / damping) / damping);
+    float overEstimate;
+    float t;
+    if (initialVel.z > -gravity / damping) {
+      // using the fact that 0 <= 1 - e^(-ct) <= 1 for t >= 0 and c > 0,
+      // z < z_approx = z_0 - g/c t + (z'_0 + g/c) / c so when z_approx = 0, z <= 0 too.
+      overEstimate = damping / gravity * (initialPos.z + (initialVel.z + gravity / damping) / damping);
+      t = overEstimate;
+    } else {
+      // z'_0 + g/c <= 0, so z <= z_0 - g/c t.
+      overEstimate = damping / gravity * initialPos.z;
+      t = underEstimate;
+    }
+    
+    for (int i = 0; i < ThrownTrajectory.MAX_NEWTON_ITERATIONS; ++i) {
+      float dampingFactor = this.getDampingFactor(t);
+      float height = this.getZAtTime(t, dampingFactor);
+      if (Math.abs(height) < maxError) {
+        return t;
+      }
+      float vz = this.getZVelocity(dampingFactor);
+      float next = t - height / vz;
+      if (!(vz < 0) || !(next >= underEstimate && next <= overEstimate) || next == t) {
+        break;
+      }
+      t = next;
+    }
     return getTimeOfFlightBinSearch(underEstimate, overEstimate, maxError);
   }
 }
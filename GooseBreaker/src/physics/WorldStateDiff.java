@@ -0,0 +1,86 @@
+package physics;
+
+import org.jbox2d.dynamics.Body;
+
+import tessellation.IceSheet;
+
+/**
+ * Compares the state hashes of two IceWorlds (e.g. a live game and a replay of
+ * it, or two runs of a regression test) and reports the first thing that
+ * differs.
+ *
+ * @author Jack
+ *
+ */
+public class WorldStateDiff {
+
+  /**
+   * Describe the first difference between the two worlds, as of their last
+   * updateStateHash(). Bodies are compared in order: ice sheets, then food,
+   * then agents.
+   * @param a
+   * @param b
+   * @return null if the worlds' state hashes are equal, otherwise a short
+   *         human-readable description of the first difference.
+   */
+  public static String describeFirstDifference(IceWorld a, IceWorld b) {
+    if (a.getStateHash() == b.getStateHash()) {
+      return null;
+    }
+    if (a.getHashedSheetCount() != b.getHashedSheetCount()) {
+      return "ice sheet count: " + a.getHashedSheetCount() + " vs "
+          + b.getHashedSheetCount();
+    }
+    if (a.getHashedFoodCount() != b.getHashedFoodCount()) {
+      return "food count: " + a.getHashedFoodCount() + " vs "
+          + b.getHashedFoodCount();
+    }
+    if (a.getHashedBodyCount() != b.getHashedBodyCount()) {
+      int numAgentsA = a.getHashedBodyCount() - a.getHashedSheetCount() - a.getHashedFoodCount();
+      int numAgentsB = b.getHashedBodyCount() - b.getHashedSheetCount() - b.getHashedFoodCount();
+      return "agent count: " + numAgentsA + " vs " + numAgentsB;
+    }
+
+    for (int i = 0; i < a.getHashedBodyCount(); ++i) {
+      if (a.getBodyStateHash(i) != b.getBodyStateHash(i)) {
+        return describeBody(a, i) + " differs: " + describeState(a.getHashedBody(i))
+            + " vs " + describeState(b.getHashedBody(i));
+      }
+    }
+    return "random number generator state or step count";
+  }
+
+
+  /**
+   * Helper method. Name the i'th hashed body, e.g. "food #2".
+   * @param world
+   * @param i
+   * @return
+   */
+  private static String describeBody(IceWorld world, int i) {
+    if (i < world.getHashedSheetCount()) {
+      return "ice sheet #" + i;
+    }
+    i -= world.getHashedSheetCount();
+    if (i < world.getHashedFoodCount()) {
+      return "food #" + i;
+    }
+    i -= world.getHashedFoodCount();
+    return "agent #" + i;
+  }
+
+
+  /**
+   * Helper method. Summarize a body's current state.
+   * @param b
+   * @return
+   */
+  private static String describeState(Body b) {
+    String s = "[pos=" + b.getPosition() + " angle=" + b.getAngle()
+        + " v=" + b.getLinearVelocity() + " omega=" + b.getAngularVelocity();
+    if (b.getUserData() instanceof IceSheet) {
+      s += " graph=" + Long.toHexString(((IceSheet) b.getUserData()).getGraphHash());
+    }
+    return s + "]";
+  }
+}
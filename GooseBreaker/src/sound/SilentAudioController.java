@@ -0,0 +1,22 @@
+package sound;
+
+/**
+ * An AudioController which plays nothing, for running games without sound
+ * (replays, benchmarks, tests).
+ * @author Jack
+ *
+ */
+public class SilentAudioController extends AudioController {
+
+  @Override
+  public void step() {
+  }
+
+  @Override
+  public void playAudio(Clip clip) {
+  }
+
+  @Override
+  public void stopAllAudio() {
+  }
+}
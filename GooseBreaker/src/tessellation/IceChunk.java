@@ -1,9 +1,12 @@
 package tessellation;
 
 import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.jbox2d.common.Vec2;
 
+import util.HashUtil;
 import util.RandomUtil;
 
 /**
@@ -67,6 +70,54 @@ public class IceChunk {
     
   }
 
+  /**
+   * Overwrite the deleted flag and clear all adjacency, without touching any
+   * of the neighbors. Used by IceGraphSnapshot, which restores both sides of
+   * every adjacency itself.
+   * @param deleted
+   */
+  void resetForRestore(boolean deleted) {
+    isDeleted = deleted;
+    for (int i = 0; i < 3; ++i) {
+      adjacentByEdgeSorted.get(i).clear();
+      adjDeletedByEdge.get(i).clear();
+      adjNonDeletedByEdge.get(i).clear();
+    }
+  }
+
+
+  /**
+   * Append a neighbor to the end of the (already sorted) adjacency list for an
+   * edge, without touching the neighbor. The neighbor's deleted flag must
+   * already be restored. See resetForRestore().
+   * @param edgeInd
+   * @param other
+   */
+  void appendAdjacentForRestore(int edgeInd, IceChunk other) {
+    adjacentByEdgeSorted.get(edgeInd).add(other);
+    if (other.isDeleted) {
+      adjDeletedByEdge.get(edgeInd).add(other);
+    } else {
+      adjNonDeletedByEdge.get(edgeInd).add(other);
+    }
+  }
+
+  /**
+   * Hash of the chunk's triangle and deleted flag, for detecting divergence
+   * between simulation runs. Adjacency isn't included; it follows from the
+   * triangles.
+   * @return
+   */
+  public long getStateHash() {
+    long h = isDeleted ? 1 : 0;
+    for (int i = 0; i < 3; ++i) {
+      Vec2 v = shape.getOrderedVertex(i);
+      h = HashUtil.combine(h, v.x);
+      h = HashUtil.combine(h, v.y);
+    }
+    return h;
+  }
+
   public boolean isEdgeBare(int edgeInd) {
     return this.adjNonDeletedByEdge.get(edgeInd).isEmpty()
         || !this.adjDeletedByEdge.get(edgeInd).isEmpty();
@@ -322,11 +373,24 @@ public class IceChunk {
    * disconnecting this chunk from the graph and adding new chunks as necessary.
    */
   public IceChunk resolveRecursively(Vec2 pos, float maxArea) {
+    return resolveRecursively(pos, maxArea, ThreadLocalRandom.current());
+  }
+  
+  
+  /**
+   * Same as resolveRecursively(pos, maxArea), but draw split points from the
+   * given Random.
+   * @param pos
+   * @param maxArea
+   * @param random
+   * @return
+   */
+  public IceChunk resolveRecursively(Vec2 pos, float maxArea, Random random) {
     if (this.getTriangle().getArea() < maxArea) {
       return this;
     }
     
-    ArrayList<IceChunk> splits = new ArrayList<IceChunk>(this.randomBinaryDivision());
+    ArrayList<IceChunk> splits = new ArrayList<IceChunk>(this.randomBinaryDivision(random));
     IceChunk chunk1 = splits.get(0);
     IceChunk chunk2 = splits.get(1);
     int splitEdgeInd = chunk1.getIndexOfEdgeAdjacent(chunk2);
@@ -336,9 +400,9 @@ public class IceChunk {
     float testX = pos.x - splitEdge.getFirst().x;
     float testY = pos.y - splitEdge.getFirst().y;
     if (testX * edgeDirPerp.x + testY * edgeDirPerp.y > 0) {
-      return chunk1.resolveRecursively(pos, maxArea);
+      return chunk1.resolveRecursively(pos, maxArea, random);
     } else {
-      return chunk2.resolveRecursively(pos, maxArea);
+      return chunk2.resolveRecursively(pos, maxArea, random);
     }
   }
 
@@ -371,14 +435,26 @@ public class IceChunk {
    *         replace this IceChunk in the adjacency graph.
    */
   public ArrayList<IceChunk> randomBinaryDivision() {
+    return randomBinaryDivision(ThreadLocalRandom.current());
+  }
+  
+  
+  /**
+   * Same as randomBinaryDivision(), but draw the split edge and split point
+   * from the given Random. With a seeded Random, the division is
+   * reproducible.
+   * @param random
+   * @return
+   */
+  public ArrayList<IceChunk> randomBinaryDivision(Random random) {
     // Pick a random edge weighted by the opposite angle -- larger angles
     // are more likely. This helps prevent making lots of very thin
     // triangles.
-    TriangleEdge splitEdge = this.getTriangle().randomEdgeWeightedByAngle();
+    TriangleEdge splitEdge = this.getTriangle().randomEdgeWeightedByAngle(random);
     // The split point is chosen using a uniform sum distribution, so that
     // splits near the center are more likely. This also prevents skinny
     // triangles.
-    float splitFrac = (float) RandomUtil.UniformSum(8, 0, 1);
+    float splitFrac = (float) RandomUtil.UniformSum(random, 8, 0, 1);
     
     return binaryDivision(splitEdge, splitFrac);
   }
@@ -0,0 +1,271 @@
+package tessellation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable record of the chunk graphs of a collection of IceSheets, which
+ * can be restored later.
+ *
+ * Nothing is deep-copied: Triangles never change once created, so the snapshot
+ * just holds references to the IceChunks and encodes their deleted flags and
+ * (clockwise-sorted) adjacency lists as indices into flat int arrays. Chunks
+ * which are split after the snapshot was taken are only disconnected from the
+ * graph, never modified, so restoring the adjacency lists is enough to bring
+ * them back.
+ *
+ * Each sheet's graph is recorded separately, keyed by the sheet's version,
+ * and records are immutable, so capturing again after some sheets changed
+ * only copies those sheets and shares the rest with the previous snapshot
+ * (copy-on-write per sheet). Likewise, the snapshot as a whole can be shared
+ * by any number of world snapshots for as long as isCurrentFor() holds.
+ *
+ * @author Jack
+ *
+ */
+public class IceGraphSnapshot {
+  // Records are restored oldest first, so that a deleted chunk bordering
+  // several sheets ends up with the adjacency of its newest record.
+  private static final AtomicLong captureCounter = new AtomicLong();
+
+  private SheetGraph[] sheetGraphs;
+  private Map<IceSheet, SheetGraph> sheetIndex;
+  // sheetGraphs, oldest record first.
+  private SheetGraph[] restoreOrder;
+
+  private IceGraphSnapshot() {
+  }
+
+
+  /**
+   * Record the current chunk graphs of the given sheets, including the
+   * deleted chunks bordering them.
+   * ~O(n) for n chunks, with no per-chunk allocation.
+   * @param iceSheets
+   * @return
+   */
+  public static IceGraphSnapshot capture(Collection<IceSheet> iceSheets) {
+    return IceGraphSnapshot.capture(iceSheets, null);
+  }
+
+
+  /**
+   * Same as capture(iceSheets), but share the records of sheets which haven't
+   * changed since they were recorded in previous.
+   * ~O(n) for n chunks in changed sheets.
+   * @param iceSheets
+   * @param previous A snapshot to share records with, or null.
+   * @return
+   */
+  public static IceGraphSnapshot capture(Collection<IceSheet> iceSheets, IceGraphSnapshot previous) {
+    IceGraphSnapshot snap = new IceGraphSnapshot();
+    int n = iceSheets.size();
+    snap.sheetGraphs = new SheetGraph[n];
+    snap.sheetIndex = new IdentityHashMap<IceSheet, SheetGraph>(n);
+    int s = 0;
+    for (IceSheet sheet : iceSheets) {
+      SheetGraph graph = previous != null ? previous.sheetIndex.get(sheet) : null;
+      if (graph == null || graph.version != sheet.getVersion()) {
+        graph = new SheetGraph(sheet);
+      }
+      snap.sheetGraphs[s++] = graph;
+      snap.sheetIndex.put(sheet, graph);
+    }
+
+    // Few sheets, so an insertion sort is plenty.
+    snap.restoreOrder = snap.sheetGraphs.clone();
+    for (int i = 1; i < n; ++i) {
+      SheetGraph graph = snap.restoreOrder[i];
+      int j = i - 1;
+      while (j >= 0 && snap.restoreOrder[j].captureOrder > graph.captureOrder) {
+        snap.restoreOrder[j + 1] = snap.restoreOrder[j];
+        --j;
+      }
+      snap.restoreOrder[j + 1] = graph;
+    }
+    return snap;
+  }
+
+
+  /**
+   * True iff restoring this snapshot would not change the chunk graph, i.e.
+   * the given sheets are exactly the recorded sheets and none of them have
+   * been modified since.
+   * @param iceSheets
+   * @return
+   */
+  public boolean isCurrentFor(Collection<IceSheet> iceSheets) {
+    if (iceSheets.size() != sheetGraphs.length) {
+      return false;
+    }
+    for (IceSheet sheet : iceSheets) {
+      if (!this.isSheetCurrent(sheet)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * True iff the sheet was recorded, and it hasn't been modified since.
+   * @param sheet
+   * @return
+   */
+  public boolean isSheetCurrent(IceSheet sheet) {
+    SheetGraph graph = sheetIndex.get(sheet);
+    return graph != null && graph.version == sheet.getVersion();
+  }
+
+
+  public boolean containsSheet(IceSheet sheet) {
+    return sheetIndex.containsKey(sheet);
+  }
+
+
+  public int getSheetCount() {
+    return sheetGraphs.length;
+  }
+
+
+  public IceSheet getSheet(int i) {
+    return sheetGraphs[i].sheet;
+  }
+
+
+  /**
+   * True iff this snapshot and other recorded the given sheet in the same
+   * record, i.e. capturing one shared the other's copy of its graph.
+   * @param other
+   * @param sheet
+   * @return
+   */
+  public boolean isSharedWith(IceGraphSnapshot other, IceSheet sheet) {
+    SheetGraph graph = sheetIndex.get(sheet);
+    return graph != null && graph == other.sheetIndex.get(sheet);
+  }
+
+
+  /**
+   * Put every recorded chunk and sheet back into its recorded state. Chunks
+   * and sheets created since the snapshot was taken are left alone, and are
+   * no longer referenced by the restored graph.
+   */
+  public void restore() {
+    // Deleted flags first, since appending neighbors sorts them by flag.
+    for (SheetGraph graph : restoreOrder) {
+      graph.restoreDeleted();
+    }
+    for (SheetGraph graph : restoreOrder) {
+      graph.restoreAdjacency();
+    }
+    for (SheetGraph graph : restoreOrder) {
+      graph.sheet.restoreState(graph.root >= 0 ? graph.chunks[graph.root] : null,
+          graph.maxArea, graph.version);
+    }
+  }
+
+
+  /**
+   * The recorded chunk graph of one sheet, as of one version of it.
+   */
+  private static class SheetGraph {
+    private IceSheet sheet;
+    private long version;
+    private long captureOrder;
+    private int root;
+    private float maxArea;
+    // The first numRestoredChunks chunks are restored. The rest are only
+    // referenced as neighbors (deleted chunks deep inside a deleted region).
+    private IceChunk[] chunks;
+    private int numRestoredChunks;
+    private boolean[] deleted;
+    // For each restored chunk, for each edge: neighbor count followed by the
+    // neighbor indices in clockwise-order.
+    private int[] adjStart;
+    private int[] adj;
+
+    public SheetGraph(IceSheet sheet) {
+      this.sheet = sheet;
+      this.version = sheet.getVersion();
+      this.captureOrder = captureCounter.incrementAndGet();
+      this.maxArea = sheet.getMaxArea();
+
+      Map<IceChunk, Integer> chunkIndex = new IdentityHashMap<IceChunk, Integer>();
+      ArrayList<IceChunk> chunkList = new ArrayList<IceChunk>();
+      for (IceChunk chunk : sheet.getIceChunksIncludingDeleted()) {
+        chunkIndex.put(chunk, chunkList.size());
+        chunkList.add(chunk);
+      }
+      this.numRestoredChunks = chunkList.size();
+
+      int numAdj = 0;
+      for (int i = 0; i < this.numRestoredChunks; ++i) {
+        IceChunk chunk = chunkList.get(i);
+        for (int e = 0; e < 3; ++e) {
+          numAdj += 1 + chunk.getAdjacentAndDeletedSortedClockwise(e).size();
+        }
+      }
+      this.adjStart = new int[this.numRestoredChunks];
+      this.adj = new int[numAdj];
+      int pos = 0;
+      for (int i = 0; i < this.numRestoredChunks; ++i) {
+        IceChunk chunk = chunkList.get(i);
+        this.adjStart[i] = pos;
+        for (int e = 0; e < 3; ++e) {
+          ArrayList<IceChunk> neighbors = chunk.getAdjacentAndDeletedSortedClockwise(e);
+          this.adj[pos++] = neighbors.size();
+          for (int j = 0; j < neighbors.size(); ++j) {
+            IceChunk neighbor = neighbors.get(j);
+            Integer ind = chunkIndex.get(neighbor);
+            if (ind == null) {
+              ind = chunkList.size();
+              chunkIndex.put(neighbor, ind);
+              chunkList.add(neighbor);
+            }
+            this.adj[pos++] = ind;
+          }
+        }
+      }
+
+      this.chunks = chunkList.toArray(new IceChunk[chunkList.size()]);
+      this.deleted = new boolean[this.numRestoredChunks];
+      for (int i = 0; i < this.numRestoredChunks; ++i) {
+        this.deleted[i] = this.chunks[i].isDeleted();
+      }
+      IceChunk rootChunk = sheet.getRootChunk();
+      this.root = rootChunk != null ? chunkIndex.get(rootChunk) : -1;
+    }
+
+
+    public void restoreDeleted() {
+      for (int i = 0; i < this.numRestoredChunks; ++i) {
+        this.chunks[i].resetForRestore(this.deleted[i]);
+      }
+    }
+
+
+    /**
+     * Rebuild the adjacency lists of the recorded chunks. A deleted chunk
+     * bordering another sheet may already have been given the lists from
+     * that sheet's (older) record, so each chunk's lists are cleared again
+     * first.
+     */
+    public void restoreAdjacency() {
+      for (int i = 0; i < this.numRestoredChunks; ++i) {
+        IceChunk chunk = this.chunks[i];
+        chunk.resetForRestore(this.deleted[i]);
+        int pos = this.adjStart[i];
+        for (int e = 0; e < 3; ++e) {
+          int count = this.adj[pos++];
+          for (int j = 0; j < count; ++j) {
+            chunk.appendAdjacentForRestore(e, this.chunks[this.adj[pos++]]);
+          }
+        }
+      }
+    }
+  }
+}
@@ -2,8 +2,12 @@ package tessellation;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jbox2d.common.Transform;
 import org.jbox2d.common.Vec2;
@@ -26,33 +30,131 @@ import physics.FreeSpace;
 public class IceSheet {
 
   public static final float DENSITY = 2.0f;
+  // Versions are unique across all sheets, so a (sheet, version) pair always
+  // identifies exactly one state of the chunk graph.
+  private static final AtomicLong versionCounter = new AtomicLong();
   private IceChunk rootChunk;
   private float maxArea;
   private Set<IceChunk> iceChunksCached;
   private Set<IceChunk> iceChunksAndDeletedCached;
   private Set<IceChunk> perimeterChunksCached;
   private List<Vec2> perimeterCached;
+  private float areaCached;
   private boolean isCachedDirty;
   private Transform eye;
+  private long version;
+  // Sum of the state hashes of the chunks (including bordering deleted ones).
+  // A sum, so that chunks can be added and removed in any order.
+  private long graphHash;
+  private boolean isGraphHashDirty;
+  // What readers see while the graph is being updated on another thread; the
+  // perimeter is null when the sheet isn't held.
+  private List<Vec2> heldPerimeter;
+  private float heldArea;
+  private long heldGraphHash;
+  private long heldVersion;
   
   public IceSheet(IceChunk chunk) {
     rootChunk = chunk;
     maxArea = Float.MAX_VALUE;
     isCachedDirty = true;
-    iceChunksCached = new HashSet<IceChunk>();
-    iceChunksAndDeletedCached = new HashSet<IceChunk>();
-    perimeterChunksCached = new HashSet<IceChunk>();
+    // Linked sets, so that iteration order (and so fixture creation order) is
+    // the same from run to run.
+    iceChunksCached = new LinkedHashSet<IceChunk>();
+    iceChunksAndDeletedCached = new LinkedHashSet<IceChunk>();
+    perimeterChunksCached = new LinkedHashSet<IceChunk>();
     perimeterCached = new ArrayList<Vec2>();
     eye = new Transform();
+    version = versionCounter.incrementAndGet();
+    isGraphHashDirty = true;
+  }
+  
+  
+  /**
+   * Get the version of this sheet's chunk graph. The version changes every
+   * time the graph is modified through this sheet (splitting, resolving, or
+   * removing chunks), so an unchanged version means an unchanged graph.
+   * @return
+   */
+  public long getVersion() {
+    if (this.heldPerimeter != null) {
+      return this.heldVersion;
+    }
+    return version;
+  }
+  
+  
+  /**
+   * Helper method. Mark the cached perimeter and graph hash dirty and give
+   * the sheet a new version; call this after every modification of the chunk graph.
+   */
+  private void onGraphModified() {
+    this.isCachedDirty = true;
+    this.isGraphHashDirty = true;
+    this.version = versionCounter.incrementAndGet();
+  }
+  
+  
+  /**
+   * Put the sheet back into a previously saved state. The chunk graph itself
+   * is restored by IceGraphSnapshot.
+   * @param root
+   * @param area
+   * @param savedVersion
+   */
+  void restoreState(IceChunk root, float area, long savedVersion) {
+    if (this.version != savedVersion || this.rootChunk != root) {
+      this.isCachedDirty = true;
+      this.isGraphHashDirty = true;
+    }
+    this.rootChunk = root;
+    this.maxArea = area;
+    this.version = savedVersion;
+  }
+  
+  
+  /**
+   * Hand the chunk graph over to another thread (see FractureJob). Until
+   * endBackgroundUpdate(), getBareEdgePerimeterCopy(), computeArea(),
+   * getGraphHash() and getVersion() keep returning the sheet as it is now,
+   * without reading the graph, so the sheet can still be drawn and hashed.
+   * Nothing else may be called on the sheet until then, except by the thread
+   * doing the update.
+   */
+  public void beginBackgroundUpdate() {
+    this.heldArea = this.computeArea();
+    this.heldGraphHash = this.getGraphHash();
+    this.heldVersion = this.version;
+    // Keep the cached perimeter list itself rather than copying it, and give
+    // the graph a fresh one to recompute into.
+    this.heldPerimeter = this.getBareEdgePerimeter();
+    this.perimeterCached = new ArrayList<Vec2>();
+    this.isCachedDirty = true;
+  }
+  
+  
+  /**
+   * Take the chunk graph back after beginBackgroundUpdate(), once the other
+   * thread is done with it.
+   */
+  public void endBackgroundUpdate() {
+    this.heldPerimeter = null;
+  }
+  
+  
+  public boolean isHeldForBackgroundUpdate() {
+    return this.heldPerimeter != null;
   }
   
   
   public float computeArea() {
-    float area = 0;
-    for (IceChunk chunk : getIceChunks()) {
-      area += chunk.getTriangle().getArea();
+    if (this.heldPerimeter != null) {
+      return this.heldArea;
+    }
+    if (this.isCachedDirty) {
+      this.computeCachedPerimeter();
     }
-    return area;
+    return this.areaCached;
   }
   
   
@@ -84,9 +186,20 @@ public class IceSheet {
    * @return
    */
   public IceChunk getIceChunkAt(Vec2 pos) {
+    return getIceChunkAt(pos, ThreadLocalRandom.current());
+  }
+  
+  
+  /**
+   * Same as getIceChunkAt(pos), but draw split points from the given Random.
+   * @param pos
+   * @param random
+   * @return
+   */
+  public IceChunk getIceChunkAt(Vec2 pos, Random random) {
     for (IceChunk chunk : getIceChunks()) {
       if (chunk.getTriangle().testPoint(eye, pos)) {
-        return resolveIceChunk(chunk, pos);
+        return resolveIceChunk(chunk, pos, random);
       }
     }
     return null;
@@ -100,8 +213,30 @@ public class IceSheet {
    * @param superChunk
    */
   public ArrayList<IceChunk> randomBinaryDivision(IceChunk superChunk) {
-    ArrayList<IceChunk> splitChunks = superChunk.randomBinaryDivision();
-    this.isCachedDirty = true;
+    return randomBinaryDivision(superChunk, ThreadLocalRandom.current());
+  }
+  
+  
+  /**
+   * Same as randomBinaryDivision(superChunk), but draw the split from the
+   * given Random.
+   * @param superChunk
+   * @param random
+   * @return
+   */
+  public ArrayList<IceChunk> randomBinaryDivision(IceChunk superChunk, Random random) {
+    ArrayList<IceChunk> splitChunks = superChunk.randomBinaryDivision(random);
+    boolean wasGraphHashDirty = this.isGraphHashDirty;
+    this.onGraphModified();
+    // Splitting doesn't change which deleted chunks border the sheet, so the
+    // hash can be patched without walking the whole graph.
+    if (!wasGraphHashDirty) {
+      this.graphHash -= superChunk.getStateHash();
+      for (IceChunk chunk : splitChunks) {
+        this.graphHash += chunk.getStateHash();
+      }
+      this.isGraphHashDirty = false;
+    }
     this.rootChunk = splitChunks.iterator().next();
     return splitChunks;
   }
@@ -115,13 +250,46 @@ public class IceSheet {
    * @return
    */
   public IceChunk resolveIceChunk(IceChunk superChunk, Vec2 pos) {
-    IceChunk result = superChunk.resolveRecursively(pos, maxArea);
-    isCachedDirty = true;
+    return resolveIceChunk(superChunk, pos, ThreadLocalRandom.current());
+  }
+  
+  
+  /**
+   * Same as resolveIceChunk(superChunk, pos), but draw split points from the
+   * given Random.
+   * @param superChunk
+   * @param pos
+   * @param random
+   * @return
+   */
+  public IceChunk resolveIceChunk(IceChunk superChunk, Vec2 pos, Random random) {
+    IceChunk result = superChunk.resolveRecursively(pos, maxArea, random);
+    onGraphModified();
     rootChunk = result;
     return result;
   }
   
   
+  /**
+   * Get a hash of the chunk graph, for detecting divergence between
+   * simulation runs. Splitting a chunk updates the hash in O(1); other
+   * changes recompute it along with the cached perimeter.
+   * @return
+   */
+  public long getGraphHash() {
+    if (this.heldPerimeter != null) {
+      return this.heldGraphHash;
+    }
+    if (this.rootChunk == null) {
+      return 0;
+    }
+    if (this.isGraphHashDirty) {
+      this.computeCachedPerimeter();
+    }
+    return this.graphHash;
+  }
+  
+  
   public Set<IceChunk> getIceChunks() {
     if (this.isCachedDirty) {
       this.computeCachedPerimeter();
@@ -131,7 +299,7 @@ public class IceSheet {
   }
   
   
-  private Set<IceChunk> getIceChunksIncludingDeleted() {
+  Set<IceChunk> getIceChunksIncludingDeleted() {
     if (this.isCachedDirty) {
       this.computeCachedPerimeter();
       this.isCachedDirty = false;
@@ -200,6 +368,9 @@ public class IceSheet {
    *          Add list of points on the perimeter to this list in order.
    */
   public ArrayList<Vec2> getBareEdgePerimeterCopy() {
+    if (this.heldPerimeter != null) {
+      return new ArrayList<Vec2>(this.heldPerimeter);
+    }
     return new ArrayList<Vec2>(this.getBareEdgePerimeter());
   }
 
@@ -306,6 +477,17 @@ public class IceSheet {
     this.perimeterCached.clear();
     getBareEdgePerimeterRecursive(rootChunk, null);
     this.isCachedDirty = false;
+    
+    this.areaCached = 0;
+    for (IceChunk chunk : this.iceChunksCached) {
+      this.areaCached += chunk.getTriangle().getArea();
+    }
+    
+    this.graphHash = 0;
+    for (IceChunk chunk : this.iceChunksAndDeletedCached) {
+      this.graphHash += chunk.getStateHash();
+    }
+    this.isGraphHashDirty = false;
   }
 
 
@@ -353,7 +535,7 @@ public class IceSheet {
    */
   public ArrayList<IceSheet> removeIceChunks(ArrayList<IceChunk> chunks) {
     ArrayList<IceSheet> sheets = new ArrayList<IceSheet>();
-    HashSet<IceChunk> oldChunks = new HashSet<IceChunk>(this.getIceChunks());
+    HashSet<IceChunk> oldChunks = new LinkedHashSet<IceChunk>(this.getIceChunks());
     oldChunks.removeAll(chunks);
     for (IceChunk chunk : chunks) {
       chunk.setDeleted();
@@ -361,11 +543,11 @@ public class IceSheet {
     
     if (oldChunks.isEmpty()) {
       this.rootChunk = null;
-      this.isCachedDirty = true;
+      this.onGraphModified();
       return sheets;
     } else {
       this.rootChunk = oldChunks.iterator().next();
-      this.isCachedDirty = true;
+      this.onGraphModified();
       oldChunks.removeAll(this.getIceChunks());
       sheets.add(this);
     }
@@ -1,5 +1,8 @@
 package tessellation;
 
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
 import org.jbox2d.collision.shapes.PolygonShape;
 import org.jbox2d.common.Vec2;
 
@@ -118,6 +121,17 @@ public class Triangle extends PolygonShape {
    * @return A TriangleEdge chosen randomly as described.
    */
   public TriangleEdge randomEdgeWeightedByAngle() {
+    return randomEdgeWeightedByAngle(ThreadLocalRandom.current());
+  }
+
+
+  /**
+   * Same as randomEdgeWeightedByAngle(), but draw from the given Random.
+   * 
+   * @param random
+   * @return
+   */
+  public TriangleEdge randomEdgeWeightedByAngle(Random random) {
     double[] edgeOppAngle = new double[3];
     for (int i = 0; i < 3; ++i) {
       TriangleEdge e = orderedEdges[i];
@@ -127,7 +141,107 @@ public class Triangle extends PolygonShape {
       v2.normalize();
       edgeOppAngle[i] = 1 - Vec2.dot(v1, v2);
     }
-    return RandomUtil.WeightedFrom(orderedEdges, edgeOppAngle);
+    return RandomUtil.WeightedFrom(random, orderedEdges, edgeOppAngle);
+  }
+
+
+  /**
+   * True iff every vertex is within radius r of c.
+   * 
+   * @param c
+   * @param r
+   * @return
+   */
+  public boolean isInsideCircle(Vec2 c, float r) {
+    float r2 = r * r;
+    for (int i = 0; i < 3; ++i) {
+      float dx = orderedVertices[i].x - c.x;
+      float dy = orderedVertices[i].y - c.y;
+      if (dx * dx + dy * dy > r2) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * True iff the triangle and the disc of radius r around c overlap.
+   * 
+   * @param c
+   * @param r
+   * @return
+   */
+  public boolean intersectsCircle(Vec2 c, float r) {
+    float r2 = r * r;
+    boolean allLeft = true;
+    boolean allRight = true;
+    for (int i = 0; i < 3; ++i) {
+      Vec2 a = orderedVertices[i];
+      Vec2 b = orderedVertices[(i + 1) % 3];
+      float ex = b.x - a.x;
+      float ey = b.y - a.y;
+      float px = c.x - a.x;
+      float py = c.y - a.y;
+      // Distance from c to the closest point on the edge.
+      float lenSq = ex * ex + ey * ey;
+      float t = lenSq > 0 ? (px * ex + py * ey) / lenSq : 0;
+      t = Math.max(0, Math.min(1, t));
+      float dx = px - t * ex;
+      float dy = py - t * ey;
+      if (dx * dx + dy * dy <= r2) {
+        return true;
+      }
+      float cross = ex * py - ey * px;
+      allLeft &= cross >= 0;
+      allRight &= cross <= 0;
+    }
+    // No edge is close enough, so they only overlap if c is inside.
+    return allLeft || allRight;
+  }
+
+
+  /**
+   * True iff the segment from p to q crosses or touches the triangle.
+   * 
+   * @param p
+   * @param q
+   * @return
+   */
+  public boolean intersectsSegment(Vec2 p, Vec2 q) {
+    boolean pAllLeft = true;
+    boolean pAllRight = true;
+    for (int i = 0; i < 3; ++i) {
+      Vec2 a = orderedVertices[i];
+      Vec2 b = orderedVertices[(i + 1) % 3];
+      float ex = b.x - a.x;
+      float ey = b.y - a.y;
+      float crossP = ex * (p.y - a.y) - ey * (p.x - a.x);
+      float crossQ = ex * (q.y - a.y) - ey * (q.x - a.x);
+      pAllLeft &= crossP >= 0;
+      pAllRight &= crossP <= 0;
+      if ((crossP > 0 && crossQ > 0) || (crossP < 0 && crossQ < 0)) {
+        continue;
+      }
+      // p and q straddle the edge's line; check a and b straddle pq's line.
+      float sx = q.x - p.x;
+      float sy = q.y - p.y;
+      float crossA = sx * (a.y - p.y) - sy * (a.x - p.x);
+      float crossB = sx * (b.y - p.y) - sy * (b.x - p.x);
+      if ((crossA > 0 && crossB > 0) || (crossA < 0 && crossB < 0)) {
+        continue;
+      }
+      if (crossA != 0 || crossB != 0 || crossP != 0 || crossQ != 0) {
+        return true;
+      }
+      // Collinear: they only touch if their extents overlap.
+      if (Math.max(p.x, q.x) >= Math.min(a.x, b.x) && Math.min(p.x, q.x) <= Math.max(a.x, b.x) &&
+          Math.max(p.y, q.y) >= Math.min(a.y, b.y) && Math.min(p.y, q.y) <= Math.max(a.y, b.y)) {
+        return true;
+      }
+    }
+    // No edge is crossed, so they only overlap if the segment is inside.
+    return pAllLeft || pAllRight;
   }
 
 
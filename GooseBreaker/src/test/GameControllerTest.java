@@ -0,0 +1,40 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import graphics.HeadlessRenderer;
+
+import org.junit.Test;
+
+import physics.IceWorld;
+import sound.SilentAudioController;
+import util.SimulatedTickClock;
+import controller.TimedModeController;
+
+public class GameControllerTest {
+
+  @Test
+  public void testSimulatedClock() {
+    TimedModeController controller = new TimedModeController(new IceWorld(0),
+        new HeadlessRenderer(), new SilentAudioController());
+    SimulatedTickClock clock = new SimulatedTickClock(100);
+    controller.setClock(clock);
+    controller.restart(1000);
+    clock.advance(300);
+    // Switching clocks keeps the time already elapsed on the timer.
+    controller.setClock(new SimulatedTickClock(100));
+    assertEquals(300, controller.getElapsedMillis());
+
+    controller.restart(1000);
+    for (int i = 0; i < 9; ++i) {
+      controller.step(1, 60, 60);
+    }
+    assertEquals(900, controller.getElapsedMillis());
+    assertFalse(controller.hasGameEnded());
+    controller.stepMillis(100, 1, 60, 60);
+    assertTrue(controller.hasGameEnded());
+  }
+
+}
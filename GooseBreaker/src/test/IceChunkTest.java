@@ -12,6 +12,7 @@ import org.junit.Test;
 
 import tessellation.IceChunk;
 import tessellation.Triangle;
+import util.SeededRandom;
 
 public class IceChunkTest {
   Triangle t1 = new Triangle(new Vec2(0, 0), new Vec2(1, 0), new Vec2(0, 1));
@@ -90,6 +91,20 @@ public class IceChunkTest {
     assertTrue(ice.getAdjacentDeletedIceChunks().isEmpty());
   }
 
+  @Test
+  public void testSeededResolveIsReproducible() {
+    IceChunk ice1 = new IceChunk(new Triangle(new Vec2(0, 0), new Vec2(0, 3),
+        new Vec2(3, 0)));
+    IceChunk ice2 = new IceChunk(new Triangle(new Vec2(0, 0), new Vec2(0, 3),
+        new Vec2(3, 0)));
+    IceChunk resolved1 = ice1.resolveRecursively(new Vec2(1, 1), 0.01f, new SeededRandom(42));
+    IceChunk resolved2 = ice2.resolveRecursively(new Vec2(1, 1), 0.01f, new SeededRandom(42));
+    for (int i = 0; i < 3; ++i) {
+      assertEquals(resolved1.getTriangle().getOrderedVertex(i),
+          resolved2.getTriangle().getOrderedVertex(i));
+    }
+  }
+
   // TODO: test splitting IceChunk's without randomness.
 
 }
@@ -0,0 +1,62 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.jbox2d.common.Vec2;
+import org.junit.Test;
+
+import graphics.IceSheetMesh;
+import tessellation.IceChunk;
+import tessellation.IceSheet;
+import tessellation.Triangle;
+import util.SeededRandom;
+
+public class IceSheetMeshTest {
+
+  @Test
+  public void testRebuildOnlyWhenSheetChanges() {
+    IceChunk chunk = new IceChunk(new Triangle(new Vec2(0, 0), new Vec2(0, 4),
+        new Vec2(4, 0)));
+    IceSheet sheet = new IceSheet(chunk);
+    IceSheetMesh mesh = new IceSheetMesh();
+    assertTrue(mesh.update(sheet));
+    assertEquals(3, mesh.getVertexCount());
+    assertEquals(3, mesh.getTriangleIndexCount());
+    assertEquals(sheet.getBareEdgePerimeterCopy().size(), mesh.getOutlineIndexCount(0));
+
+    float[] vertices = mesh.getVertices();
+    assertTrue(mesh.update(sheet));
+    assertSame(vertices, mesh.getVertices());
+
+    // Splitting adds one shared vertex on the split edge.
+    sheet.randomBinaryDivision(chunk, new SeededRandom(1));
+    assertTrue(mesh.update(sheet));
+    assertEquals(4, mesh.getVertexCount());
+    assertEquals(6, mesh.getTriangleIndexCount());
+    assertEquals(sheet.getBareEdgePerimeterCopy().size(), mesh.getOutlineIndexCount(0));
+  }
+
+  @Test
+  public void testSimplifyOutline() {
+    IceChunk chunk = new IceChunk(new Triangle(new Vec2(0, 0), new Vec2(0, 40),
+        new Vec2(40, 0)));
+    IceSheet sheet = new IceSheet(chunk);
+    sheet.setMaxArea(1);
+    SeededRandom random = new SeededRandom(3);
+    // Fracture the corner, so that the perimeter picks up many points.
+    for (int i = 0; i < 40; ++i) {
+      sheet.getIceChunkAt(new Vec2(0.5f + i * 0.5f, 0.5f), random);
+    }
+    IceSheetMesh mesh = new IceSheetMesh(new float[] {0, 0.01f, 100});
+    assertTrue(mesh.update(sheet));
+    int full = mesh.getOutlineIndexCount(0);
+    assertEquals(sheet.getBareEdgePerimeterCopy().size(), full);
+    assertTrue(mesh.getOutlineIndexCount(1) <= full);
+    // Far coarser than the sheet: only the two anchor points are left.
+    assertEquals(2, mesh.getOutlineIndexCount(2));
+    assertTrue(full > 3);
+    assertEquals(mesh.getOutlineIndices(0)[0], mesh.getOutlineIndices(2)[0]);
+  }
+}
@@ -1,17 +1,36 @@
 package test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+
+import org.jbox2d.collision.AABB;
 import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.joints.Joint;
 import org.junit.Test;
 
+import physics.AgentWorker;
+import physics.BreadBall;
+import physics.FoodFlowField;
+import physics.FoodGrid;
+import physics.FractureWorker;
+import physics.Goose;
 import physics.IceWorld;
+import physics.IceWorldSnapshot;
+import physics.WorldStateDiff;
 import tessellation.IceChunk;
 import tessellation.IceSheet;
 import tessellation.Triangle;
+import util.SeededRandom;
 
 public class IceWorldTest {
 
@@ -37,4 +56,472 @@ public class IceWorldTest {
     assertNull(f2);
   }
 
+  @Test
+  public void testGetFixturesAt() {
+    IceWorld world = new IceWorld();
+    IceChunk c1 = new IceChunk(new Triangle(new Vec2(0, 1), new Vec2(1, 1),
+        new Vec2(1, 0)));
+    IceChunk c2 = new IceChunk(new Triangle(new Vec2(1, 1), new Vec2(1, 0),
+        new Vec2(2, 1)));
+    c1.addAdjacentOnEdge(0, c2, 0);
+    Body b = world.addIceSheet(new IceSheet(c1));
+    b.setTransform(new Vec2(10, 0), 0);
+
+    Vec2[] pts = { new Vec2(10.9f, 0.9f), new Vec2(11.2f, 1.2f),
+        new Vec2(11.5f, 0.9f), new Vec2(0.9f, 0.9f) };
+    Fixture[] results = new Fixture[pts.length];
+    world.getFixturesAt(pts, pts.length, results);
+    assertEquals(c1, results[0].getUserData());
+    assertNull(results[1]);
+    assertEquals(c2, results[2].getUserData());
+    // The sheet has moved away from here.
+    assertNull(results[3]);
+  }
+
+  @Test
+  public void testSnapshotRestore() {
+    IceWorld world = new IceWorld();
+    IceChunk c1 = new IceChunk(new Triangle(new Vec2(0, 1), new Vec2(1, 1),
+        new Vec2(1, 0)));
+    IceChunk c2 = new IceChunk(new Triangle(new Vec2(1, 1), new Vec2(1, 0),
+        new Vec2(2, 1)));
+    IceChunk c3 = new IceChunk(new Triangle(new Vec2(-1, 0), new Vec2(-1, 1),
+        new Vec2(-2, 1)));
+    c1.addAdjacentOnEdge(0, c2, 0);
+    c1.addAdjacentOnEdge(0, c3, 0);
+    IceSheet sheet = new IceSheet(c1);
+    Body b = world.addIceSheet(sheet);
+
+    IceWorldSnapshot snapshot = world.takeSnapshot();
+    // Nothing broke, so the chunk graph is shared rather than copied.
+    assertSame(snapshot.getGraph(), world.takeSnapshot().getGraph());
+
+    b.setTransform(new Vec2(5, 5), 1);
+    ArrayList<IceChunk> removeChunks = new ArrayList<IceChunk>();
+    removeChunks.add(c1);
+    sheet.removeIceChunks(removeChunks);
+    world.restoreSnapshot(snapshot);
+
+    assertEquals(1, world.getIceSheetBodies().size());
+    Body restored = world.getIceSheetBodies().iterator().next();
+    assertSame(sheet, restored.getUserData());
+    assertEquals(0, restored.getPosition().x, 1e-6f);
+    assertEquals(0, restored.getAngle(), 1e-6f);
+    assertFalse(c1.isDeleted());
+    assertEquals(3, sheet.getIceChunks().size());
+    assertEquals(2, c1.getAdjacentIceChunks().size());
+  }
+
+  @Test
+  public void testSnapshotSharesUnchangedSheets() {
+    IceWorld world = new IceWorld();
+    IceChunk c1 = new IceChunk(new Triangle(new Vec2(0, 1), new Vec2(1, 1),
+        new Vec2(1, 0)));
+    IceChunk c2 = new IceChunk(new Triangle(new Vec2(1, 1), new Vec2(1, 0),
+        new Vec2(2, 1)));
+    c1.addAdjacentOnEdge(1, c2, 0);
+    IceSheet brokenSheet = new IceSheet(c1);
+    world.addIceSheet(brokenSheet);
+    IceSheet keptSheet = new IceSheet(new IceChunk(new Triangle(
+        new Vec2(10, 0), new Vec2(10, 2), new Vec2(12, 0))));
+    world.addIceSheet(keptSheet);
+    Body food = world.addFoodPieceBodyAt(new BreadBall(1), new Vec2(10.5f, 0.5f), 0);
+    assertNotNull(food.getJointList());
+
+    IceWorldSnapshot snapshot = world.takeSnapshot();
+    ArrayList<IceChunk> removeChunks = new ArrayList<IceChunk>();
+    removeChunks.add(c2);
+    brokenSheet.removeIceChunks(removeChunks);
+    IceWorldSnapshot later = world.takeSnapshot();
+    // Only the sheet which broke is copied again.
+    assertNotSame(snapshot.getGraph(), later.getGraph());
+    assertTrue(later.getGraph().isSharedWith(snapshot.getGraph(), keptSheet));
+    assertFalse(later.getGraph().isSharedWith(snapshot.getGraph(), brokenSheet));
+
+    // The food's weld didn't change, so restoring keeps it.
+    Joint weld = food.getJointList().joint;
+    world.restoreSnapshot(snapshot);
+    assertSame(weld, food.getJointList().joint);
+    assertNull(food.getJointList().next);
+    assertEquals(2, brokenSheet.getIceChunks().size());
+  }
+
+  @Test
+  public void testStateHash() {
+    IceWorld world1 = new IceWorld(42);
+    IceWorld world2 = new IceWorld(42);
+    IceSheet sheet1 = new IceSheet(new IceChunk(new Triangle(new Vec2(0, 0),
+        new Vec2(0, 4), new Vec2(4, 0))));
+    IceSheet sheet2 = new IceSheet(new IceChunk(new Triangle(new Vec2(0, 0),
+        new Vec2(0, 4), new Vec2(4, 0))));
+    world1.addIceSheet(sheet1);
+    Body b2 = world2.addIceSheet(sheet2);
+    world1.step(0.01f, 1, 1);
+    world2.step(0.01f, 1, 1);
+    assertEquals(world1.getStateHash(), world2.getStateHash());
+    assertNull(WorldStateDiff.describeFirstDifference(world1, world2));
+
+    // Splitting patches the graph hash; it must match a full recompute.
+    sheet2.randomBinaryDivision(sheet2.getRootChunk(), new SeededRandom(7));
+    long patched = sheet2.getGraphHash();
+    assertEquals(new IceSheet(sheet2.getRootChunk()).getGraphHash(), patched);
+    assertNotEquals(sheet1.getGraphHash(), patched);
+
+    world2.updateStateHash();
+    assertNotEquals(world1.getStateHash(), world2.getStateHash());
+    assertNotNull(WorldStateDiff.describeFirstDifference(world1, world2));
+    assertTrue(WorldStateDiff.describeFirstDifference(world1, world2).startsWith("ice sheet #0"));
+
+    b2.setTransform(new Vec2(1, 0), 0);
+    world2.updateStateHash();
+    assertNotEquals(world1.getStateHash(), world2.getStateHash());
+
+    // Once the bodies fall asleep, step() keeps their hashes, which still
+    // match hashing everything again.
+    Body food = world1.addFoodPieceBodyAt(new BreadBall(1), new Vec2(10, 10), 0);
+    for (int i = 0; i < 100; ++i) {
+      world1.step(0.02f, 1, 1);
+    }
+    assertFalse(food.isAwake());
+    long stepHash = world1.getStateHash();
+    world1.updateStateHash();
+    assertEquals(stepHash, world1.getStateHash());
+  }
+
+  @Test
+  public void testShatterRadius() {
+    IceWorld world = new IceWorld(3);
+    IceChunk c1 = new IceChunk(new Triangle(new Vec2(0, 0), new Vec2(0, 10),
+        new Vec2(10, 0)));
+    IceChunk c2 = new IceChunk(new Triangle(new Vec2(0, 10), new Vec2(10, 10),
+        new Vec2(10, 0)));
+    c1.addAdjacentOnEdge(1, c2, 2);
+    IceSheet sheet = new IceSheet(c1);
+    sheet.setMaxArea(0.5f);
+    world.addIceSheet(sheet);
+    float area = sheet.computeArea();
+
+    // A hole in the middle of the sheet: the sheet stays in one piece.
+    int removed = world.shatterRadius(new Vec2(5, 5), 2, 0.5f);
+    assertTrue(removed > 0);
+    assertEquals(1, world.getIceSheetBodies().size());
+    Body b = world.getIceSheetBodies().iterator().next();
+    float holeArea = area - ((IceSheet) b.getUserData()).computeArea();
+    assertTrue(holeArea > 0.75f * Math.PI * 4 && holeArea < 1.25f * Math.PI * 4);
+    assertNull(world.getFixtureAt(new Vec2(5, 5)));
+    assertNotNull(world.getFixtureAt(new Vec2(0.05f, 0.01f)));
+    for (Fixture f = b.getFixtureList(); f != null; f = f.getNext()) {
+      assertFalse(((IceChunk) f.getUserData()).isDeleted());
+    }
+
+    // Nothing to shatter out here.
+    assertEquals(0, world.shatterRadius(new Vec2(50, 50), 2, 0.5f));
+  }
+
+  @Test
+  public void testRemoveIceChunksThrough() {
+    IceWorld world = new IceWorld(4);
+    IceChunk c1 = new IceChunk(new Triangle(new Vec2(0, 0), new Vec2(0, 10),
+        new Vec2(10, 0)));
+    IceChunk c2 = new IceChunk(new Triangle(new Vec2(0, 10), new Vec2(10, 10),
+        new Vec2(10, 0)));
+    c1.addAdjacentOnEdge(1, c2, 2);
+    world.addIceSheet(new IceSheet(c1));
+
+    // Two cuts across the whole sheet separate the bottom, middle, and top
+    // (and maybe some slivers along the cuts).
+    Vec2[] starts = { new Vec2(-1, 3), new Vec2(-1, 7) };
+    Vec2[] ends = { new Vec2(11, 3), new Vec2(11, 7) };
+    assertTrue(world.removeIceChunksThrough(starts, ends, 2, 0.5f) > 0);
+    assertTrue(world.getIceSheetBodies().size() >= 3);
+    assertNull(world.getFixtureAt(new Vec2(5, 3)));
+    assertNull(world.getFixtureAt(new Vec2(5, 7)));
+    Body bottom = world.getFixtureAt(new Vec2(0.2f, 0.2f)).getBody();
+    Body middle = world.getFixtureAt(new Vec2(0.2f, 5)).getBody();
+    Body top = world.getFixtureAt(new Vec2(5, 9.5f)).getBody();
+    assertNotSame(bottom, middle);
+    assertNotSame(middle, top);
+    assertNotSame(bottom, top);
+
+    // Missing the ice does nothing.
+    assertEquals(0, world.removeIceChunksThrough(new Vec2(-1, -1), new Vec2(-1, 20), 0.5f));
+  }
+
+  @Test
+  public void testFoodBodyPool() {
+    IceWorld world = new IceWorld();
+    Body b1 = world.addFoodPieceBodyAt(new BreadBall(1), new Vec2(5, 5), 0);
+    world.step(0.01f, 1, 1);
+    world.removeFoodPieceBody(b1);
+    assertTrue(world.getFoodPieceBodies().isEmpty());
+    assertFalse(b1.isActive());
+    assertNull(world.getFixtureAt(new Vec2(5, 5)));
+
+    // The parked body is reused, resized, and moved.
+    BreadBall bigger = new BreadBall(2);
+    Body b2 = world.addFoodPieceBodyAt(bigger, new Vec2(-5, -5), 0);
+    assertSame(b1, b2);
+    assertTrue(b2.isActive());
+    assertSame(bigger, b2.getUserData());
+    assertEquals(2, b2.getFixtureList().getShape().getRadius(), 1e-6f);
+    assertNotNull(world.getFixtureAt(new Vec2(-6.5f, -5)));
+    assertEquals(1, world.getFoodPieceBodies().size());
+  }
+
+  @Test
+  public void testFractureWorker() {
+    FractureWorker worker = new FractureWorker();
+    IceWorld[] worlds = { new IceWorld(5), new IceWorld(5) };
+    IceSheet[] sheets = new IceSheet[worlds.length];
+    for (int i = 0; i < worlds.length; ++i) {
+      worlds[i].setFractureWorker(worker);
+      sheets[i] = new IceSheet(new IceChunk(new Triangle(new Vec2(0, 0),
+          new Vec2(0, 10), new Vec2(10, 0))));
+      sheets[i].setMaxArea(0.5f);
+      worlds[i].addIceSheet(sheets[i]);
+      worlds[i].addAgent(new Goose(1)).setTransform(new Vec2(0.5f, 0.5f), 0);
+    }
+    IceWorld world = worlds[0];
+    IceSheet sheet = sheets[0];
+    Body b = world.getIceSheetBodies().iterator().next();
+    long version = sheet.getVersion();
+    ArrayList<Vec2> perimeter = sheet.getBareEdgePerimeterCopy();
+
+    // The goose bumps the ice; the fracture is in flight until the next step,
+    // and meanwhile the sheet still looks the way it did.
+    world.step(0.01f, 1, 1);
+    assertFalse(b.isActive());
+    assertEquals(50, sheet.computeArea(), 1e-4f);
+    assertEquals(perimeter, sheet.getBareEdgePerimeterCopy());
+
+    // The next step applies it (and may set off more, which are applied
+    // here).
+    world.step(0.01f, 1, 1);
+    world.finishFractures();
+    assertTrue(sheet.getVersion() != version);
+    for (Body sheetBody : world.getIceSheetBodies()) {
+      IceSheet s = (IceSheet) sheetBody.getUserData();
+      int numFixtures = 0;
+      for (Fixture f = sheetBody.getFixtureList(); f != null; f = f.getNext()) {
+        assertTrue(s.getBareIceChunks().contains(f.getUserData()));
+        ++numFixtures;
+      }
+      assertEquals(s.getBareIceChunks().size(), numFixtures);
+    }
+
+    // Same seed, same fractures, whenever the worker gets to them.
+    worlds[1].step(0.01f, 1, 1);
+    worlds[1].step(0.01f, 1, 1);
+    assertEquals(world.getStateHash(), worlds[1].getStateHash());
+    worker.shutdown();
+  }
+
+  @Test
+  public void testParallelFractureMatchesSerial() {
+    FractureWorker worker = new FractureWorker(4);
+    IceWorld serial = new IceWorld(6);
+    IceWorld parallel = new IceWorld(6);
+    parallel.setFractureWorker(worker, false);
+    for (IceWorld world : new IceWorld[] { serial, parallel }) {
+      // Geese biting several sheets in the same step.
+      for (int i = 0; i < 4; ++i) {
+        IceSheet sheet = new IceSheet(new IceChunk(new Triangle(new Vec2(0, 0),
+            new Vec2(0, 10), new Vec2(10, 0))));
+        sheet.setMaxArea(0.5f);
+        world.addIceSheet(sheet).setTransform(new Vec2(20 * i, 0), 0);
+        world.addAgent(new Goose(1)).setTransform(new Vec2(20 * i + 0.5f, 0.5f), 0);
+      }
+    }
+    for (int i = 0; i < 10; ++i) {
+      serial.step(0.01f, 1, 1);
+      parallel.step(0.01f, 1, 1);
+      assertNull(WorldStateDiff.describeFirstDifference(serial, parallel));
+    }
+    int numChunks = 0;
+    for (Body b : parallel.getIceSheetBodies()) {
+      assertTrue(b.isActive());
+      numChunks += ((IceSheet) b.getUserData()).getIceChunks().size();
+    }
+    assertTrue(numChunks > 4);
+    worker.shutdown();
+  }
+
+  @Test
+  public void testLodStride() {
+    IceWorld world = new IceWorld(8);
+    world.setLodStride(4);
+    world.setLodFocus(new AABB(new Vec2(90, 90), new Vec2(110, 110)));
+    world.addAgent(new Goose(1));
+    world.addFoodPieceBodyAt(new BreadBall(1), new Vec2(5, 0), 0);
+
+    // Far from the focus, the goose only thinks every 4th step.
+    int numActed = 0;
+    for (int i = 0; i < 8; ++i) {
+      world.step(0.01f, 1, 1);
+      numActed += world.hasAnyAgentActed() ? 1 : 0;
+    }
+    assertEquals(2, numActed);
+
+    // Back in focus, it thinks every step.
+    world.setLodFocus(new AABB(new Vec2(-10, -10), new Vec2(10, 10)));
+    numActed = 0;
+    for (int i = 0; i < 4; ++i) {
+      world.step(0.01f, 1, 1);
+      numActed += world.hasAnyAgentActed() ? 1 : 0;
+    }
+    assertEquals(4, numActed);
+  }
+
+  @Test
+  public void testFoodGrid() {
+    IceWorld world = new IceWorld();
+    FoodGrid grid = world.getFoodGrid();
+    Body near = world.addFoodPieceBodyAt(new BreadBall(1), new Vec2(8, 1), 0);
+    Body behind = world.addFoodPieceBodyAt(new BreadBall(1), new Vec2(-3, 0), 0);
+    Body far = world.addFoodPieceBodyAt(new BreadBall(1), new Vec2(60, -40), 0);
+    assertEquals(3, grid.size());
+
+    Vec2 right = new Vec2(1, 0);
+    // All around, the nearest is behind; looking right, it's out of sight.
+    assertSame(behind, grid.findNearestInCone(new Vec2(), right, -1, Float.MAX_VALUE));
+    assertSame(near, grid.findNearestInCone(new Vec2(), right, 0.5f, Float.MAX_VALUE));
+    assertNull(grid.findNearestInCone(new Vec2(), right, 0.5f, 5));
+    assertSame(far, grid.findNearestInCone(new Vec2(55, -40), right, 0.5f, 10));
+
+    // Eaten food leaves the grid, and moved food is found where it went.
+    world.removeFoodPieceBody(near);
+    assertEquals(2, grid.size());
+    assertSame(far, grid.findNearestInCone(new Vec2(), right, 0.5f, Float.MAX_VALUE));
+    behind.setTransform(new Vec2(20, 0), 0);
+    world.step(0.01f, 1, 1);
+    assertSame(behind, grid.findNearestInCone(new Vec2(), right, 0.5f, Float.MAX_VALUE));
+  }
+
+  @Test
+  public void testParallelAgentsMatchSerial() {
+    AgentWorker worker = new AgentWorker(4);
+    IceWorld serial = new IceWorld(7);
+    IceWorld parallel = new IceWorld(7);
+    parallel.setAgentWorker(worker);
+    for (IceWorld world : new IceWorld[] { serial, parallel }) {
+      // Enough geese to be split between threads, chasing the same food.
+      for (int i = 0; i < 40; ++i) {
+        world.addAgent(new Goose(1)).setTransform(new Vec2(3 * (i % 8), 3 * (i / 8)), i);
+      }
+      world.addFoodPieceBodyAt(new BreadBall(1), new Vec2(10, 30), 0);
+      world.addFoodPieceBodyAt(new BreadBall(1), new Vec2(-10, 5), 0);
+    }
+    for (int i = 0; i < 50; ++i) {
+      serial.step(0.01f, 1, 1);
+      parallel.step(0.01f, 1, 1);
+      assertTrue(parallel.hasAnyAgentActed());
+      assertNull(WorldStateDiff.describeFirstDifference(serial, parallel));
+    }
+    worker.shutdown();
+  }
+
+  @Test
+  public void testFoodFlowField() {
+    AABB bounds = new AABB(new Vec2(-20, -20), new Vec2(60, 20));
+    IceWorld world = new IceWorld(9);
+    world.setFoodFlowField(new FoodFlowField(bounds, 1));
+    // A wall of ice between the geese and the food.
+    IceSheet sheet = new IceSheet(new IceChunk(new Triangle(new Vec2(0, -15),
+        new Vec2(0, 15), new Vec2(4, 0))));
+    sheet.setMaxArea(1);
+    world.addIceSheet(sheet).setTransform(new Vec2(20, 0), 0);
+    Body food = world.addFoodPieceBodyAt(new BreadBall(1), new Vec2(40, 0), 0);
+    world.addFoodPieceBodyAt(new BreadBall(1), new Vec2(50, 15), 0);
+    for (int i = 0; i < 3; ++i) {
+      world.addAgent(new Goose(1)).setTransform(new Vec2(10, 5 * i - 5), 0);
+    }
+
+    FoodFlowField field = world.getFoodFlowField();
+    world.step(0.01f, 1, 1);
+    // Getting past the ice costs more than the distance.
+    assertEquals(10, field.getCostToFood(new Vec2(30, 0)), 0.5f);
+    assertTrue(field.getCostToFood(new Vec2(10, 0)) > 35);
+    assertTrue(field.getCostToFood(new Vec2(10, 0)) < Float.MAX_VALUE);
+    Vec2 dir = new Vec2();
+    assertTrue(field.getFlowDirection(new Vec2(36, 0), dir));
+    assertTrue(dir.x > 0);
+    // Over open water, the waypoint is several cells ahead.
+    int waypoint = field.findWaypoint(field.getCellAt(new Vec2(30, 0)));
+    assertTrue(field.getCellCenter(waypoint, dir).x > 33);
+    assertTrue(field.getCellCenter(waypoint, dir).x < 40);
+
+    // The incrementally updated field always matches one built from scratch,
+    // down to which food each path leads to.
+    world.addFoodPieceBodyAt(new BreadBall(1), new Vec2(50, -15), 0);
+    world.addFoodPieceBodyAt(new BreadBall(1), new Vec2(-15, 10), 0);
+    for (int i = 0; i < 200; ++i) {
+      if (i == 100) {
+        world.removeFoodPieceBody(food);
+      }
+      world.step(0.05f, 1, 1);
+      FoodFlowField fresh = new FoodFlowField(bounds, 1);
+      fresh.update(world.getIceSheetBodies(), world.getFoodPieceBodies());
+      for (float x = -19.5f; x < 60; x += 1) {
+        for (float y = -19.5f; y < 20; y += 1) {
+          Vec2 pos = new Vec2(x, y);
+          assertEquals(fresh.getCostToFood(pos), field.getCostToFood(pos), 0);
+          int cell = field.getCellAt(pos);
+          assertEquals(fresh.findFoodCell(cell), field.findFoodCell(cell));
+          assertEquals(fresh.findWaypoint(cell), field.findWaypoint(cell));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFlowFieldKeepsVisionCone() {
+    IceWorld world = new IceWorld(4);
+    world.setFoodFlowField(new FoodFlowField(new AABB(new Vec2(-30, -10), new Vec2(30, 10)), 1));
+    world.addAgent(new Goose(1)).setTransform(new Vec2(0, 0), 0);
+    Body food = world.addFoodPieceBodyAt(new BreadBall(1), new Vec2(-20, 0), 0);
+
+    // The field knows the way, but the food is behind the goose.
+    world.step(0.01f, 1, 1);
+    FoodFlowField field = world.getFoodFlowField();
+    assertTrue(field.findWaypoint(field.getCellAt(new Vec2(0, 0))) >= 0);
+    assertFalse(world.hasAnyAgentActed());
+
+    food.setTransform(new Vec2(20, 0), 0);
+    world.step(0.01f, 1, 1);
+    assertTrue(world.hasAnyAgentActed());
+  }
+
+  @Test
+  public void testAiDecimation() {
+    IceWorld world = new IceWorld(10);
+    world.setAiDecimation(4);
+    for (int i = 0; i < 3; ++i) {
+      world.addAgent(new Goose(1)).setTransform(new Vec2(0, 3 * i), 0);
+    }
+    world.addFoodPieceBodyAt(new BreadBall(1), new Vec2(20, 3), 0);
+
+    // Each goose looks on a different step, and then steers by what it saw,
+    // so once they have all looked they act on every step.
+    for (int i = 0; i < 4; ++i) {
+      world.step(0.01f, 1, 1);
+    }
+    for (int i = 0; i < 5; ++i) {
+      world.step(0.01f, 1, 1);
+      assertTrue(world.hasAnyAgentActed());
+    }
+
+    // What they last saw is part of the state.
+    IceWorldSnapshot snapshot = world.takeSnapshot();
+    long hash = world.getStateHash();
+    for (int i = 0; i < 10; ++i) {
+      world.step(0.01f, 1, 1);
+    }
+    long laterHash = world.getStateHash();
+    world.restoreSnapshot(snapshot);
+    assertEquals(hash, world.getStateHash());
+    for (int i = 0; i < 10; ++i) {
+      world.step(0.01f, 1, 1);
+    }
+    assertEquals(laterHash, world.getStateHash());
+  }
 }
@@ -0,0 +1,60 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import graphics.HeadlessRenderer;
+import io.InputLogReader;
+import io.InputLogWriter;
+
+import org.jbox2d.common.Vec2;
+import org.junit.Test;
+
+import physics.Goose;
+import physics.IceWorld;
+import physics.WorldStateDiff;
+import sound.SilentAudioController;
+import tessellation.IceChunk;
+import tessellation.IceSheet;
+import tessellation.Triangle;
+import controller.FreeModeController;
+import controller.GameController;
+
+public class InputLogTest {
+
+  private static GameController createGame(long seed) {
+    IceWorld world = new IceWorld(seed);
+    world.addIceSheet(new IceSheet(new IceChunk(new Triangle(new Vec2(-10, -10),
+        new Vec2(-10, 10), new Vec2(10, -10)))));
+    world.addAgent(new Goose(1.0f)).setTransform(new Vec2(15, 15), 0);
+    return new FreeModeController(world, new HeadlessRenderer(), new SilentAudioController());
+  }
+
+  @Test
+  public void testRecordAndReplay() {
+    GameController recorded = createGame(1);
+    InputLogWriter writer = new InputLogWriter(recorded);
+    recorded.setInputLog(writer);
+    recorded.setViewportSize(800, 600);
+    for (int i = 0; i < 50; ++i) {
+      recorded.stepMillis(16, 1, 60, 60);
+    }
+    recorded.translateViewport(10, -5);
+    recorded.scaleViewport(1.5f);
+    recorded.fling(400, 500, 0, -3000);
+    for (int i = 0; i < 200; ++i) {
+      recorded.stepMillis(i % 3 == 0 ? 17 : 16, 1, 60, 60);
+    }
+    byte[] log = writer.toByteArray();
+
+    // A different seed: the log carries the random state.
+    GameController replayed = createGame(2);
+    InputLogReader reader = new InputLogReader(log);
+    assertEquals(FreeModeController.class.getName(), reader.getControllerClassName());
+    assertEquals(250, reader.replay(replayed));
+    assertEquals(recorded.getScore(), replayed.getScore());
+    assertEquals(recorded.getGameWorld().getStateHash(), replayed.getGameWorld().getStateHash());
+    assertNull(WorldStateDiff.describeFirstDifference(recorded.getGameWorld(), replayed.getGameWorld()));
+  }
+
+}
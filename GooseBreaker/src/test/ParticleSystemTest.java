@@ -0,0 +1,95 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.jbox2d.collision.AABB;
+import org.jbox2d.common.Vec2;
+import org.junit.Test;
+
+import graphics.Animation;
+import graphics.ParticleJet;
+import graphics.ParticleSystem;
+import graphics.StaticAnimation;
+import util.SeededRandom;
+
+public class ParticleSystemTest {
+
+  @Test
+  public void testStepAndRemove() {
+    Animation shortAnim = new StaticAnimation("short", 0);
+    Animation longAnim = new StaticAnimation("long", 0);
+    ParticleSystem particles = new ParticleSystem();
+    particles.spawn(shortAnim, 0, 0, 1, 2, 0.15f, 0, 1, 1);
+    particles.spawn(longAnim, 5, 5, -1, 0, 1, 0, 0, 2);
+    assertEquals(2, particles.size());
+
+    particles.step(0.1f);
+    assertEquals(0.1f, particles.getX(0), 1e-6f);
+    assertEquals(0.2f, particles.getY(0), 1e-6f);
+    assertEquals(0.1f, particles.getAngle(0), 1e-6f);
+    // Stops at the end of its lifetime, and is gone on the next step.
+    particles.step(0.1f);
+    assertEquals(0.15f, particles.getX(0), 1e-6f);
+    assertEquals(2, particles.size());
+    particles.step(0.1f);
+    assertEquals(1, particles.size());
+    assertSame(longAnim, particles.getAnimation(0));
+    assertEquals(4.7f, particles.getX(0), 1e-5f);
+    assertEquals(2, particles.getSize(0), 0);
+  }
+
+  @Test
+  public void testGrow() {
+    Animation anim = new StaticAnimation("anim", 0);
+    ParticleSystem particles = new ParticleSystem();
+    for (int i = 0; i < 1000; ++i) {
+      particles.spawn(anim, i, 0, 0, 0, 1, 0, 0, 1);
+    }
+    assertEquals(1000, particles.size());
+    assertEquals(999, particles.getX(999), 0);
+  }
+
+  @Test
+  public void testBudget() {
+    Animation anim = new StaticAnimation("anim", 0);
+    ParticleSystem particles = new ParticleSystem(4);
+    particles.setVisibleRegion(new AABB(new Vec2(0, 0), new Vec2(10, 10)));
+    particles.spawn(anim, 1, 1, 0, 0, 1, 0, 0, 1);
+    particles.spawn(anim, 20, 1, 0, 0, 5, 0, 0, 1);
+    assertEquals(10, particles.getEmissionCount(10));
+    particles.spawn(anim, 2, 2, 0, 0, 2, 0, 0, 1);
+    assertEquals(5, particles.getEmissionCount(10));
+    particles.spawn(anim, 3, 3, 0, 0, 3, 0, 0, 1);
+    assertEquals(0, particles.getEmissionCount(10));
+
+    // The off screen particle goes first, then the one with least time left.
+    particles.spawn(anim, 4, 4, 0, 0, 4, 0, 0, 1);
+    assertEquals(4, particles.size());
+    for (int i = 0; i < particles.size(); ++i) {
+      assertTrue(particles.getX(i) < 10);
+    }
+    particles.spawn(anim, 5, 5, 0, 0, 5, 0, 0, 1);
+    assertEquals(4, particles.size());
+    for (int i = 0; i < particles.size(); ++i) {
+      assertTrue(particles.getX(i) != 1);
+    }
+
+    particles.setMaxParticles(2);
+    assertEquals(2, particles.size());
+    assertEquals(9, particles.getX(0) + particles.getX(1), 0);
+  }
+
+  @Test
+  public void testSkipDrawsLikeEmit() {
+    Animation anim = new StaticAnimation("anim", 0);
+    ParticleSystem particles = new ParticleSystem();
+    SeededRandom emitRandom = new SeededRandom(5);
+    SeededRandom skipRandom = new SeededRandom(5);
+    new ParticleJet(anim, new Vec2(0, 0), emitRandom).emit(particles, 3);
+    new ParticleJet(anim, new Vec2(0, 0), skipRandom).skip(3);
+    assertEquals(3, particles.size());
+    assertEquals(emitRandom.getState(), skipRandom.getState());
+  }
+}
@@ -0,0 +1,59 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import util.RandomUtil;
+import util.SeededRandom;
+
+public class SeededRandomTest {
+
+  @Test
+  public void testSplitStreamsHaveOwnGamma() {
+    SeededRandom random = new SeededRandom(1);
+    SeededRandom a = random.split();
+    SeededRandom b = random.split();
+    assertTrue(a.getGamma() != random.getGamma());
+    assertTrue(a.getGamma() != b.getGamma());
+    assertEquals(1, a.getGamma() & 1);
+
+    // A copy put onto the same state and stream draws the same numbers.
+    SeededRandom copy = new SeededRandom(a.getState());
+    copy.setGamma(a.getGamma());
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(a.nextLong(), copy.nextLong());
+    }
+  }
+
+  @Test
+  public void testUniformSum() {
+    SeededRandom random = new SeededRandom(2);
+    assertEquals(3.0, RandomUtil.UniformSum(random, 0, 3, 5), 0);
+    for (int i = 0; i < 100; ++i) {
+      double x = RandomUtil.UniformSum(random, 4, 3, 5);
+      assertTrue(x >= 3 && x < 5);
+    }
+
+    // Two terms per draw.
+    SeededRandom copy = new SeededRandom(random.getState());
+    RandomUtil.UniformSum(random, 3, 0, 1);
+    copy.nextLong();
+    copy.nextLong();
+    assertEquals(copy.getState(), random.getState());
+
+    // A sum of n uniform terms has mean 1/2 and variance 1/(12n) on [0, 1).
+    int numSamples = 100000;
+    double sum = 0;
+    double sumSq = 0;
+    for (int i = 0; i < numSamples; ++i) {
+      double x = RandomUtil.UniformSum(random, 3, 0, 1);
+      sum += x;
+      sumSq += x * x;
+    }
+    double mean = sum / numSamples;
+    assertEquals(0.5, mean, 0.005);
+    assertEquals(1.0 / 36, sumSq / numSamples - mean * mean, 0.001);
+  }
+}
@@ -0,0 +1,32 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.jbox2d.collision.AABB;
+import org.jbox2d.common.Vec2;
+import org.junit.Test;
+
+import graphics.Snowfall;
+import util.SeededRandom;
+
+public class SnowfallTest {
+
+  @Test
+  public void testStaysInRegionAndRepeats() {
+    AABB region = new AABB(new Vec2(-10, -5), new Vec2(10, 5));
+    Snowfall snow = new Snowfall(region, 200, new SeededRandom(7));
+    Snowfall same = new Snowfall(region, 200, new SeededRandom(7));
+    assertEquals(200, snow.size());
+    for (int step = 0; step < 300; ++step) {
+      snow.step(1.0f / 60);
+      same.step(1.0f / 60);
+    }
+    for (int i = 0; i < snow.size(); ++i) {
+      assertTrue(snow.getX(i) >= -10 && snow.getX(i) <= 10);
+      assertTrue(snow.getY(i) >= -5 && snow.getY(i) <= 5);
+      assertEquals(snow.getX(i), same.getX(i), 0);
+      assertEquals(snow.getY(i), same.getY(i), 0);
+    }
+  }
+}
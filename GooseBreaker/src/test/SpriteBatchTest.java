@@ -0,0 +1,33 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import graphics.Animation;
+import graphics.SpriteBatch;
+import graphics.StaticAnimation;
+
+public class SpriteBatchTest {
+
+  @Test
+  public void testAddGrowAndClear() {
+    Animation anim = new StaticAnimation("anim", 0);
+    SpriteBatch batch = new SpriteBatch();
+    for (int i = 0; i < 1000; ++i) {
+      batch.add(i, 2 * i, 3, 4, 0.5f, anim);
+    }
+    assertEquals(1000, batch.size());
+    assertEquals(999, batch.getX(999), 0);
+    assertEquals(1998, batch.getY(999), 0);
+    assertEquals(3, batch.getWidth(999), 0);
+    assertEquals(4, batch.getHeight(999), 0);
+    assertEquals(0.5f, batch.getAngle(999), 0);
+    assertEquals(999, batch.getQuads()[999 * SpriteBatch.STRIDE], 0);
+    assertSame(anim, batch.getAnimation(999));
+
+    batch.clear();
+    assertEquals(0, batch.size());
+  }
+}
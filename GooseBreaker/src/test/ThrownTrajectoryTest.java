@@ -0,0 +1,46 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.jbox2d.common.Vec3;
+import org.junit.Test;
+
+import physics.FreeSpace;
+import physics.ThrownTrajectory;
+
+public class ThrownTrajectoryTest {
+
+  @Test
+  public void testTimeOfFlight() {
+    float maxError = 0.01f;
+    float[][] throwsPosVel = {
+        { 0, 0, 0, 10, 5, 20 },
+        { 1, 2, 3, -4, 0, 50 },
+        { 0, 0, 10, 0, 0, 0 },
+        // Thrown down faster than terminal velocity.
+        { 0, 0, 100, 0, 0, -200 },
+    };
+    for (float[] pv : throwsPosVel) {
+      ThrownTrajectory trajectory = new ThrownTrajectory(new Vec3(pv[0], pv[1], pv[2]),
+          new Vec3(pv[3], pv[4], pv[5]), FreeSpace.GRAVITY, FreeSpace.AIR_RESISTANCE);
+      float t = trajectory.getTimeOfFlightApprox(maxError);
+      assertTrue(t > 0);
+      assertEquals(0, trajectory.getZAtTime(t), maxError);
+      assertTrue(trajectory.getZAtTime(0.9f * t) > 0);
+    }
+  }
+
+  @Test
+  public void testPosAtTime() {
+    ThrownTrajectory trajectory = new ThrownTrajectory(new Vec3(1, 2, 0),
+        new Vec3(10, -5, 20), FreeSpace.GRAVITY, FreeSpace.AIR_RESISTANCE);
+    Vec3 pos = new Vec3();
+    for (float t = 0; t < 1; t += 0.1f) {
+      trajectory.getPosAtTime(t, pos);
+      assertEquals(trajectory.getXAtTime(t), pos.x, 0);
+      assertEquals(trajectory.getYAtTime(t), pos.y, 0);
+      assertEquals(trajectory.getZAtTime(t), pos.z, 0);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package util;
+
+import org.jbox2d.collision.AABB;
+import org.jbox2d.common.Vec2;
+
+import physics.AgentWorker;
+import physics.BreadBall;
+import physics.FoodFlowField;
+import physics.Goose;
+import physics.IceWorld;
+
+/**
+ * Measures how goose AI scales with the number of geese. For 10, 100, 1000...
+ * geese up to a maximum, fills an IceWorld with that many geese on a grid and
+ * some food scattered among them, steps it, and prints the average time per
+ * step spent on the agents deciding and acting, on keeping the FoodGrid and
+ * FoodFlowField up to date, and on everything else (see
+ * IceWorld.getLastAgentStepNanos() and friends).
+ *
+ * Usage: GooseSwarmBenchmark [max_geese [num_food [num_ticks [ai_decimation
+ *     [threads]]]]]
+ * Defaults to 10000 geese, 200 pieces of food, 200 ticks, an AI decimation
+ * of 1 (see IceWorld.setAiDecimation()), and deciding on the simulation
+ * thread. With threads > 0, geese decide on an AgentWorker with that many
+ * threads.
+ *
+ * @author Jack
+ *
+ */
+public class GooseSwarmBenchmark {
+  private static final float GOOSE_SIZE = 1.0f;
+  private static final float GOOSE_SPACING = 3.0f;
+  private static final float FLOW_FIELD_CELL_SIZE = 1.0f;
+  private static final float TICK_SECONDS = 1.0f / 60;
+  private static final long SEED = 1;
+
+  public static void main(String[] args) {
+    int maxGeese = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int numFood = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    int numTicks = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+    int aiDecimation = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+    int numThreads = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+    AgentWorker worker = numThreads > 0 ? new AgentWorker(numThreads) : null;
+
+    System.out.println("geese\tfood\tai us/tick\tgrid us/tick\tfield us/tick\tphysics us/tick");
+    for (int numGeese = 10; numGeese <= maxGeese; numGeese *= 10) {
+      IceWorld world = GooseSwarmBenchmark.createScenario(numGeese, numFood);
+      world.setAiDecimation(aiDecimation);
+      world.setAgentWorker(worker);
+      long agentNanos = 0;
+      long gridNanos = 0;
+      long fieldNanos = 0;
+      long physicsNanos = 0;
+      for (int i = 0; i < numTicks; ++i) {
+        world.step(GooseSwarmBenchmark.TICK_SECONDS, 6, 3);
+        agentNanos += world.getLastAgentStepNanos();
+        gridNanos += world.getLastFoodGridNanos();
+        fieldNanos += world.getLastFlowFieldNanos();
+        physicsNanos += world.getLastPhysicsStepNanos();
+      }
+      System.out.println(numGeese + "\t" + numFood + "\t"
+          + (agentNanos / numTicks / 1000) + "\t" + (gridNanos / numTicks / 1000) + "\t"
+          + (fieldNanos / numTicks / 1000) + "\t" + (physicsNanos / numTicks / 1000));
+    }
+    if (worker != null) {
+      worker.shutdown();
+    }
+  }
+
+
+  /**
+   * Create a world with the geese on a square grid, food scattered uniformly
+   * over the same square, and a FoodFlowField covering it.
+   * @param numGeese
+   * @param numFood
+   * @return
+   */
+  public static IceWorld createScenario(int numGeese, int numFood) {
+    IceWorld world = new IceWorld(GooseSwarmBenchmark.SEED);
+    SeededRandom random = new SeededRandom(GooseSwarmBenchmark.SEED);
+    int side = (int) Math.ceil(Math.sqrt(numGeese));
+    float size = side * GooseSwarmBenchmark.GOOSE_SPACING;
+    world.setFoodFlowField(new FoodFlowField(new AABB(new Vec2(-1, -1),
+        new Vec2(size + 1, size + 1)), GooseSwarmBenchmark.FLOW_FIELD_CELL_SIZE));
+
+    for (int i = 0; i < numGeese; ++i) {
+      world.addAgent(new Goose(GooseSwarmBenchmark.GOOSE_SIZE)).setTransform(
+          new Vec2((i % side + 0.5f) * GooseSwarmBenchmark.GOOSE_SPACING,
+              (i / side + 0.5f) * GooseSwarmBenchmark.GOOSE_SPACING),
+          (float) RandomUtil.Uniform(random, 0, 2 * Math.PI));
+    }
+    for (int i = 0; i < numFood; ++i) {
+      world.addFoodPieceBodyAt(new BreadBall(GooseSwarmBenchmark.GOOSE_SIZE / 2),
+          new Vec2((float) RandomUtil.Uniform(random, 0, size),
+              (float) RandomUtil.Uniform(random, 0, size)), 0);
+    }
+    return world;
+  }
+}
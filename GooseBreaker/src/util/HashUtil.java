@@ -0,0 +1,47 @@
+package util;
+
+/**
+ * Helpers for building cheap 64-bit hashes of simulation state. These are
+ * for detecting divergence between runs, not for security.
+ *
+ * @author Jack
+ *
+ */
+public class HashUtil {
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  /**
+   * Scramble the bits of z (the SplitMix64 finalizer). Every input bit
+   * affects every output bit.
+   * @param z
+   * @return
+   */
+  public static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+
+  /**
+   * Fold a value into a running hash. The result depends on the order in
+   * which values are folded in.
+   * @param h Running hash.
+   * @param v Value to fold in.
+   * @return
+   */
+  public static long combine(long h, long v) {
+    return mix(h + HashUtil.GOLDEN_GAMMA + v);
+  }
+
+
+  /**
+   * Same as combine(h, v), using the exact bits of the float.
+   * @param h
+   * @param v
+   * @return
+   */
+  public static long combine(long h, float v) {
+    return combine(h, (long) Float.floatToIntBits(v));
+  }
+}
@@ -0,0 +1,111 @@
+package util;
+
+import graphics.GameRenderer;
+import graphics.HeadlessRenderer;
+import io.InputLogReader;
+import io.LevelIO;
+import io.LevelTextIO;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import physics.IceWorld;
+import proto.LevelProto;
+import sound.AudioController;
+import sound.SilentAudioController;
+import controller.GameController;
+
+/**
+ * Replays a recorded input log on a level as fast as possible, without
+ * rendering or sound, and prints the final score and world state hash along
+ * with timing. Useful for reproducing reported slow frames and for
+ * benchmarking on real play data.
+ *
+ * Usage: HeadlessReplay level_file input_log_file
+ * Level files ending in .bin are read as binary protobufs, anything else as
+ * text protobufs.
+ *
+ * @author Jack
+ *
+ */
+public class HeadlessReplay {
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: HeadlessReplay level_file input_log_file");
+      System.exit(1);
+    }
+    LevelIO level = HeadlessReplay.loadLevel(args[0]);
+    InputStream logStream = new FileInputStream(args[1]);
+    InputLogReader log = InputLogReader.parseOrNull(logStream);
+    logStream.close();
+    if (level == null || log == null) {
+      System.exit(1);
+    }
+
+    GameController controller = HeadlessReplay.createController(log.getControllerClassName(), new IceWorld());
+    // Game time only advances with the replayed steps, so timed rules play out
+    // as recorded without waiting for them.
+    controller.setClock(new SimulatedTickClock(0));
+    controller.initFromLevelIO(level);
+    log.start(controller);
+
+    long slowestTickNanos = 0;
+    long slowestTick = -1;
+    long startNanos = System.nanoTime();
+    long tickStartNanos = startNanos;
+    while (log.advance(controller)) {
+      long now = System.nanoTime();
+      if (now - tickStartNanos > slowestTickNanos) {
+        slowestTickNanos = now - tickStartNanos;
+        slowestTick = log.getTickCount() - 1;
+      }
+      tickStartNanos = now;
+    }
+    long elapsedNanos = System.nanoTime() - startNanos;
+
+    System.out.println("ticks: " + log.getTickCount());
+    System.out.println("score: " + controller.getScore());
+    System.out.println("state hash: " + Long.toHexString(controller.getGameWorld().getStateHash()));
+    System.out.println("replay time: " + (elapsedNanos / 1000000) + " ms");
+    System.out.println("slowest tick: " + slowestTick + " (" + (slowestTickNanos / 1000) + " us)");
+  }
+
+
+  /**
+   * Read a level from a text or binary protobuf file, or return null on
+   * failure.
+   * @param path
+   * @return
+   * @throws IOException
+   */
+  public static LevelIO loadLevel(String path) throws IOException {
+    InputStream is = new FileInputStream(path);
+    LevelProto.Level level;
+    if (path.endsWith(".bin")) {
+      level = LevelTextIO.parseBinaryFormatLevelProtoOrNull(is);
+    } else {
+      level = LevelTextIO.parseTextFormatLevelProtoOrNull(is);
+    }
+    is.close();
+    return level != null ? LevelIO.fromProto(level) : null;
+  }
+
+
+  /**
+   * Create a controller of the named class with a headless renderer and
+   * silent audio.
+   * @param className
+   * @param world
+   * @return
+   */
+  public static GameController createController(String className, IceWorld world) {
+    try {
+      return (GameController) Class.forName(className)
+          .getConstructor(IceWorld.class, GameRenderer.class, AudioController.class)
+          .newInstance(world, new HeadlessRenderer(), new SilentAudioController());
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalArgumentException("can't create controller " + className, e);
+    }
+  }
+}
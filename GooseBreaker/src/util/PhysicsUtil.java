@@ -43,6 +43,30 @@ public class PhysicsUtil {
     return new AABB(lowerBound, upperBound);
   }
   
+  /**
+   * Get the world-space bounds of a body from the AABBs which the physics
+   * engine keeps for its fixtures, without looking at any shapes. The bounds
+   * are those as of the last world step, fattened slightly.
+   * @param b
+   * @param out Receives the bounds.
+   * @return False if the body has no fixture AABBs (e.g. it's inactive), in
+   *         which case out is unchanged.
+   */
+  public static boolean getBodyFixturesAABB(Body b, AABB out) {
+    boolean isFound = false;
+    for (Fixture f = b.getFixtureList(); f != null; f = f.getNext()) {
+      for (int i = 0; i < f.m_proxyCount; ++i) {
+        if (isFound) {
+          out.combine(f.getAABB(i));
+        } else {
+          out.set(f.getAABB(i));
+          isFound = true;
+        }
+      }
+    }
+    return isFound;
+  }
+  
   /**
    * Helper for getting the total AABB of a World.
    * @param world
@@ -52,6 +76,9 @@ public class PhysicsUtil {
     Vec2 lowerBound = new Vec2(Float.MAX_VALUE, Float.MAX_VALUE);
     Vec2 upperBound = new Vec2(Float.MIN_VALUE, Float.MIN_VALUE);
     for (Body b = world.getBodyList(); b != null; b = b.getNext()) {
+      if (!b.isActive()) {
+        continue;
+      }
       AABB bodyAABB = PhysicsUtil.getBodyShapesAABB(b);
       bodyAABB.lowerBound.addLocal(b.getPosition());
       bodyAABB.upperBound.addLocal(b.getPosition());
@@ -4,8 +4,17 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
-
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Helpers for drawing from common distributions. Each helper takes the
+ * Random to draw from, so that simulations can use their own (seeded)
+ * generator; the versions without a Random draw from a thread-local one.
+ */
 public class RandomUtil {
+  // UniformSum cuts each 64-bit draw into two 32-bit terms in [0, 1).
+  private static final double TERM_SCALE = 1.0 / (1L << 32);
 
   /**
    * Return a uniform double in [a, b)
@@ -17,7 +26,15 @@ public class RandomUtil {
    * @return
    */
   public static double Uniform(double a, double b) {
-    return Math.random() * (b - a) + a;
+    return Uniform(ThreadLocalRandom.current(), a, b);
+  }
+
+
+  /**
+   * Same as Uniform(a, b), but draw from the given Random.
+   */
+  public static double Uniform(Random random, double a, double b) {
+    return random.nextDouble() * (b - a) + a;
   }
 
 
@@ -36,11 +53,29 @@ public class RandomUtil {
    * @return
    */
   public static double UniformSum(int n, double a, double b) {
-    double rand = a;
-    for (int i = 0; i < n; ++i) {
-      rand += Math.random() * (b - a) / n;
+    return UniformSum(ThreadLocalRandom.current(), n, a, b);
+  }
+
+
+  /**
+   * Same as UniformSum(n, a, b), but draw from the given Random. Rather than
+   * drawing n separate doubles, each nextLong() is cut into two 32-bit
+   * terms, so only (n + 1) / 2 numbers are drawn. Steps of 2^-32 are far
+   * finer than anything the sum is used for.
+   */
+  public static double UniformSum(Random random, int n, double a, double b) {
+    if (n <= 0) {
+      return a;
+    }
+    long sum = 0;
+    for (int i = 0; i < n; i += 2) {
+      long bits = random.nextLong();
+      sum += bits & 0xffffffffL;
+      if (i + 1 < n) {
+        sum += bits >>> 32;
+      }
     }
-    return rand;
+    return a + sum * RandomUtil.TERM_SCALE * (b - a) / n;
   }
 
 
@@ -54,7 +89,15 @@ public class RandomUtil {
    * @return
    */
   public static int UniformInt(int a, int b) {
-    return (int) Uniform(a, b);
+    return UniformInt(ThreadLocalRandom.current(), a, b);
+  }
+
+
+  /**
+   * Same as UniformInt(a, b), but draw from the given Random.
+   */
+  public static int UniformInt(Random random, int a, int b) {
+    return (int) Uniform(random, a, b);
   }
 
 
@@ -68,7 +111,15 @@ public class RandomUtil {
    * @return
    */
   public static int UniformIntInclusive(int a, int b) {
-    return (int) Uniform(a, b + 1);
+    return UniformIntInclusive(ThreadLocalRandom.current(), a, b);
+  }
+
+
+  /**
+   * Same as UniformIntInclusive(a, b), but draw from the given Random.
+   */
+  public static int UniformIntInclusive(Random random, int a, int b) {
+    return (int) Uniform(random, a, b + 1);
   }
 
 
@@ -79,9 +130,17 @@ public class RandomUtil {
    * @return
    */
   public static <T> List<T> Shuffle(List<T> items) {
+    return Shuffle(ThreadLocalRandom.current(), items);
+  }
+
+
+  /**
+   * Same as Shuffle(items), but draw from the given Random.
+   */
+  public static <T> List<T> Shuffle(Random random, List<T> items) {
     ArrayList<T> shuffled = new ArrayList<T>(items);
     for (int i = 0; i < items.size(); ++i) {
-      int j = UniformInt(i, items.size());
+      int j = UniformInt(random, i, items.size());
       T tmp = shuffled.get(j);
       shuffled.set(j, shuffled.get(i));
       shuffled.set(i, tmp);
@@ -98,7 +157,15 @@ public class RandomUtil {
    * @return
    */
   public static <T> T UniformFrom(List<T> items) {
-    return items.get(UniformInt(0, items.size()));
+    return UniformFrom(ThreadLocalRandom.current(), items);
+  }
+
+
+  /**
+   * Same as UniformFrom(items), but draw from the given Random.
+   */
+  public static <T> T UniformFrom(Random random, List<T> items) {
+    return items.get(UniformInt(random, 0, items.size()));
   }
 
 
@@ -112,8 +179,16 @@ public class RandomUtil {
    * @return
    */
   public static <T> Collection<T> UniformFrom(int n, List<T> items) {
+    return UniformFrom(ThreadLocalRandom.current(), n, items);
+  }
+
+
+  /**
+   * Same as UniformFrom(n, items), but draw from the given Random.
+   */
+  public static <T> Collection<T> UniformFrom(Random random, int n, List<T> items) {
     Collection<T> result = new HashSet<T>();
-    List<T> shuffled = Shuffle(items);
+    List<T> shuffled = Shuffle(random, items);
     for (int i = 0; i < n; ++i) {
       result.add(shuffled.get(i));
     }
@@ -130,6 +205,14 @@ public class RandomUtil {
    * @return
    */
   public static <T> T WeightedFrom(T[] items, double[] weights) {
+    return WeightedFrom(ThreadLocalRandom.current(), items, weights);
+  }
+
+
+  /**
+   * Same as WeightedFrom(items, weights), but draw from the given Random.
+   */
+  public static <T> T WeightedFrom(Random random, T[] items, double[] weights) {
     int n = Math.min(items.length, weights.length);
 
     double totalWeight = 0;
@@ -137,7 +220,7 @@ public class RandomUtil {
       totalWeight += weights[i];
     }
 
-    double rand = Uniform(0, totalWeight);
+    double rand = Uniform(random, 0, totalWeight);
     for (int i = 0; i < n; ++i) {
       if (rand < weights[i]) {
         return items[i];
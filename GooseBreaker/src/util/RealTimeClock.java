@@ -0,0 +1,36 @@
+package util;
+
+/**
+ * A SimulationClock which follows the system clock: each step simulates the
+ * real time elapsed since the previous step.
+ *
+ * @author Jack
+ *
+ */
+public class RealTimeClock implements SimulationClock {
+  private long lastStepTimeMillis;
+
+  public RealTimeClock() {
+    this.lastStepTimeMillis = System.currentTimeMillis();
+  }
+
+  @Override
+  public long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  @Override
+  public long nextStepMillis() {
+    long now = System.currentTimeMillis();
+    long elapsed = now - this.lastStepTimeMillis;
+    this.lastStepTimeMillis = now;
+    return elapsed;
+  }
+
+  /**
+   * The system clock advances by itself.
+   */
+  @Override
+  public void advance(long elapsedMillis) {
+  }
+}
@@ -0,0 +1,136 @@
+package util;
+
+import java.util.Random;
+
+/**
+ * A small, fast, seedable random number generator (SplitMix64) which can be
+ * used anywhere a java.util.Random is expected.
+ *
+ * Unlike Random, the state is a plain long which can be read back and
+ * restored (e.g. for world snapshots), and nothing is synchronized, so each
+ * instance should only be used by one thread at a time. Use split() to derive
+ * independent streams.
+ *
+ * @author Jack
+ *
+ */
+public class SeededRandom extends Random {
+  private static final long serialVersionUID = 1L;
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+  private long state;
+  // Added to the state on every draw. Always odd; split() gives each new
+  // generator its own, so that its stream isn't just a later stretch of this
+  // one's.
+  private long gamma;
+
+  public SeededRandom(long seed) {
+    this(seed, SeededRandom.GOLDEN_GAMMA);
+  }
+
+
+  private SeededRandom(long seed, long gamma) {
+    super(0);
+    this.state = seed;
+    this.gamma = gamma;
+  }
+
+
+  /**
+   * Seed from the current time. Runs won't be reproducible.
+   */
+  public SeededRandom() {
+    this(System.nanoTime());
+  }
+
+
+  public long getState() {
+    return this.state;
+  }
+
+
+  public void setState(long state) {
+    this.state = state;
+  }
+
+
+  public long getGamma() {
+    return this.gamma;
+  }
+
+
+  /**
+   * Put the generator onto another stream, e.g. the stream of a recorded
+   * generator. The gamma is forced to be odd.
+   * @param gamma
+   */
+  public void setGamma(long gamma) {
+    this.gamma = gamma | 1;
+  }
+
+
+  @Override
+  public void setSeed(long seed) {
+    this.state = seed;
+  }
+
+
+  /**
+   * Helper method. Advance the state and return 64 mixed random bits.
+   * @return
+   */
+  private long nextRaw() {
+    this.state += this.gamma;
+    return HashUtil.mix(this.state);
+  }
+
+
+  /**
+   * Helper method. Derive a gamma for a new stream from the next state, as
+   * SplitMix64 does: mixed differently from the outputs, forced odd, and with
+   * enough bit transitions that the additions spread well.
+   * @return
+   */
+  private long nextGamma() {
+    this.state += this.gamma;
+    long z = this.state;
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    z = (z ^ (z >>> 33)) | 1L;
+    if (Long.bitCount(z ^ (z >>> 1)) < 24) {
+      z ^= 0xaaaaaaaaaaaaaaaaL;
+    }
+    return z;
+  }
+
+
+  @Override
+  protected int next(int bits) {
+    return (int) (this.nextRaw() >>> (64 - bits));
+  }
+
+
+  @Override
+  public long nextLong() {
+    return this.nextRaw();
+  }
+
+
+  @Override
+  public double nextDouble() {
+    return (this.nextRaw() >>> 11) * SeededRandom.DOUBLE_UNIT;
+  }
+
+
+  /**
+   * Create a new generator whose stream is independent of this one, with
+   * its own starting state and gamma. This advances this generator by two
+   * draws.
+   * @return
+   */
+  public SeededRandom split() {
+    long seed = this.nextRaw();
+    return new SeededRandom(seed, this.nextGamma());
+  }
+}
@@ -0,0 +1,46 @@
+package util;
+
+/**
+ * A SimulationClock which only advances when the game steps, by a fixed tick
+ * per step (or by the explicit amount passed to GameController.stepMillis()).
+ * Games using it run as fast as they are stepped, with exactly the same rules
+ * as in real time.
+ *
+ * @author Jack
+ *
+ */
+public class SimulatedTickClock implements SimulationClock {
+  private long timeMillis;
+  private long tickMillis;
+
+  /**
+   * @param tickMillis Time simulated by each step().
+   */
+  public SimulatedTickClock(long tickMillis) {
+    this.timeMillis = 0;
+    this.tickMillis = tickMillis;
+  }
+
+  public long getTickMillis() {
+    return this.tickMillis;
+  }
+
+  public void setTickMillis(long tickMillis) {
+    this.tickMillis = tickMillis;
+  }
+
+  @Override
+  public long currentTimeMillis() {
+    return this.timeMillis;
+  }
+
+  @Override
+  public long nextStepMillis() {
+    return this.tickMillis;
+  }
+
+  @Override
+  public void advance(long elapsedMillis) {
+    this.timeMillis += elapsedMillis;
+  }
+}
@@ -0,0 +1,34 @@
+package util;
+
+/**
+ * The source of game time for controllers. Game rules (timers, time limits,
+ * message timeouts) read the time from here rather than from the system, so
+ * that the same rules work whether the game runs in real time or as fast as
+ * possible (replays, tests, batch simulations).
+ *
+ * @author Jack
+ *
+ */
+public interface SimulationClock {
+
+  /**
+   * Get the current game time in milliseconds. Only differences between
+   * times are meaningful.
+   * @return
+   */
+  public long currentTimeMillis();
+
+  /**
+   * Get the time to simulate in the next step, in milliseconds. Called once
+   * at the start of each real-time step.
+   * @return
+   */
+  public long nextStepMillis();
+
+  /**
+   * Called once per game step, after nextStepMillis() or when stepping by an
+   * explicit amount, with the time the step simulated.
+   * @param elapsedMillis
+   */
+  public void advance(long elapsedMillis);
+}